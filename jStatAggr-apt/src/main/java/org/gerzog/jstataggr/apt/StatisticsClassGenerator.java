@@ -0,0 +1,114 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.apt;
+
+import static org.gerzog.jstataggr.core.utils.Throwables.propogate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.gerzog.jstataggr.core.expressions.IExpressionHandler;
+import org.gerzog.jstataggr.core.manager.impl.StatisticsManagerImpl;
+
+/**
+ * Generates classes of collectors for statistics listed by
+ * {@link StatisticsEntryProcessor} and writes them to output directory, so
+ * they are loaded instead of generation on startup
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public final class StatisticsClassGenerator {
+
+	/**
+	 * Expressions are not invoked during generation
+	 */
+	private static final IExpressionHandler EXPRESSION_HANDLER = new IExpressionHandler() {
+
+		@Override
+		public <T> T invokeExpression(final String expression, final T originalValue) {
+			return originalValue;
+		}
+
+	};
+
+	private StatisticsClassGenerator() {
+
+	}
+
+	public static void main(final String[] args) {
+		Validate.isTrue(args.length == 1, "Usage: StatisticsClassGenerator <output directory>");
+
+		generate(new File(args[0]), Thread.currentThread().getContextClassLoader());
+	}
+
+	public static Collection<Class<?>> generate(final File classOutput, final ClassLoader classLoader) {
+		final Collection<Class<?>> classes = findStatisticsClasses(classLoader);
+
+		final StatisticsManagerImpl manager = new StatisticsManagerImpl(EXPRESSION_HANDLER);
+		manager.setClassOutput(classOutput);
+
+		manager.registerStatistics(classes);
+
+		return classes;
+	}
+
+	public static Collection<Class<?>> findStatisticsClasses(final ClassLoader classLoader) {
+		final Set<String> classNames = new LinkedHashSet<>();
+
+		for (final URL index : Collections.list(propogate(() -> classLoader.getResources(StatisticsEntryProcessor.INDEX_RESOURCE)))) {
+			classNames.addAll(readIndex(index));
+		}
+
+		final List<Class<?>> result = new ArrayList<>();
+
+		for (final String className : classNames) {
+			result.add(propogate(() -> Class.forName(className, false, classLoader)));
+		}
+
+		return result;
+	}
+
+	private static List<String> readIndex(final URL index) {
+		return propogate(() -> {
+			final List<String> result = new ArrayList<>();
+
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))) {
+				String line;
+
+				while ((line = reader.readLine()) != null) {
+					if (StringUtils.isNotBlank(line)) {
+						result.add(line.trim());
+					}
+				}
+			}
+
+			return result;
+		});
+	}
+
+}
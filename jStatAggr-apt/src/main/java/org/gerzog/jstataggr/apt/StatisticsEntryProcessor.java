@@ -0,0 +1,136 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.apt;
+
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import org.apache.commons.lang3.StringUtils;
+import org.gerzog.jstataggr.annotations.Aggregated;
+import org.gerzog.jstataggr.annotations.StatisticsEntry;
+import org.gerzog.jstataggr.annotations.StatisticsKey;
+
+/**
+ * Validates classes marked with {@link StatisticsEntry} at compile time and
+ * lists them in {@link #INDEX_RESOURCE}, so classes of their collectors can be
+ * generated by {@link StatisticsClassGenerator} after compilation
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+@SupportedAnnotationTypes("org.gerzog.jstataggr.annotations.StatisticsEntry")
+public class StatisticsEntryProcessor extends AbstractProcessor {
+
+	public static final String INDEX_RESOURCE = "META-INF/jstataggr/statistics";
+
+	private final Set<String> entries = new TreeSet<>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+		for (final Element element : roundEnv.getElementsAnnotatedWith(StatisticsEntry.class)) {
+			final TypeElement type = (TypeElement) element;
+
+			if (validate(type)) {
+				entries.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+			}
+		}
+
+		if (roundEnv.processingOver() && !entries.isEmpty()) {
+			writeIndex();
+		}
+
+		return false;
+	}
+
+	protected boolean validate(final TypeElement type) {
+		boolean result = true;
+
+		for (final VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+			final boolean key = field.getAnnotation(StatisticsKey.class) != null;
+			final boolean aggregated = field.getAnnotation(Aggregated.class) != null;
+
+			if (key && aggregated) {
+				result = error(field, "StatisticsKey field <" + field.getSimpleName() + "> cannot be marked as @Aggregated");
+			}
+
+			if ((key || aggregated) && !hasGetter(type, field)) {
+				result = error(field, "There is no public getter for field <" + field.getSimpleName() + ">");
+			}
+		}
+
+		return result;
+	}
+
+	private boolean hasGetter(final TypeElement type, final VariableElement field) {
+		final String name = StringUtils.capitalize(field.getSimpleName().toString());
+		final boolean bool = field.asType().getKind() == TypeKind.BOOLEAN;
+
+		for (final ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+			final String methodName = method.getSimpleName().toString();
+
+			if ((methodName.equals("get" + name) || (bool && methodName.equals("is" + name))) && method.getParameters().isEmpty()
+					&& method.getModifiers().contains(Modifier.PUBLIC) && (method.getKind() == ElementKind.METHOD)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private boolean error(final Element element, final String message) {
+		processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+
+		return false;
+	}
+
+	private void writeIndex() {
+		try {
+			final FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, StringUtils.EMPTY, INDEX_RESOURCE);
+
+			try (Writer writer = index.openWriter()) {
+				for (final String entry : entries) {
+					writer.write(entry);
+					writer.write('\n');
+				}
+			}
+		} catch (final Exception e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR, "Cannot write index of statistics: " + e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.apt
+
+import java.nio.file.Files
+
+import org.gerzog.jstataggr.AggregationType
+import org.gerzog.jstataggr.annotations.Aggregated
+import org.gerzog.jstataggr.annotations.StatisticsEntry
+import org.gerzog.jstataggr.annotations.StatisticsKey
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class StatisticsClassGeneratorSpec extends Specification {
+
+	@StatisticsEntry('GeneratorStatistics')
+	static class Statistics {
+
+		@StatisticsKey
+		String name
+
+		@Aggregated(AggregationType.SUM)
+		int value
+	}
+
+	File index = Files.createTempDirectory('index').toFile()
+
+	File output = Files.createTempDirectory('output').toFile()
+
+	ClassLoader classLoader = new URLClassLoader([index.toURI().toURL()] as URL[], getClass().classLoader)
+
+	def setup() {
+		def file = new File(index, StatisticsEntryProcessor.INDEX_RESOURCE)
+		file.parentFile.mkdirs()
+		file.text = "${Statistics.name}\n"
+	}
+
+	def cleanup() {
+		index.deleteDir()
+		output.deleteDir()
+	}
+
+	def "check statistics classes read from index"() {
+		when:
+		def result = StatisticsClassGenerator.findStatisticsClasses(classLoader)
+
+		then:
+		result == [Statistics]
+	}
+
+	def "check classes of collectors written to output"() {
+		when:
+		StatisticsClassGenerator.generate(output, classLoader)
+
+		then:
+		def classes = []
+		output.eachFileRecurse { if (it.name.endsWith('.class')) classes << it.name }
+		classes.any { it.endsWith('Updater.class') }
+		classes.any { it.endsWith('Key.class') }
+	}
+}
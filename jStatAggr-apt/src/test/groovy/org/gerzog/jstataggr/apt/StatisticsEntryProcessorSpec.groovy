@@ -0,0 +1,158 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.apt
+
+import java.nio.file.Files
+
+import javax.tools.DiagnosticCollector
+import javax.tools.JavaFileObject
+import javax.tools.SimpleJavaFileObject
+import javax.tools.ToolProvider
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class StatisticsEntryProcessorSpec extends Specification {
+
+	static final String VALID = '''
+		package test;
+
+		import org.gerzog.jstataggr.AggregationType;
+		import org.gerzog.jstataggr.annotations.*;
+
+		@StatisticsEntry
+		public class Valid {
+
+			@StatisticsKey
+			private String name;
+
+			@Aggregated(AggregationType.SUM)
+			private int value;
+
+			public String getName() { return name; }
+
+			public int getValue() { return value; }
+		}
+		'''
+
+	static final String WITHOUT_GETTER = '''
+		package test;
+
+		import org.gerzog.jstataggr.annotations.*;
+
+		@StatisticsEntry
+		public class WithoutGetter {
+
+			@StatisticsKey
+			private String name;
+		}
+		'''
+
+	static final String WITHOUT_KEY = '''
+		package test;
+
+		import org.gerzog.jstataggr.AggregationType;
+		import org.gerzog.jstataggr.annotations.*;
+
+		@StatisticsEntry
+		public class WithoutKey {
+
+			@Aggregated(AggregationType.SUM)
+			private int value;
+
+			public int getValue() { return value; }
+		}
+		'''
+
+	static final String AGGREGATED_KEY = '''
+		package test;
+
+		import org.gerzog.jstataggr.AggregationType;
+		import org.gerzog.jstataggr.annotations.*;
+
+		@StatisticsEntry
+		public class AggregatedKey {
+
+			@StatisticsKey
+			@Aggregated(AggregationType.MIN)
+			private int value;
+
+			public int getValue() { return value; }
+		}
+		'''
+
+	File output = Files.createTempDirectory('processor').toFile()
+
+	DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>()
+
+	def cleanup() {
+		output.deleteDir()
+	}
+
+	def "check statistics entries listed in index"() {
+		when:
+		def result = compile(Valid: VALID)
+
+		then:
+		result
+		new File(output, StatisticsEntryProcessor.INDEX_RESOURCE).readLines() == ['test.Valid']
+	}
+
+	def "check statistics entry without key accepted as in runtime"() {
+		when:
+		def result = compile(WithoutKey: WITHOUT_KEY)
+
+		then:
+		result
+		new File(output, StatisticsEntryProcessor.INDEX_RESOURCE).readLines() == ['test.WithoutKey']
+	}
+
+	def "check invalid statistics entries rejected"() {
+		when:
+		def result = compile((className): source)
+
+		then:
+		!result
+		diagnostics.diagnostics.any { it.getMessage(null).contains(message) }
+		!new File(output, StatisticsEntryProcessor.INDEX_RESOURCE).exists()
+
+		where:
+		className		| source			| message
+		'WithoutGetter'	| WITHOUT_GETTER	| 'There is no public getter for field <name>'
+		'AggregatedKey'	| AGGREGATED_KEY	| 'cannot be marked as @Aggregated'
+	}
+
+	boolean compile(Map<String, String> sources) {
+		def compiler = ToolProvider.systemJavaCompiler
+		def files = sources.collect { name, source ->
+			new SimpleJavaFileObject(URI.create("string:///test/${name}.java"), JavaFileObject.Kind.SOURCE) {
+						@Override
+						CharSequence getCharContent(boolean ignoreEncodingErrors) {
+							source
+						}
+					}
+		}
+		def options = ['-classpath', System.getProperty('java.class.path'), '-d', output.path]
+
+		def task = compiler.getTask(null, null, diagnostics, options, null, files)
+		task.processors = [new StatisticsEntryProcessor()]
+
+		task.call()
+	}
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr;
+
+/**
+ * Defines what happens with new statistics keys when number of buckets of
+ * statistics reached it's limit
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public enum BucketOverflow {
+
+	/**
+	 * Entries with new keys are aggregated into a single overflow bucket.
+	 * Statistics keys of overflow bucket have default values (null, zero or
+	 * false)
+	 */
+	FOLD,
+
+	/**
+	 * Least recently updated buckets are removed to free space for new keys
+	 * and passed to eviction writers. Updates applied to bucket after it was
+	 * evicted are lost
+	 */
+	EVICT;
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr;
+
+/**
+ * Defines how collected statistics are cleaned up
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public enum CleanupMode {
+
+	/**
+	 * Collected buckets are removed one by one. Updates applied to bucket
+	 * after it was collected are lost
+	 */
+	REMOVE,
+
+	/**
+	 * Collecting all statistics with {@link IStatisticsFilter#ALL} replaces
+	 * storage with an empty one and collects the old storage only after all
+	 * updates in progress are finished, so no updates are lost. Every update
+	 * pays for registering itself in current storage
+	 */
+	SWAP;
+
+}
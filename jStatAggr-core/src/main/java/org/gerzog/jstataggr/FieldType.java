@@ -36,6 +36,25 @@ public enum FieldType {
 	/**
 	 * Accumulator types (LongAdder/LongAccumulator) will be used for aggregation
 	 */
-	ACCUMULATOR;
+	ACCUMULATOR,
+
+	/**
+	 * Volatile primitive (long/int) fields updated with
+	 * AtomicLongFieldUpdater/AtomicIntegerFieldUpdater will be used for
+	 * aggregation, so bucket holds no extra object per aggregation
+	 */
+	FIELD_UPDATER,
+
+	/**
+	 * All packed aggregations of bucket will be kept as longs in a single
+	 * AtomicLongArray, so bucket holds one object for all of them
+	 */
+	PACKED,
+
+	/**
+	 * Single compare-and-set cell which will be inflated to striped cells
+	 * (like LongAdder/LongAccumulator) only when updates of it are contended
+	 */
+	ADAPTIVE;
 
 }
@@ -24,6 +24,12 @@ package org.gerzog.jstataggr;
 @FunctionalInterface
 public interface IStatisticsFilter {
 
+	/**
+	 * Filter applied to all statistics keys. Collectors can handle it in a
+	 * more efficient way than any other filter
+	 */
+	IStatisticsFilter ALL = (statisticsKey) -> true;
+
 	/**
 	 * Is piece of aggregated statistics represented by key is applied to filter rules
 	 *
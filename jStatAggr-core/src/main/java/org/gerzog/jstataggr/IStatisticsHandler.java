@@ -29,6 +29,17 @@ public interface IStatisticsHandler {
 	 */
 	void handleStatistics(Object statisticsEntry);
 
+	/**
+	 * Updates aggregated data with batch of entries. By default each entry is
+	 * handled separately, implementations can resolve annotations once for
+	 * each class of entries in batch
+	 */
+	default void handleStatistics(final Collection<?> statisticsEntries) {
+		for (final Object statisticsEntry : statisticsEntries) {
+			handleStatistics(statisticsEntry);
+		}
+	}
+
 	/**
 	 * Collects all available statistics and send it to StatisticsWriters
 	 *
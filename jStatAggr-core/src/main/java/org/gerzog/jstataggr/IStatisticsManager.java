@@ -26,6 +26,12 @@ import java.util.Map;
  */
 public interface IStatisticsManager {
 
+	/**
+	 * Postfix of name under which overflow bucket of statistics is collected,
+	 * see {@link org.gerzog.jstataggr.BucketOverflow#FOLD}
+	 */
+	String OVERFLOW_POSTFIX = "#overflow";
+
 	/**
 	 * Updated statistics collector data
 	 *
@@ -37,7 +43,135 @@ public interface IStatisticsManager {
 	void updateStatistics(Object statisticsEntry, String statisticsName);
 
 	/**
-	 * Collects corresponding statistics data
+	 * Updates statistics collector data with batch of entries. Collector is
+	 * resolved once for whole batch
+	 *
+	 * @param statisticsEntries
+	 *            - pieces of data of same class to update statistics
+	 * @param statisticsName
+	 *            - name of statistics
+	 */
+	void updateStatistics(Iterable<?> statisticsEntries, String statisticsName);
+
+	/**
+	 * Updates statistics collector data with rows of columns. Each column is
+	 * an array of values of statistics key or aggregated field and is mapped
+	 * by name of this field. Consecutive rows with equal statistics keys are
+	 * aggregated at once, so rows sorted by keys are applied fastest
+	 *
+	 * @param columns
+	 *            - arrays of values for all statistics keys and aggregated
+	 *            fields of statistics class
+	 * @param size
+	 *            - number of rows to apply
+	 * @param statisticsClass
+	 *            - class marked with
+	 *            {@link org.gerzog.jstataggr.annotations.StatisticsEntry}
+	 * @param statisticsName
+	 *            - name of statistics
+	 */
+	void updateStatistics(Map<String, ?> columns, int size, Class<?> statisticsClass, String statisticsName);
+
+	/**
+	 * Calculates hash code of statistics key of entry. Entries with equal
+	 * statistics keys have equal hashes
+	 *
+	 * @param statisticsEntry
+	 *            - piece of data to calculate hash of it's statistics key
+	 * @param statisticsName
+	 *            - name of statistics
+	 */
+	int hashStatisticsKey(Object statisticsEntry, String statisticsName);
+
+	/**
+	 * Copies values of statistics keys and aggregated fields of entry into a
+	 * compact record. Record can be passed to updateStatistics instead of the
+	 * entry, so entry object can be reused after this call
+	 *
+	 * @param statisticsEntry
+	 *            - piece of data to copy
+	 * @param statisticsName
+	 *            - name of statistics
+	 */
+	Object extractRecord(Object statisticsEntry, String statisticsName);
+
+	/**
+	 * Creates implementation of recorder interface that updates statistics
+	 * without creation of statistics entries. Each method of recorder should
+	 * return void and accept values of statistics keys and then values of
+	 * aggregated fields of statistics class in order of their declaration.
+	 * Statistics are updated in calling thread
+	 *
+	 * @param recorderType
+	 *            - recorder interface
+	 * @param statisticsClass
+	 *            - class marked with
+	 *            {@link org.gerzog.jstataggr.annotations.StatisticsEntry}
+	 * @param statisticsName
+	 *            - name of statistics
+	 */
+	<T> T createRecorder(Class<T> recorderType, Class<?> statisticsClass, String statisticsName);
+
+	/**
+	 * Creates partial aggregates that fold statistics entries in calling
+	 * thread and merge them into statistics at once. Returns null if buckets
+	 * of statistics cannot be merged, i.e. statistics is not sharded
+	 *
+	 * @param statisticsClass
+	 *            - class of statistics entries or of records extracted from
+	 *            them
+	 * @param statisticsName
+	 *            - name of statistics
+	 */
+	IStatisticsPartials createPartials(Class<?> statisticsClass, String statisticsName);
+
+	/**
+	 * Creates collector of statistics in advance, so first update of
+	 * statistics doesn't pay for it's generation. Invalid statistics class is
+	 * rejected immediately
+	 *
+	 * @param statisticsClass
+	 *            - class marked with
+	 *            {@link org.gerzog.jstataggr.annotations.StatisticsEntry}
+	 * @param statisticsName
+	 *            - name of statistics
+	 */
+	void registerStatistics(Class<?> statisticsClass, String statisticsName);
+
+	/**
+	 * Drops collector of statistics together with it's collected data and
+	 * generated classes. Next update of statistics generates collector again,
+	 * e.g. for redeployed statistics class
+	 *
+	 * @param statisticsName
+	 *            - name of statistics
+	 */
+	void unregisterStatistics(String statisticsName);
+
+	/**
+	 * Returns number of updates with new statistics keys which were folded
+	 * into overflow bucket because statistics reached
+	 * {@link org.gerzog.jstataggr.annotations.StatisticsEntry#maxBuckets()}.
+	 * Each folded update is counted, not distinct keys
+	 *
+	 * @param statisticsName
+	 *            - name of statistics
+	 */
+	long getFoldedUpdateCount(String statisticsName);
+
+	/**
+	 * Returns number of buckets evicted because statistics reached
+	 * {@link org.gerzog.jstataggr.annotations.StatisticsEntry#maxBuckets()}
+	 *
+	 * @param statisticsName
+	 *            - name of statistics
+	 */
+	long getEvictedCount(String statisticsName);
+
+	/**
+	 * Collects corresponding statistics data. Overflow bucket of statistics
+	 * with limit of buckets is collected separately under statistics name
+	 * with {@link #OVERFLOW_POSTFIX}
 	 * 
 	 * @param statisticsName
 	 *            - name of statistics to collect
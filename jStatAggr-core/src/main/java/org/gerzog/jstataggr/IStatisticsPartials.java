@@ -0,0 +1,49 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr;
+
+/**
+ * Partial aggregates of statistics entries with same statistics keys.
+ *
+ * Entries are folded in a single thread, then partials can be passed to
+ * another thread and merged into statistics at once, so bucket of each key is
+ * updated once per merge instead of once per entry
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public interface IStatisticsPartials {
+
+	/**
+	 * Folds statistics entry into partial aggregate of it's statistics key.
+	 * Entry is not referenced after this call
+	 *
+	 * @param statisticsEntry
+	 *            - piece of data to fold
+	 */
+	void fold(Object statisticsEntry);
+
+	/**
+	 * Merges partial aggregates into statistics they were created for
+	 */
+	void merge();
+
+	/**
+	 * Returns number of statistics entries folded into partial aggregates
+	 */
+	int getEntryCount();
+
+}
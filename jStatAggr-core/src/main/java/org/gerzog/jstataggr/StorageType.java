@@ -0,0 +1,50 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr;
+
+/**
+ * Defines how statistics buckets of collector are stored
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public enum StorageType {
+
+	/**
+	 * Storage will be chosen based on types of statistics keys
+	 */
+	AUTO,
+
+	/**
+	 * Buckets will be stored in a hash map by statistics key
+	 */
+	HASHED,
+
+	/**
+	 * Buckets will be stored in a preallocated array by index calculated from
+	 * statistics keys. Can be used only if all statistics keys are enums,
+	 * booleans or integral values with bounded range
+	 */
+	INDEXED,
+
+	/**
+	 * Buckets will be stored in a map by key values packed into a single long.
+	 * Can be used only if all statistics keys are primitives or enums and
+	 * packed key fits 64 bits
+	 */
+	PACKED;
+
+}
@@ -21,6 +21,10 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.gerzog.jstataggr.BucketOverflow;
+import org.gerzog.jstataggr.CleanupMode;
+import org.gerzog.jstataggr.StorageType;
+
 /**
  * Class marked with this annotation will be handled as a single portion of
  * Statistics Data
@@ -37,4 +41,38 @@ public @interface StatisticsEntry {
 	 */
 	public String value() default "";
 
+	/**
+	 * Type of storage for collected statistics. Default is
+	 * {@link StorageType#AUTO}
+	 */
+	public StorageType storage() default StorageType.AUTO;
+
+	/**
+	 * Defines how collected statistics are cleaned up. Default is
+	 * {@link CleanupMode#REMOVE}
+	 */
+	public CleanupMode cleanup() default CleanupMode.REMOVE;
+
+	/**
+	 * Should updating threads keep their own copies of statistics that are
+	 * merged on collection. Number of copies is bounded, threads are spread
+	 * over them by thread id. Field types of aggregations are ignored for
+	 * sharded statistics
+	 */
+	public boolean sharded() default false;
+
+	/**
+	 * Maximum number of buckets kept for statistics, e.g. to survive key with
+	 * unexpectedly high cardinality. Limit is applied to hashed storages only,
+	 * indexed storages are bounded by ranges of their keys. Default is 0
+	 * (unbounded)
+	 */
+	public int maxBuckets() default 0;
+
+	/**
+	 * What happens with new keys when {@link #maxBuckets()} is reached.
+	 * Default is {@link BucketOverflow#FOLD}
+	 */
+	public BucketOverflow overflow() default BucketOverflow.FOLD;
+
 }
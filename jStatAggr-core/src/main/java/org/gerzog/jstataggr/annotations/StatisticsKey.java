@@ -35,4 +35,16 @@ import java.lang.annotation.Target;
 @Documented
 public @interface StatisticsKey {
 
+	/**
+	 * Minimal expected value of integral key. Values out of range are
+	 * supported but handled in a slower way
+	 */
+	public long min() default Long.MIN_VALUE;
+
+	/**
+	 * Maximal expected value of integral key. Values out of range are
+	 * supported but handled in a slower way
+	 */
+	public long max() default Long.MAX_VALUE;
+
 }
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import org.gerzog.jstataggr.IStatisticsKey;
+
+/**
+ * Base class for generated mutable statistics keys.
+ *
+ * Probe key is used by a single thread at a time and refilled for each
+ * statistics entry to look up existing statistics bucket without allocation
+ * of new key.
+ * It equals to immutable key with same values, but should never be stored in
+ * statistics.
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public abstract class AbstractStatisticsProbeKey implements IStatisticsKey {
+
+	/**
+	 * Creates immutable copy of this key
+	 */
+	public abstract IStatisticsKey toKey();
+
+}
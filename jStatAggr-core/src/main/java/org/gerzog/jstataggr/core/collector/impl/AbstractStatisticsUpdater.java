@@ -0,0 +1,211 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import org.gerzog.jstataggr.IStatisticsKey;
+import org.gerzog.jstataggr.core.expressions.IExpressionHandler;
+
+/**
+ * Base class for generated statistics updaters.
+ *
+ * Implementation is generated for each collector and calls getters of
+ * statistics entry and update methods of statistics bucket directly
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public abstract class AbstractStatisticsUpdater {
+
+	private IExpressionHandler expressionHandler;
+
+	protected AbstractStatisticsUpdater recordUpdater;
+
+	/**
+	 * Applies all aggregated values of statistics entry to statistics bucket
+	 *
+	 * @param statisticsData
+	 *            - statistics entry
+	 * @param statisticsBucket
+	 *            - bucket to update
+	 */
+	public abstract void apply(Object statisticsData, Object statisticsBucket)
+			throws Exception;
+
+	/**
+	 * Generates a key of statistics bucket for statistics entry
+	 *
+	 * @param statisticsData
+	 *            - statistics entry
+	 */
+	public abstract IStatisticsKey extractKey(Object statisticsData)
+			throws Exception;
+
+	/**
+	 * Fills probe key with key values of statistics entry
+	 *
+	 * @param statisticsData
+	 *            - statistics entry
+	 * @param statisticsKey
+	 *            - probe key created by {@link #createProbeKey()}
+	 */
+	public abstract void fillKey(Object statisticsData,
+			AbstractStatisticsProbeKey statisticsKey) throws Exception;
+
+	/**
+	 * Creates new empty probe key
+	 */
+	public abstract AbstractStatisticsProbeKey createProbeKey();
+
+	/**
+	 * Creates new statistics bucket and fills it with values of statistics
+	 * key
+	 *
+	 * @param statisticsKey
+	 *            - key of statistics bucket
+	 */
+	public abstract Object createBucket(IStatisticsKey statisticsKey)
+			throws Exception;
+
+	/**
+	 * Calculates index of statistics bucket for statistics entry. Returns -1
+	 * if key values of entry cannot be mapped to an index
+	 *
+	 * @param statisticsData
+	 *            - statistics entry
+	 */
+	public abstract int index(Object statisticsData) throws Exception;
+
+	/**
+	 * Packs key values of statistics entry into a single long. Returns -1 if
+	 * key values are out of declared ranges
+	 *
+	 * @param statisticsData
+	 *            - statistics entry
+	 */
+	public abstract long pack(Object statisticsData) throws Exception;
+
+	/**
+	 * Generates a key of statistics bucket from key values stored in bucket
+	 *
+	 * @param statisticsBucket
+	 *            - bucket created by {@link #createBucket(IStatisticsKey)}
+	 */
+	public abstract IStatisticsKey extractBucketKey(Object statisticsBucket);
+
+	/**
+	 * Merges aggregated values of source bucket into target bucket. Supported
+	 * only by updaters of sharded statistics
+	 *
+	 * @param target
+	 *            - bucket to update
+	 * @param source
+	 *            - bucket with same key to merge
+	 */
+	public void merge(final Object target, final Object source) {
+		throw new UnsupportedOperationException(
+				"Buckets of this statistics cannot be merged");
+	}
+
+	/**
+	 * Copies values of statistics keys and aggregated fields of statistics
+	 * entry into a new record. Record can be passed to all methods of this
+	 * updater instead of statistics entry
+	 *
+	 * @param statisticsData
+	 *            - statistics entry
+	 */
+	public abstract Object extractRecord(Object statisticsData)
+			throws Exception;
+
+	/**
+	 * Returns hash of statistics definition this updater was generated for
+	 */
+	public abstract long getLayout();
+
+	/**
+	 * Fills key fields of record with values of row of columns. Columns are
+	 * ordered as fields of record
+	 *
+	 * @param columns
+	 *            - arrays of values of statistics keys and aggregated fields
+	 * @param row
+	 *            - index of row in columns
+	 * @param statisticsRecord
+	 *            - record created by {@link #extractRecord(Object)}
+	 */
+	public void fillRecord(final Object[] columns, final int row,
+			final Object statisticsRecord) throws Exception {
+		throw new UnsupportedOperationException(
+				"Columns are not supported by this updater");
+	}
+
+	/**
+	 * Checks that two rows of columns have equal key values
+	 *
+	 * @param columns
+	 *            - arrays of values of statistics keys and aggregated fields
+	 * @param row
+	 *            - index of row in columns
+	 * @param otherRow
+	 *            - index of another row in columns
+	 */
+	public boolean sameKey(final Object[] columns, final int row,
+			final int otherRow) throws Exception {
+		throw new UnsupportedOperationException(
+				"Columns are not supported by this updater");
+	}
+
+	/**
+	 * Applies aggregated values of rows of columns to statistics bucket. All
+	 * rows in range should have same key values
+	 *
+	 * @param columns
+	 *            - arrays of values of statistics keys and aggregated fields
+	 * @param from
+	 *            - index of first row, inclusive
+	 * @param to
+	 *            - index of last row, exclusive
+	 * @param statisticsBucket
+	 *            - bucket to update
+	 */
+	public void applyColumns(final Object[] columns, final int from,
+			final int to, final Object statisticsBucket) throws Exception {
+		throw new UnsupportedOperationException(
+				"Columns are not supported by this updater");
+	}
+
+	void setExpressionHandler(final IExpressionHandler expressionHandler) {
+		this.expressionHandler = expressionHandler;
+
+		if (recordUpdater != null) {
+			recordUpdater.setExpressionHandler(expressionHandler);
+		}
+	}
+
+	void setRecordUpdater(final AbstractStatisticsUpdater recordUpdater) {
+		this.recordUpdater = recordUpdater;
+	}
+
+	protected Object updateValue(final Object original, final String expression)
+			throws Exception {
+		if (expressionHandler != null) {
+			return expressionHandler.invokeExpression(expression, original);
+		}
+
+		return original;
+	}
+
+}
@@ -0,0 +1,345 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import static org.gerzog.jstataggr.core.utils.Throwables.propogate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.gerzog.jstataggr.BucketOverflow;
+import org.gerzog.jstataggr.IStatisticsFilter;
+import org.gerzog.jstataggr.IStatisticsKey;
+
+/**
+ * Storage that keeps buckets in a hash map by statistics key, but not more
+ * than limit of buckets. Beyond the limit new keys are folded into overflow
+ * bucket or least recently updated buckets are evicted.
+ *
+ * Limit is checked without locking, so concurrent updates with new keys can
+ * exceed it by number of updating threads. Evicted buckets are passed to limit
+ * only after all updates that could still use them are applied
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class BoundedStatisticsStorage implements IStatisticsStorage {
+
+	/**
+	 * Part of buckets evicted at once, so oldest buckets are searched once
+	 * for many new keys
+	 */
+	static final int EVICTION_DIVISOR = 16;
+
+	private static final class Entry {
+
+		private final Object bucket;
+
+		private final boolean overflow;
+
+		// value of clock of storage on last update
+		private volatile long lastUpdate;
+
+		public Entry(final Object bucket, final long lastUpdate,
+				final boolean overflow) {
+			this.bucket = bucket;
+			this.lastUpdate = lastUpdate;
+			this.overflow = overflow;
+		}
+
+		public Object getBucket() {
+			return bucket;
+		}
+
+		public boolean isOverflow() {
+			return overflow;
+		}
+
+		public long getLastUpdate() {
+			return lastUpdate;
+		}
+
+		public void touch(final long clock) {
+			// hot buckets are not written on each update
+			if (lastUpdate != clock) {
+				lastUpdate = clock;
+			}
+		}
+
+	}
+
+	private final AbstractStatisticsUpdater updater;
+
+	private final BucketLimit limit;
+
+	private final boolean lockOverflow;
+
+	private final Map<IStatisticsKey, Entry> statistics = new ConcurrentHashMap<>();
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	// ticks on each new key, so recency of buckets costs no time lookups
+	private final AtomicLong clock = new AtomicLong();
+
+	private final AtomicReference<Entry> overflowEntry = new AtomicReference<>();
+
+	private final Object evictionLock = new Object();
+
+	// swapped on eviction, so evicting thread waits only for updates that
+	// started before buckets were removed
+	private volatile InFlightCounter updaters = new InFlightCounter();
+
+	private final InstancePool<AbstractStatisticsProbeKey> probeKeys;
+
+	/**
+	 * @param lockOverflow
+	 *            - should updates of overflow bucket be synchronized, e.g.
+	 *            because it has fields that are not thread-safe
+	 */
+	public BoundedStatisticsStorage(final AbstractStatisticsUpdater updater,
+			final BucketLimit limit, final boolean lockOverflow) {
+		this.updater = updater;
+		this.limit = limit;
+		this.lockOverflow = lockOverflow;
+		this.probeKeys = new InstancePool<>(() -> updater.createProbeKey());
+	}
+
+	@Override
+	public Object getStatisticsBucket(final Object statisticsData) {
+		return getEntry(statisticsData).getBucket();
+	}
+
+	/**
+	 * Applies statistics entry to it's bucket. Updates of overflow bucket are
+	 * synchronized if required, buckets beyond the limit are evicted after the
+	 * update
+	 */
+	@Override
+	public void updateStatistics(final Object statisticsData,
+			final BiConsumer<Object, Object> action) {
+		final InFlightCounter current = enter();
+
+		try {
+			final Entry entry = getEntry(statisticsData);
+
+			if (lockOverflow && entry.isOverflow()) {
+				// overflow bucket is shared by updates with any new key
+				synchronized (entry) {
+					action.accept(entry.getBucket(), statisticsData);
+				}
+			} else {
+				action.accept(entry.getBucket(), statisticsData);
+			}
+		} finally {
+			current.leave();
+		}
+
+		if (size.get() > limit.getMaxBuckets()) {
+			evict();
+		}
+	}
+
+	private Entry getEntry(final Object statisticsData) {
+		final AbstractStatisticsProbeKey probeKey = probeKeys.acquire();
+
+		try {
+			return getEntry(statisticsData, probeKey);
+		} finally {
+			probeKeys.release(probeKey);
+		}
+	}
+
+	private Entry getEntry(final Object statisticsData,
+			final AbstractStatisticsProbeKey probeKey) {
+		propogate(() -> updater.fillKey(statisticsData, probeKey));
+
+		final Entry entry = statistics.get(probeKey);
+
+		if (entry != null) {
+			entry.touch(clock.get());
+
+			return entry;
+		}
+
+		// evicted buckets are replaced after update of the new one
+		if ((size.get() >= limit.getMaxBuckets())
+				&& (limit.getOverflow() == BucketOverflow.FOLD)) {
+			limit.fold();
+
+			return getOverflowEntry();
+		}
+
+		// probe key is reused, so only it's immutable copy can be stored in
+		// statistics
+		return generateStatisticsEntry(probeKey.toKey());
+	}
+
+	private Entry generateStatisticsEntry(final IStatisticsKey key) {
+		return propogate(() -> {
+			// buckets updated after creation of this one are newer than it
+			final Entry result = new Entry(updater.createBucket(key),
+					clock.getAndIncrement(), false);
+
+			final Entry existing = statistics.putIfAbsent(key, result);
+
+			if (existing != null) {
+				return existing;
+			}
+
+			size.incrementAndGet();
+
+			return result;
+		});
+	}
+
+	private Entry getOverflowEntry() {
+		Entry result = overflowEntry.get();
+
+		while (result == null) {
+			overflowEntry.compareAndSet(null, createOverflowEntry());
+
+			result = overflowEntry.get();
+		}
+
+		return result;
+	}
+
+	private Entry createOverflowEntry() {
+		return propogate(() -> new Entry(updater.createBucket(getOverflowKey()),
+				0, true));
+	}
+
+	private IStatisticsKey getOverflowKey() {
+		// fresh probe key keeps default values of all keys
+		return updater.createProbeKey().toKey();
+	}
+
+	private InFlightCounter enter() {
+		while (true) {
+			final InFlightCounter current = updaters;
+
+			current.enter();
+
+			// counter could be swapped before this thread was counted
+			if (current == updaters) {
+				return current;
+			}
+
+			current.leave();
+		}
+	}
+
+	/**
+	 * Removes least recently updated buckets and passes them to limit when
+	 * updates that started before removal are applied
+	 */
+	protected void evict() {
+		final List<Object> evicted = new ArrayList<>();
+
+		synchronized (evictionLock) {
+			// buckets could be evicted by another thread meanwhile
+			final int excess = size.get() - limit.getMaxBuckets();
+
+			if (excess <= 0) {
+				return;
+			}
+
+			final int count = Math.max(excess, limit.getMaxBuckets()
+					/ EVICTION_DIVISOR);
+
+			// keeps newest of found buckets on top
+			final PriorityQueue<Map.Entry<IStatisticsKey, Entry>> oldest = new PriorityQueue<>(
+					count, Comparator.comparingLong(
+							(final Map.Entry<IStatisticsKey, Entry> e) -> e
+							.getValue().getLastUpdate()).reversed());
+
+			for (final Map.Entry<IStatisticsKey, Entry> entry : statistics
+					.entrySet()) {
+				oldest.add(entry);
+
+				if (oldest.size() > count) {
+					oldest.poll();
+				}
+			}
+
+			for (final Map.Entry<IStatisticsKey, Entry> entry : oldest) {
+				if (statistics.remove(entry.getKey(), entry.getValue())) {
+					size.decrementAndGet();
+
+					evicted.add(entry.getValue().getBucket());
+				}
+			}
+
+			// updaters of previous evictions are awaited under the lock, so
+			// only updaters counted by current counter can use these buckets
+			final InFlightCounter previous = updaters;
+			updaters = new InFlightCounter();
+
+			previous.awaitEmpty();
+		}
+
+		// evicted buckets are written without lock
+		limit.evict(evicted);
+	}
+
+	protected Map<IStatisticsKey, Entry> getStatistics() {
+		return statistics;
+	}
+
+	protected int size() {
+		return size.get();
+	}
+
+	@Override
+	public void collectStatistics(final IStatisticsFilter filter,
+			final boolean cleanup, final Consumer<Object> consumer) {
+		statistics.forEach((key, entry) -> {
+			if (filter.isApplied(key)) {
+				if (!cleanup) {
+					consumer.accept(entry.getBucket());
+				} else if (statistics.remove(key, entry)) {
+					size.decrementAndGet();
+
+					consumer.accept(entry.getBucket());
+				}
+			}
+		});
+	}
+
+	@Override
+	public void collectOverflow(final IStatisticsFilter filter,
+			final boolean cleanup, final Consumer<Object> consumer) {
+		if ((overflowEntry.get() != null)
+				&& filter.isApplied(getOverflowKey())) {
+			final Entry entry = cleanup ? overflowEntry.getAndSet(null)
+					: overflowEntry.get();
+
+			if (entry != null) {
+				consumer.accept(entry.getBucket());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.gerzog.jstataggr.BucketOverflow;
+
+/**
+ * Limit of number of buckets of a single collector. Counters of limit are
+ * shared by all storages of collector
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+final class BucketLimit {
+
+	private final int maxBuckets;
+
+	private final BucketOverflow overflow;
+
+	private final Consumer<Collection<Object>> evictionConsumer;
+
+	private final LongAdder foldedUpdates = new LongAdder();
+
+	private final LongAdder evicted = new LongAdder();
+
+	public BucketLimit(final int maxBuckets, final BucketOverflow overflow,
+			final Consumer<Collection<Object>> evictionConsumer) {
+		this.maxBuckets = maxBuckets;
+		this.overflow = overflow;
+		this.evictionConsumer = evictionConsumer;
+	}
+
+	public int getMaxBuckets() {
+		return maxBuckets;
+	}
+
+	public BucketOverflow getOverflow() {
+		return overflow;
+	}
+
+	public void fold() {
+		foldedUpdates.increment();
+	}
+
+	public void evict(final Collection<Object> buckets) {
+		evicted.add(buckets.size());
+
+		if (evictionConsumer != null) {
+			evictionConsumer.accept(buckets);
+		}
+	}
+
+	/**
+	 * Returns number of folded updates. Distinct folded keys are not tracked,
+	 * so memory stays bounded for any number of keys
+	 */
+	public long getFoldedUpdateCount() {
+		return foldedUpdates.sum();
+	}
+
+	public long getEvictedCount() {
+		return evicted.sum();
+	}
+
+}
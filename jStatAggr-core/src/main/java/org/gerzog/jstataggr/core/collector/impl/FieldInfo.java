@@ -0,0 +1,208 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.ClassUtils;
+import org.gerzog.jstataggr.AggregationType;
+import org.gerzog.jstataggr.FieldType;
+import org.gerzog.jstataggr.core.manager.impl.internal.IStatisticsField;
+
+/**
+ * Describes a field of statistics entry and all statistics fields generated
+ * for it in statistics bucket
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class FieldInfo {
+
+	private final String name;
+
+	private final Class<?> type;
+
+	private final String expression;
+
+	private final Method getter;
+
+	private final List<IStatisticsField> statisticsFields = new ArrayList<>();
+
+	private AggregationType[] aggregationTypes;
+
+	private FieldType fieldType;
+
+	private long minValue = Long.MIN_VALUE;
+
+	private long maxValue = Long.MAX_VALUE;
+
+	public FieldInfo(final String name, final Class<?> type,
+			final String expression, final Method getter) {
+		this.name = name;
+		this.type = type;
+		this.expression = expression;
+		this.getter = getter;
+	}
+
+	/**
+	 * Creates copy of this field info that reads value with another getter
+	 */
+	public FieldInfo copy(final Method otherGetter) {
+		final FieldInfo result = new FieldInfo(name, type, expression,
+				otherGetter);
+
+		result.statisticsFields.addAll(statisticsFields);
+		result.setAggregation(aggregationTypes, fieldType);
+		result.setRange(minValue, maxValue);
+
+		return result;
+	}
+
+	public void addStatisticsField(final IStatisticsField statisticsField) {
+		statisticsFields.add(statisticsField);
+	}
+
+	public void setAggregation(final AggregationType[] aggregationTypes,
+			final FieldType fieldType) {
+		this.aggregationTypes = aggregationTypes;
+		this.fieldType = fieldType;
+	}
+
+	public AggregationType[] getAggregationTypes() {
+		return aggregationTypes;
+	}
+
+	public FieldType getFieldType() {
+		return fieldType;
+	}
+
+	public void setRange(final long minValue, final long maxValue) {
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+	}
+
+	/**
+	 * Returns lowest value of integral field considering declared range
+	 */
+	public long getLowerBound() {
+		return Math.max(minValue, getTypeRange()[0]);
+	}
+
+	/**
+	 * Returns highest value of integral field considering declared range
+	 */
+	public long getUpperBound() {
+		return Math.min(maxValue, getTypeRange()[1]);
+	}
+
+	/**
+	 * Returns number of distinct values of field or -1 if field cannot be
+	 * mapped to an index
+	 */
+	public long getCardinality() {
+		if (type.isEnum()) {
+			// additional index is reserved for null
+			return type.getEnumConstants().length + 1;
+		}
+
+		if (getPrimitiveType() == boolean.class) {
+			return type.isPrimitive() ? 2 : 3;
+		}
+
+		if (getTypeRange() == null) {
+			return -1;
+		}
+
+		final long width = getUpperBound() - getLowerBound();
+
+		if ((width < 0) || (width >= Integer.MAX_VALUE)) {
+			return -1;
+		}
+
+		return width + 1;
+	}
+
+	private Class<?> getPrimitiveType() {
+		return type.isPrimitive() ? type : ClassUtils.wrapperToPrimitive(type);
+	}
+
+	private long[] getTypeRange() {
+		final Class<?> primitive = getPrimitiveType();
+
+		if (primitive == byte.class) {
+			return new long[] { Byte.MIN_VALUE, Byte.MAX_VALUE };
+		} else if (primitive == short.class) {
+			return new long[] { Short.MIN_VALUE, Short.MAX_VALUE };
+		} else if (primitive == char.class) {
+			return new long[] { Character.MIN_VALUE, Character.MAX_VALUE };
+		} else if (primitive == int.class) {
+			return new long[] { Integer.MIN_VALUE, Integer.MAX_VALUE };
+		} else if (primitive == long.class) {
+			return new long[] { Long.MIN_VALUE, Long.MAX_VALUE };
+		}
+
+		return null;
+	}
+
+	/**
+	 * Describes everything about field that affects generated classes
+	 */
+	public String getLayout() {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(name).append(':').append(type.getName()).append(':')
+		.append(getter.getDeclaringClass().getName()).append('.')
+		.append(getter.getName()).append(':').append(expression)
+		.append(':').append(Arrays.toString(aggregationTypes))
+		.append(':').append(fieldType).append(':')
+		.append(getCardinality());
+
+		if (getTypeRange() != null) {
+			builder.append(':').append(getLowerBound()).append(':')
+			.append(getUpperBound());
+		}
+
+		if (type.isEnum()) {
+			builder.append(':').append(
+					Arrays.toString(type.getEnumConstants()));
+		}
+
+		return builder.toString();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Class<?> getType() {
+		return type;
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	public Method getGetter() {
+		return getter;
+	}
+
+	public List<IStatisticsField> getStatisticsFields() {
+		return statisticsFields;
+	}
+}
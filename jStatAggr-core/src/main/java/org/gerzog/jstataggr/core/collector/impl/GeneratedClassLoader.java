@@ -0,0 +1,50 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads classes generated for a single collector, so they are unloaded
+ * together with the collector
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class GeneratedClassLoader extends ClassLoader {
+
+	private final Map<String, byte[]> bytecodes = new ConcurrentHashMap<>();
+
+	public GeneratedClassLoader(final ClassLoader parent) {
+		super(parent);
+	}
+
+	public Class<?> define(final String className, final byte[] bytecode) {
+		bytecodes.put(className, bytecode);
+
+		return defineClass(className, bytecode, 0, bytecode.length);
+	}
+
+	/**
+	 * Returns bytecode of classes defined by this loader mapped by their names
+	 */
+	public Map<String, byte[]> getBytecodes() {
+		return Collections.unmodifiableMap(bytecodes);
+	}
+
+}
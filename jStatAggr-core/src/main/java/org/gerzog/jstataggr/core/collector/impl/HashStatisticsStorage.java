@@ -0,0 +1,146 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import static org.gerzog.jstataggr.core.utils.Throwables.propogate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.gerzog.jstataggr.IStatisticsFilter;
+import org.gerzog.jstataggr.IStatisticsKey;
+
+/**
+ * Storage that keeps buckets in a hash map by statistics key. Supports any
+ * types of keys
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class HashStatisticsStorage implements IStatisticsStorage {
+
+	private final AbstractStatisticsUpdater updater;
+
+	private final Map<IStatisticsKey, Object> statistics = new ConcurrentHashMap<>();
+
+	private final InstancePool<AbstractStatisticsProbeKey> probeKeys;
+
+	public HashStatisticsStorage(final AbstractStatisticsUpdater updater) {
+		this.updater = updater;
+		this.probeKeys = new InstancePool<>(() -> updater.createProbeKey());
+	}
+
+	@Override
+	public Object getStatisticsBucket(final Object statisticsData) {
+		final AbstractStatisticsProbeKey probeKey = generateProbeKey(statisticsData);
+
+		try {
+			Object statisticsBucket = statistics.get(probeKey);
+
+			if (statisticsBucket == null) {
+				// probe key is reused, so only it's immutable copy can be
+				// stored in statistics
+				statisticsBucket = generateStatisticsBucket(probeKey.toKey(),
+						statisticsData);
+			}
+
+			return statisticsBucket;
+		} finally {
+			releaseProbeKey(probeKey);
+		}
+	}
+
+	/**
+	 * Consecutive entries with same key are applied to bucket found for first
+	 * of them without another lookup
+	 */
+	@Override
+	public void updateStatistics(final Iterable<?> statisticsData,
+			final BiConsumer<Object, Object> action) {
+		IStatisticsKey currentKey = null;
+		Object currentBucket = null;
+
+		for (final Object data : statisticsData) {
+			final AbstractStatisticsProbeKey probeKey = generateProbeKey(data);
+
+			try {
+				if ((currentKey == null) || !probeKey.equals(currentKey)) {
+					currentKey = probeKey.toKey();
+					currentBucket = statistics.get(currentKey);
+
+					if (currentBucket == null) {
+						currentBucket = generateStatisticsBucket(currentKey,
+								data);
+					}
+				}
+			} finally {
+				releaseProbeKey(probeKey);
+			}
+
+			action.accept(currentBucket, data);
+		}
+	}
+
+	/**
+	 * Takes probe key out of pool and fills it with key values of statistics
+	 * entry. Key should be returned by {@link #releaseProbeKey}
+	 */
+	protected AbstractStatisticsProbeKey generateProbeKey(
+			final Object statisticsData) {
+		final AbstractStatisticsProbeKey result = probeKeys.acquire();
+
+		propogate(() -> updater.fillKey(statisticsData, result));
+
+		return result;
+	}
+
+	protected void releaseProbeKey(final AbstractStatisticsProbeKey probeKey) {
+		probeKeys.release(probeKey);
+	}
+
+	protected Object generateStatisticsBucket(final IStatisticsKey key,
+			final Object statisticsData) {
+		return propogate(() -> {
+			final Object result = updater.createBucket(key);
+
+			final Object existing = statistics.putIfAbsent(key, result);
+
+			return existing == null ? result : existing;
+		});
+	}
+
+	protected Map<IStatisticsKey, Object> getStatistics() {
+		return statistics;
+	}
+
+	@Override
+	public void collectStatistics(final IStatisticsFilter filter,
+			final boolean cleanup, final Consumer<Object> consumer) {
+		statistics.keySet().forEach(key -> {
+			if (filter.isApplied(key)) {
+				final Object data = cleanup ? statistics.remove(key)
+						: statistics.get(key);
+
+				if (data != null) {
+					consumer.accept(data);
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.gerzog.jstataggr.IStatisticsFilter;
+
+/**
+ * Keeps statistics buckets of a single collector
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+interface IStatisticsStorage {
+
+	/**
+	 * Returns bucket for statistics entry. Bucket will be created if it not
+	 * exists yet
+	 *
+	 * @param statisticsData
+	 *            - statistics entry
+	 */
+	Object getStatisticsBucket(Object statisticsData);
+
+	/**
+	 * Applies statistics entry to it's bucket
+	 *
+	 * @param statisticsData
+	 *            - statistics entry
+	 * @param action
+	 *            - action that accepts bucket and statistics entry
+	 */
+	default void updateStatistics(final Object statisticsData,
+			final BiConsumer<Object, Object> action) {
+		action.accept(getStatisticsBucket(statisticsData), statisticsData);
+	}
+
+	/**
+	 * Applies batch of statistics entries to their buckets
+	 *
+	 * @param statisticsData
+	 *            - statistics entries
+	 * @param action
+	 *            - action that accepts bucket and statistics entry
+	 */
+	default void updateStatistics(final Iterable<?> statisticsData,
+			final BiConsumer<Object, Object> action) {
+		for (final Object data : statisticsData) {
+			updateStatistics(data, action);
+		}
+	}
+
+	/**
+	 * Passes all buckets applied to filter to consumer
+	 *
+	 * @param filter
+	 *            - filter for statistics keys
+	 * @param cleanup
+	 *            - should collected buckets be removed from storage
+	 * @param consumer
+	 *            - consumer of collected buckets
+	 */
+	void collectStatistics(IStatisticsFilter filter, boolean cleanup,
+			Consumer<Object> consumer);
+
+	/**
+	 * Passes bucket that aggregates keys beyond limit of buckets, if any, to
+	 * consumer. Overflow bucket is not passed by collectStatistics
+	 *
+	 * @param filter
+	 *            - filter for statistics keys
+	 * @param cleanup
+	 *            - should collected bucket be removed from storage
+	 * @param consumer
+	 *            - consumer of overflow bucket
+	 */
+	default void collectOverflow(final IStatisticsFilter filter,
+			final boolean cleanup, final Consumer<Object> consumer) {
+		// only storages with limit of buckets have overflow bucket
+	}
+
+}
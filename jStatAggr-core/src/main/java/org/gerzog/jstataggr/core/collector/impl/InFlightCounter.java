@@ -0,0 +1,76 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts threads working with a storage. Counter is striped by thread to
+ * avoid contention of updating threads; each thread always uses the same
+ * stripe, so the counter is empty only if all stripes are empty.
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class InFlightCounter {
+
+	// stripes are placed on different cache lines
+	private static final int PADDING = 16;
+
+	private final AtomicLongArray counters;
+
+	private final int mask;
+
+	public InFlightCounter() {
+		this(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	InFlightCounter(final int stripes) {
+		final int size = Integer.highestOneBit(Math.max(stripes - 1, 1)) << 1;
+
+		this.counters = new AtomicLongArray(size * PADDING);
+		this.mask = size - 1;
+	}
+
+	public void enter() {
+		counters.incrementAndGet(stripe());
+	}
+
+	public void leave() {
+		counters.decrementAndGet(stripe());
+	}
+
+	public boolean isEmpty() {
+		for (int i = 0; i < counters.length(); i += PADDING) {
+			if (counters.get(i) != 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public void awaitEmpty() {
+		while (!isEmpty()) {
+			Thread.yield();
+		}
+	}
+
+	private int stripe() {
+		return ((int) Thread.currentThread().getId() & mask) * PADDING;
+	}
+
+}
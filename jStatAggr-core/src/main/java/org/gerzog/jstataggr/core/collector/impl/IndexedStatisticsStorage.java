@@ -0,0 +1,163 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import static org.gerzog.jstataggr.core.utils.Throwables.propogate;
+import static org.gerzog.jstataggr.core.utils.Throwables.propogateInt;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import org.gerzog.jstataggr.IStatisticsFilter;
+import org.gerzog.jstataggr.IStatisticsKey;
+
+/**
+ * Storage that keeps buckets in a preallocated array. Index of bucket is
+ * calculated directly from values of statistics keys, so no key objects are
+ * created and no hashing is performed on update.
+ *
+ * Entries with key values out of declared ranges are kept in a hashed storage
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class IndexedStatisticsStorage implements IStatisticsStorage {
+
+	/**
+	 * Maximal number of buckets of indexed storage
+	 */
+	static final int MAX_CAPACITY = 1 << 24;
+
+	/**
+	 * Maximal number of buckets of indexed storage chosen automatically
+	 */
+	static final int AUTO_CAPACITY = 1 << 12;
+
+	private final AbstractStatisticsUpdater updater;
+
+	private final AtomicReferenceArray<Object> buckets;
+
+	private final AtomicReferenceArray<IStatisticsKey> keys;
+
+	private final IStatisticsStorage fallback;
+
+	public IndexedStatisticsStorage(final AbstractStatisticsUpdater updater,
+			final int capacity) {
+		this(updater, capacity, new HashStatisticsStorage(updater));
+	}
+
+	IndexedStatisticsStorage(final AbstractStatisticsUpdater updater,
+			final int capacity, final IStatisticsStorage fallback) {
+		this.updater = updater;
+		this.buckets = new AtomicReferenceArray<>(capacity);
+		this.keys = new AtomicReferenceArray<>(capacity);
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Returns number of buckets required to index all key combinations or -1
+	 * if keys cannot be indexed
+	 */
+	public static int getCapacity(final Collection<FieldInfo> keys) {
+		long result = 1;
+
+		for (final FieldInfo info : keys) {
+			final long cardinality = info.getCardinality();
+
+			if ((cardinality < 0) || (cardinality > MAX_CAPACITY)) {
+				return -1;
+			}
+
+			result *= cardinality;
+
+			if (result > MAX_CAPACITY) {
+				return -1;
+			}
+		}
+
+		return (int) result;
+	}
+
+	@Override
+	public Object getStatisticsBucket(final Object statisticsData) {
+		final int index = propogateInt(() -> updater.index(statisticsData));
+
+		if (index < 0) {
+			return fallback.getStatisticsBucket(statisticsData);
+		}
+
+		final Object statisticsBucket = buckets.get(index);
+
+		if (statisticsBucket == null) {
+			return generateStatisticsBucket(index, statisticsData);
+		}
+
+		return statisticsBucket;
+	}
+
+	protected Object generateStatisticsBucket(final int index,
+			final Object statisticsData) {
+		return propogate(() -> {
+			IStatisticsKey key = keys.get(index);
+
+			if (key == null) {
+				// index defines key values, so concurrent threads always
+				// store equal keys
+				key = updater.extractKey(statisticsData);
+				keys.set(index, key);
+			}
+
+			final Object result = updater.createBucket(key);
+
+			while (!buckets.compareAndSet(index, null, result)) {
+				final Object existing = buckets.get(index);
+
+				if (existing != null) {
+					return existing;
+				}
+			}
+
+			return result;
+		});
+	}
+
+	protected AtomicReferenceArray<Object> getBuckets() {
+		return buckets;
+	}
+
+	protected AtomicReferenceArray<IStatisticsKey> getKeys() {
+		return keys;
+	}
+
+	@Override
+	public void collectStatistics(final IStatisticsFilter filter,
+			final boolean cleanup, final Consumer<Object> consumer) {
+		for (int i = 0; i < buckets.length(); i++) {
+			if ((buckets.get(i) != null) && filter.isApplied(keys.get(i))) {
+				final Object data = cleanup ? buckets.getAndSet(i, null)
+						: buckets.get(i);
+
+				if (data != null) {
+					consumer.accept(data);
+				}
+			}
+		}
+
+		fallback.collectStatistics(filter, cleanup, consumer);
+	}
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Pool of reusable instances of generated classes, e.g. probe keys or
+ * records. Pool is striped by thread, so threads rarely compete for the same
+ * instance; instance taken by another thread is replaced with a new one.
+ *
+ * Unlike thread locals, pooled instances are referenced only by owner of
+ * the pool, so threads that outlive collector don't keep class loader of
+ * it's generated classes alive
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public final class InstancePool<T> {
+
+	private final Supplier<T> factory;
+
+	private final AtomicReferenceArray<T> instances;
+
+	private final int mask;
+
+	public InstancePool(final Supplier<T> factory) {
+		this(factory, Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	InstancePool(final Supplier<T> factory, final int stripes) {
+		final int size = Integer.highestOneBit(Math.max(stripes - 1, 1)) << 1;
+
+		this.factory = factory;
+		this.instances = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Takes instance out of pool or creates new one if stripe of calling
+	 * thread is empty
+	 */
+	public T acquire() {
+		final T result = instances.getAndSet(stripe(), null);
+
+		return result == null ? factory.get() : result;
+	}
+
+	/**
+	 * Returns instance taken by {@link #acquire()} to pool
+	 */
+	public void release(final T instance) {
+		instances.lazySet(stripe(), instance);
+	}
+
+	/**
+	 * Drops all pooled instances
+	 */
+	public void clear() {
+		for (int i = 0; i < instances.length(); i++) {
+			instances.set(i, null);
+		}
+	}
+
+	private int stripe() {
+		return (int) Thread.currentThread().getId() & mask;
+	}
+
+}
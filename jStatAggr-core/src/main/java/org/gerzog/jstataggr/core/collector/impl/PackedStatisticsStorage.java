@@ -0,0 +1,201 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import static org.gerzog.jstataggr.core.utils.Throwables.propogate;
+import static org.gerzog.jstataggr.core.utils.Throwables.propogateLong;
+
+import java.util.Collection;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.gerzog.jstataggr.IStatisticsFilter;
+import org.gerzog.jstataggr.core.utils.ConcurrentLongHashMap;
+
+/**
+ * Storage that packs all key values into a single long and keeps buckets in
+ * a primitive long-keyed map, so no key objects are created and compared on
+ * update. Can be used only if all statistics keys are primitives or enums with
+ * total width up to 64 bits.
+ *
+ * Entries with key values out of declared ranges are kept in a hashed storage
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class PackedStatisticsStorage implements IStatisticsStorage {
+
+	private final AbstractStatisticsUpdater updater;
+
+	private final ConcurrentLongHashMap<Object> statistics = new ConcurrentLongHashMap<>();
+
+	private final boolean rangeChecked;
+
+	private final IStatisticsStorage fallback;
+
+	public PackedStatisticsStorage(final AbstractStatisticsUpdater updater,
+			final Collection<FieldInfo> keys) {
+		this(updater, getPackedWidth(keys) < Long.SIZE,
+				new HashStatisticsStorage(updater));
+	}
+
+	PackedStatisticsStorage(final AbstractStatisticsUpdater updater,
+			final boolean rangeChecked, final IStatisticsStorage fallback) {
+		this.updater = updater;
+		this.rangeChecked = rangeChecked;
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Returns number of bits used by packed value of key or -1 if key cannot
+	 * be packed
+	 */
+	public static int getBitWidth(final FieldInfo info) {
+		final Class<?> type = info.getType();
+
+		if (!type.isEnum() && !type.isPrimitive()) {
+			return -1;
+		}
+
+		final long cardinality = info.getCardinality();
+
+		if (cardinality >= 0) {
+			return cardinality <= 1 ? 0 : Long.SIZE
+					- Long.numberOfLeadingZeros(cardinality - 1);
+		}
+
+		if ((type == int.class) || (type == float.class)) {
+			return Integer.SIZE;
+		} else if ((type == long.class) || (type == double.class)) {
+			return Long.SIZE;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Is packed value of key can be out of declared range
+	 */
+	public static boolean isRangeChecked(final FieldInfo info) {
+		return !info.getType().isEnum() && (info.getType() != boolean.class)
+				&& (info.getCardinality() >= 0);
+	}
+
+	/**
+	 * Returns total number of bits of packed keys or -1 if keys cannot be
+	 * packed
+	 */
+	public static int getPackedWidth(final Collection<FieldInfo> keys) {
+		int result = 0;
+		boolean rangeChecked = false;
+
+		for (final FieldInfo info : keys) {
+			final int width = getBitWidth(info);
+
+			if (width < 0) {
+				return -1;
+			}
+
+			result += width;
+			rangeChecked |= isRangeChecked(info);
+		}
+
+		// negative packed values are reserved for keys out of range
+		final int maxWidth = rangeChecked ? Long.SIZE - 1 : Long.SIZE;
+
+		return result <= maxWidth ? result : -1;
+	}
+
+	@Override
+	public Object getStatisticsBucket(final Object statisticsData) {
+		final long key = propogateLong(() -> updater.pack(statisticsData));
+
+		if (rangeChecked && (key < 0)) {
+			return fallback.getStatisticsBucket(statisticsData);
+		}
+
+		final Object statisticsBucket = statistics.get(key);
+
+		if (statisticsBucket == null) {
+			return generateStatisticsBucket(key, statisticsData);
+		}
+
+		return statisticsBucket;
+	}
+
+	/**
+	 * Consecutive entries with same key are applied to bucket found for first
+	 * of them without another lookup
+	 */
+	@Override
+	public void updateStatistics(final Iterable<?> statisticsData,
+			final BiConsumer<Object, Object> action) {
+		long currentKey = -1L;
+		Object currentBucket = null;
+
+		for (final Object data : statisticsData) {
+			final long key = propogateLong(() -> updater.pack(data));
+
+			if (rangeChecked && (key < 0)) {
+				fallback.updateStatistics(data, action);
+			} else {
+				if ((currentBucket == null) || (key != currentKey)) {
+					currentKey = key;
+					currentBucket = statistics.get(key);
+
+					if (currentBucket == null) {
+						currentBucket = generateStatisticsBucket(key, data);
+					}
+				}
+
+				action.accept(currentBucket, data);
+			}
+		}
+	}
+
+	protected Object generateStatisticsBucket(final long key,
+			final Object statisticsData) {
+		return propogate(() -> {
+			final Object result = updater.createBucket(updater
+					.extractKey(statisticsData));
+
+			final Object existing = statistics.putIfAbsent(key, result);
+
+			return existing == null ? result : existing;
+		});
+	}
+
+	protected ConcurrentLongHashMap<Object> getStatistics() {
+		return statistics;
+	}
+
+	@Override
+	public void collectStatistics(final IStatisticsFilter filter,
+			final boolean cleanup, final Consumer<Object> consumer) {
+		statistics.forEach((bucket, key) -> {
+			if (filter.isApplied(updater.extractBucketKey(bucket))) {
+				final Object data = cleanup ? statistics.remove(key) : bucket;
+
+				if (data != null) {
+					consumer.accept(data);
+				}
+			}
+		});
+
+		fallback.collectStatistics(filter, cleanup, consumer);
+	}
+
+}
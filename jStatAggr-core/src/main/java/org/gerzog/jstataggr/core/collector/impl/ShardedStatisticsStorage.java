@@ -0,0 +1,173 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import static org.gerzog.jstataggr.core.utils.Throwables.propogate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.gerzog.jstataggr.IStatisticsFilter;
+import org.gerzog.jstataggr.IStatisticsKey;
+
+/**
+ * Storage that spreads updating threads over a fixed number of storages
+ * (shards) with single-threaded buckets by thread id. Shards are created on
+ * first update and merged into new buckets on collection.
+ *
+ * Shard is locked by it's updaters and by collector on collection, so the lock
+ * is contended only by threads sharing a shard and during collection. Number
+ * of shards doesn't depend on number of updating threads, so thread per task
+ * producers don't create a shard per task
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class ShardedStatisticsStorage implements IStatisticsStorage {
+
+	private static final class Shard {
+
+		private final IStatisticsStorage storage;
+
+		public Shard(final IStatisticsStorage storage) {
+			this.storage = storage;
+		}
+
+		public IStatisticsStorage getStorage() {
+			return storage;
+		}
+
+	}
+
+	private final AbstractStatisticsUpdater updater;
+
+	private final Supplier<IStatisticsStorage> shardFactory;
+
+	private final AtomicReferenceArray<Shard> shards;
+
+	private final int mask;
+
+	public ShardedStatisticsStorage(final AbstractStatisticsUpdater updater,
+			final Supplier<IStatisticsStorage> shardFactory) {
+		this(updater, shardFactory, Runtime.getRuntime()
+				.availableProcessors() * 2);
+	}
+
+	ShardedStatisticsStorage(final AbstractStatisticsUpdater updater,
+			final Supplier<IStatisticsStorage> shardFactory, final int stripes) {
+		final int size = Integer.highestOneBit(Math.max(stripes - 1, 1)) << 1;
+
+		this.updater = updater;
+		this.shardFactory = shardFactory;
+		this.shards = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	private Shard getShard() {
+		final int index = (int) Thread.currentThread().getId() & mask;
+
+		Shard result = shards.get(index);
+
+		while (result == null) {
+			shards.compareAndSet(index, null, new Shard(shardFactory.get()));
+
+			result = shards.get(index);
+		}
+
+		return result;
+	}
+
+	@Override
+	public Object getStatisticsBucket(final Object statisticsData) {
+		return getShard().getStorage().getStatisticsBucket(statisticsData);
+	}
+
+	@Override
+	public void updateStatistics(final Object statisticsData,
+			final BiConsumer<Object, Object> action) {
+		final Shard shard = getShard();
+
+		synchronized (shard) {
+			shard.getStorage().updateStatistics(statisticsData, action);
+		}
+	}
+
+	@Override
+	public void updateStatistics(final Iterable<?> statisticsData,
+			final BiConsumer<Object, Object> action) {
+		final Shard shard = getShard();
+
+		synchronized (shard) {
+			shard.getStorage().updateStatistics(statisticsData, action);
+		}
+	}
+
+	@Override
+	public void collectStatistics(final IStatisticsFilter filter,
+			final boolean cleanup, final Consumer<Object> consumer) {
+		final Map<IStatisticsKey, Object> result = new LinkedHashMap<>();
+
+		for (final Shard shard : getShards()) {
+			synchronized (shard) {
+				shard.getStorage().collectStatistics(filter, cleanup,
+						bucket -> merge(result, bucket, cleanup));
+			}
+		}
+
+		result.values().forEach(consumer);
+	}
+
+	protected void merge(final Map<IStatisticsKey, Object> result,
+			final Object bucket, final boolean cleanup) {
+		final IStatisticsKey key = updater.extractBucketKey(bucket);
+
+		final Object existing = result.get(key);
+
+		if (existing != null) {
+			updater.merge(existing, bucket);
+		} else if (cleanup) {
+			// bucket was removed from shard and can be reused
+			result.put(key, bucket);
+		} else {
+			final Object target = propogate(() -> updater.createBucket(key));
+
+			updater.merge(target, bucket);
+
+			result.put(key, target);
+		}
+	}
+
+	protected List<Shard> getShards() {
+		final List<Shard> result = new ArrayList<>();
+
+		for (int i = 0; i < shards.length(); i++) {
+			final Shard shard = shards.get(i);
+
+			if (shard != null) {
+				result.add(shard);
+			}
+		}
+
+		return result;
+	}
+
+}
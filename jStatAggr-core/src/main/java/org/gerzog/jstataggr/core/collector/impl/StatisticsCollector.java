@@ -17,30 +17,44 @@ package org.gerzog.jstataggr.core.collector.impl;
 
 import static org.gerzog.jstataggr.core.utils.Throwables.propogate;
 
-import java.lang.invoke.MethodHandle;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
+import javassist.ByteArrayClassPath;
 import javassist.ClassPool;
 import javassist.CtClass;
-import net.sf.cglib.beans.BeanCopier;
-import net.sf.cglib.beans.BeanGenerator;
+import javassist.LoaderClassPath;
 
-import org.apache.commons.collections4.CollectionUtils;
-import org.apache.commons.collections4.Transformer;
 import org.apache.commons.lang3.StringUtils;
 import org.gerzog.jstataggr.AggregationType;
+import org.gerzog.jstataggr.BucketOverflow;
+import org.gerzog.jstataggr.CleanupMode;
 import org.gerzog.jstataggr.FieldType;
 import org.gerzog.jstataggr.IStatisticsFilter;
-import org.gerzog.jstataggr.IStatisticsKey;
-import org.gerzog.jstataggr.core.collector.impl.StatisticsKey.StatisticsKeyBuilder;
+import org.gerzog.jstataggr.IStatisticsPartials;
+import org.gerzog.jstataggr.StorageType;
+import org.gerzog.jstataggr.core.collector.impl.StatisticsPartials.Partial;
 import org.gerzog.jstataggr.core.expressions.IExpressionHandler;
 import org.gerzog.jstataggr.core.manager.impl.internal.IStatisticsField;
+import org.gerzog.jstataggr.core.manager.impl.internal.PackedLayout;
 import org.gerzog.jstataggr.core.manager.impl.internal.StatisticsFields;
 
 /**
@@ -51,43 +65,30 @@ public class StatisticsCollector {
 
 	private static final String PACKAGE_PREFIX = "org.gerzog.jstataggr.core.manager.impl.generated.";
 
-	private static class FieldInfo {
+	private static final String UPDATER_POSTFIX = "Updater";
 
-		private final String name;
+	private static final String KEY_POSTFIX = "Key";
 
-		private final String expression;
+	private static final String PROBE_KEY_POSTFIX = "ProbeKey";
 
-		private final MethodHandle getter;
+	private static final String RECORD_POSTFIX = "Record";
 
-		private MethodHandle accessor;
+	private static final String RECORD_UPDATER_POSTFIX = "RecordUpdater";
 
-		public FieldInfo(final String name, final String expression,
-				final MethodHandle getter) {
-			this.name = name;
-			this.expression = expression;
-			this.getter = getter;
-		}
-
-		public void setAccessor(final MethodHandle accessor) {
-			this.accessor = accessor;
-		}
-
-		public String getName() {
-			return name;
-		}
+	private static final String RECORDER_POSTFIX = "Recorder";
 
-		public String getExpression() {
-			return expression;
-		}
-
-		public MethodHandle getGetter() {
-			return getter;
-		}
+	/**
+	 * Version of generated code, should be increased on each change of
+	 * generators, so classes cached by previous versions are not reused
+	 */
+	static final int GENERATOR_VERSION = 1;
 
-		public MethodHandle getAccessor() {
-			return accessor;
-		}
-	}
+	/**
+	 * Postfixes of generated classes in order of their definition
+	 */
+	private static final String[] CLASS_POSTFIXES = { StringUtils.EMPTY,
+		KEY_POSTFIX, PROBE_KEY_POSTFIX, RECORD_POSTFIX,
+		RECORD_UPDATER_POSTFIX, UPDATER_POSTFIX };
 
 	public static class StatisticsCollectorBuilder {
 
@@ -95,7 +96,21 @@ public class StatisticsCollector {
 
 		private final StatisticsCollector result;
 
-		private final Map<IStatisticsField, FieldInfo> statisticsFieldInfo = new HashMap<>();
+		private final Map<String, FieldInfo> keys = new LinkedHashMap<>();
+
+		private final Map<String, FieldInfo> aggregations = new LinkedHashMap<>();
+
+		private StorageType storageType = StorageType.AUTO;
+
+		private CleanupMode cleanupMode = CleanupMode.REMOVE;
+
+		private boolean sharded;
+
+		private BucketLimit bucketLimit;
+
+		private File classOutput;
+
+		private File classCache;
 
 		public StatisticsCollectorBuilder(final String className,
 				final IExpressionHandler expressionHandler) {
@@ -103,261 +118,1052 @@ public class StatisticsCollector {
 			this.className = className;
 		}
 
+		public StatisticsCollectorBuilder withStorageType(
+				final StorageType storageType) {
+			this.storageType = storageType;
+
+			return this;
+		}
+
+		public StatisticsCollectorBuilder withCleanupMode(
+				final CleanupMode cleanupMode) {
+			this.cleanupMode = cleanupMode;
+
+			return this;
+		}
+
+		public StatisticsCollectorBuilder withShards(final boolean sharded) {
+			this.sharded = sharded;
+
+			return this;
+		}
+
+		/**
+		 * Limits number of buckets kept by hashed storage. Evicted buckets are
+		 * passed to consumer, if any, in updating thread
+		 */
+		public StatisticsCollectorBuilder withBucketLimit(
+				final int maxBuckets, final BucketOverflow overflow,
+				final Consumer<Collection<Object>> evictionConsumer) {
+			this.bucketLimit = maxBuckets > 0 ? new BucketLimit(maxBuckets,
+					overflow, evictionConsumer) : null;
+
+			return this;
+		}
+
+		/**
+		 * Defines directory where generated classes are written. Classes
+		 * found in class path are not reused in this mode
+		 */
+		public StatisticsCollectorBuilder withClassOutput(final File classOutput) {
+			this.classOutput = classOutput;
+
+			return this;
+		}
+
+		/**
+		 * Defines directory where generated classes are cached by layout of
+		 * statistics, so they are loaded instead of generation on next start
+		 */
+		public StatisticsCollectorBuilder withClassCache(final File classCache) {
+			this.classCache = classCache;
+
+			return this;
+		}
+
 		public StatisticsCollectorBuilder addStatisticsKey(final Field field,
-				final MethodHandle getter, final String expression) {
+				final long minValue, final long maxValue, final Method getter,
+				final String expression) {
+			final FieldInfo fieldInfo = add(keys, field, getter, expression);
+			fieldInfo.setRange(minValue, maxValue);
 
-			add(field.getName(),
-					expression,
-					StatisticsFields.forStatisticsKey(field.getName(),
-							field.getType()), getter);
+			fieldInfo.addStatisticsField(StatisticsFields.forStatisticsKey(
+					field.getName(), field.getType()));
 
 			return this;
 		}
 
 		public StatisticsCollectorBuilder addAggregation(final Field field,
 				final AggregationType[] aggregationTypes,
-				final FieldType fieldType, final MethodHandle getter,
+				final FieldType fieldType, final Method getter,
 				final String expression) {
-			for (final AggregationType type : aggregationTypes) {
-				add(field.getName(),
-						expression,
-						StatisticsFields.forAggregation(field.getName(),
-								field.getType(), type, fieldType), getter);
-			}
+			final FieldInfo fieldInfo = add(aggregations, field, getter,
+					expression);
+			fieldInfo.setAggregation(aggregationTypes, fieldType);
 
 			return this;
 		}
 
-		private StatisticsCollectorBuilder add(final String name,
-				final String expression,
-				final IStatisticsField statisticsField,
-				final MethodHandle getter) {
-			final FieldInfo fieldInfo = new FieldInfo(name, expression, getter);
+		private FieldInfo add(final Map<String, FieldInfo> fields,
+				final Field field, final Method getter, final String expression) {
+			final FieldInfo fieldInfo = new FieldInfo(field.getName(),
+					field.getType(), expression, getter);
 
-			statisticsFieldInfo.put(statisticsField, fieldInfo);
+			fields.put(field.getName(), fieldInfo);
 
-			return this;
+			return fieldInfo;
 		}
 
 		public StatisticsCollector build() {
-			result.classInfo = generateClassInfo(className, statisticsFieldInfo);
+			if (sharded && (bucketLimit != null)) {
+				throw new IllegalStateException("Sharded statistics <"
+						+ className + "> cannot limit number of buckets");
+			}
+
+			final PackedLayout layout = new PackedLayout();
+
+			for (final FieldInfo info : aggregations.values()) {
+				// shards are updated under lock of shard, so no thread-safe
+				// fields are required
+				final FieldType fieldType = sharded ? FieldType.PRIMITIVE
+						: info.getFieldType();
+
+				if (sharded) {
+					validateShardedAggregation(info);
+				}
+
+				for (final AggregationType type : info.getAggregationTypes()) {
+					info.addStatisticsField(StatisticsFields.forAggregation(
+							info.getName(), info.getType(), type, fieldType,
+							layout));
+				}
+			}
+
+			result.classInfo = generateClassInfo(className, keys.values(),
+					aggregations.values(), sharded, classOutput, classCache);
+			result.classInfo.getUpdater().setExpressionHandler(
+					result.expressionHandler);
+			final AbstractStatisticsUpdater updater = result.classInfo
+					.getUpdater();
+
+			final Supplier<IStatisticsStorage> storageFactory = sharded ? () -> new ShardedStatisticsStorage(
+					updater, () -> createStorage(updater)) : () -> createStorage(updater);
+
+			result.setStorageFactory(storageFactory);
+			result.setStorage(storageFactory.get());
+			result.setCleanupMode(cleanupMode);
+			result.bucketLimit = bucketLimit;
+			result.mergeable = sharded;
 
 			return result;
 		}
 
+		private void validateShardedAggregation(final FieldInfo info) {
+			for (final AggregationType type : info.getAggregationTypes()) {
+				if ((type != AggregationType.COUNT)
+						&& !info.getType().isPrimitive()) {
+					throw new IllegalStateException("Field <" + info.getName()
+							+ "> of sharded statistics <" + className
+							+ "> should be primitive for aggregation <" + type
+							+ ">");
+				}
+			}
+		}
+
+		private IStatisticsStorage createBoundedStorage(
+				final AbstractStatisticsUpdater updater) {
+			// overflow bucket is shared by updates with different keys, so
+			// it's primitive fields can be updated concurrently even by
+			// partitioned handler
+			final boolean lockOverflow = aggregations.values().stream()
+					.anyMatch(info -> info.getFieldType() == FieldType.PRIMITIVE);
+
+			return new BoundedStatisticsStorage(updater, bucketLimit,
+					lockOverflow);
+		}
+
+		private IStatisticsStorage createStorage(
+				final AbstractStatisticsUpdater updater) {
+			final int capacity = IndexedStatisticsStorage.getCapacity(keys
+					.values());
+
+			switch (storageType) {
+			case AUTO:
+				if ((capacity >= 0)
+						&& (capacity <= IndexedStatisticsStorage.AUTO_CAPACITY)) {
+					return new IndexedStatisticsStorage(updater, capacity);
+				}
+
+				if (bucketLimit != null) {
+					return createBoundedStorage(updater);
+				}
+
+				if (PackedStatisticsStorage.getPackedWidth(keys.values()) >= 0) {
+					return new PackedStatisticsStorage(updater, keys.values());
+				}
+
+				return new HashStatisticsStorage(updater);
+			case HASHED:
+				if (bucketLimit != null) {
+					return createBoundedStorage(updater);
+				}
+
+				return new HashStatisticsStorage(updater);
+			case INDEXED:
+				if (capacity < 0) {
+					throw new IllegalStateException(
+							"Statistics <"
+									+ className
+									+ "> cannot use indexed storage: all keys should be enums, booleans or bounded integral values with at most "
+									+ IndexedStatisticsStorage.MAX_CAPACITY
+									+ " combinations");
+				}
+
+				return new IndexedStatisticsStorage(updater, capacity);
+			case PACKED:
+				if (bucketLimit != null) {
+					throw new IllegalStateException("Statistics <"
+							+ className
+							+ "> cannot limit number of buckets of packed storage");
+				}
+
+				if (PackedStatisticsStorage.getPackedWidth(keys.values()) < 0) {
+					throw new IllegalStateException(
+							"Statistics <"
+									+ className
+									+ "> cannot use packed storage: all keys should be primitives or enums with total width up to 64 bits");
+				}
+
+				return new PackedStatisticsStorage(updater, keys.values());
+			default:
+				throw new IllegalArgumentException("StorageType <"
+						+ storageType + "> is not supported");
+			}
+		}
+
 	}
 
 	private static class CollectorClassInfo {
-		private final Class<?> bucketClass;
+		private final GeneratedClassLoader classLoader;
 
-		private Class<?> externalEntityClass;
+		private final Class<?> bucketClass;
 
-		private final Map<String, FieldInfo> keys = new HashMap<>();
+		private final AbstractStatisticsUpdater updater;
 
-		private final List<FieldInfo> updaters = new ArrayList<>();
+		private Class<?> recordClass;
 
-		private BeanCopier externalEntityConverter;
+		private List<FieldInfo> recordFields;
 
-		public CollectorClassInfo(final Class<?> bucketClass) {
+		public CollectorClassInfo(final GeneratedClassLoader classLoader,
+				final Class<?> bucketClass,
+				final AbstractStatisticsUpdater updater) {
+			this.classLoader = classLoader;
 			this.bucketClass = bucketClass;
+			this.updater = updater;
 		}
 
-		public BeanCopier getExternalEntityConverter() {
-			return externalEntityConverter;
+		public GeneratedClassLoader getClassLoader() {
+			return classLoader;
 		}
 
 		public Class<?> getBucketClass() {
 			return bucketClass;
 		}
 
-		public Map<String, FieldInfo> getKeys() {
-			return keys;
+		public AbstractStatisticsUpdater getUpdater() {
+			return updater;
 		}
 
-		public List<FieldInfo> getUpdaters() {
-			return updaters;
+		public Class<?> getRecordClass() {
+			return recordClass;
 		}
 
-		public Class<?> getExternalEntityClass() {
-			return externalEntityClass;
+		public List<FieldInfo> getRecordFields() {
+			return recordFields;
 		}
 
-		public void setExternalEntityClass(final Class<?> externalEntityClass) {
-			this.externalEntityClass = externalEntityClass;
-			this.externalEntityConverter = BeanCopier.create(bucketClass,
-					externalEntityClass, false);
+		public void setRecord(final Class<?> recordClass,
+				final List<FieldInfo> recordFields) {
+			this.recordClass = recordClass;
+			this.recordFields = recordFields;
+		}
+
+	}
+
+	/**
+	 * Applies range of rows of columns to bucket of their key
+	 */
+	private static final class ColumnRun implements BiConsumer<Object, Object> {
+
+		private final AbstractStatisticsUpdater updater;
+
+		private final Object[] columns;
+
+		private int from;
+
+		private int to;
+
+		public ColumnRun(final AbstractStatisticsUpdater updater,
+				final Object[] columns) {
+			this.updater = updater;
+			this.columns = columns;
+		}
+
+		public void setRange(final int from, final int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public void accept(final Object statisticsBucket,
+				final Object statisticsData) {
+			propogate(() -> {
+				updater.applyColumns(columns, from, to, statisticsBucket);
+			});
+		}
+
+	}
+
+	private static final class Generation {
+
+		private final IStatisticsStorage storage;
+
+		private final InFlightCounter counter = new InFlightCounter();
+
+		public Generation(final IStatisticsStorage storage) {
+			this.storage = storage;
+		}
+
+		public IStatisticsStorage getStorage() {
+			return storage;
+		}
+
+		public InFlightCounter getCounter() {
+			return counter;
 		}
 
 	}
 
 	private CollectorClassInfo classInfo;
 
-	private final Map<IStatisticsKey, Object> statistics = new ConcurrentHashMap<>();
+	private volatile Generation generation;
+
+	private Supplier<IStatisticsStorage> storageFactory;
+
+	private CleanupMode cleanupMode = CleanupMode.REMOVE;
+
+	private BucketLimit bucketLimit;
+
+	private boolean mergeable;
 
 	private final IExpressionHandler expressionHandler;
 
-	private final Transformer<Object, Object> exportTransformer = (input) -> convert(input);
+	private final BiConsumer<Object, Object> bucketUpdater = (bucket, data) -> updateStatistics(
+			bucket, data);
+
+	private final InstancePool<AbstractStatisticsProbeKey> probeKeys = new InstancePool<>(
+			() -> classInfo.getUpdater().createProbeKey());
+
+	private final InstancePool<Object> records = new InstancePool<>(
+			() -> propogate(() -> classInfo.getRecordClass().newInstance()));
+
+	private final Map<Class<?>, Object> recorders = new ConcurrentHashMap<>();
 
 	// LN: 2.06.2014, made package-visible for tests
 	StatisticsCollector(final IExpressionHandler expressionHandler) {
 		this.expressionHandler = expressionHandler;
 	}
 
-	private Object convert(final Object input) {
-		return propogate(() -> {
-			final Object externalEntity = classInfo.getExternalEntityClass()
-					.newInstance();
+	protected static CollectorClassInfo generateClassInfo(
+			final String className, final Collection<FieldInfo> keys,
+			final Collection<FieldInfo> aggregations, final boolean mergeable,
+			final File classOutput, final File classCache) {
+		final String bucketClassName = PACKAGE_PREFIX
+				+ StringUtils.capitalize(className);
 
-			classInfo.getExternalEntityConverter().copy(input, externalEntity,
-					null);
+		final long layout = getLayout(bucketClassName, keys, aggregations,
+				mergeable);
 
-			return externalEntity;
-		});
-	}
+		if (classOutput == null) {
+			final CollectorClassInfo result = findClassInfo(bucketClassName,
+					layout, keys, aggregations);
 
-	protected static CollectorClassInfo generateClassInfo(
-			final String className,
-			final Map<IStatisticsField, FieldInfo> fieldInfo) {
-		final ClassPool pool = ClassPool.getDefault();
+			if (result != null) {
+				return result;
+			}
+		}
+
+		final File cacheDir = classCache == null ? null : new File(
+				classCache, getCacheKey(layout));
+
+		if ((cacheDir != null) && cacheDir.isDirectory()) {
+			final CollectorClassInfo result = loadClassInfo(cacheDir,
+					new GeneratedClassLoader(getClassLoader()),
+					bucketClassName, layout, keys, aggregations);
+
+			if (result != null) {
+				return result;
+			}
+
+			// broken entry is regenerated and overwritten
+			propogate(() -> delete(cacheDir.toPath()));
+		}
+
+		final GeneratedClassLoader classLoader = new GeneratedClassLoader(
+				getClassLoader());
 
-		final CtClass clazz = pool.makeClass(PACKAGE_PREFIX
-				+ StringUtils.capitalize(className));
+		final ClassPool pool = createClassPool(classLoader);
 
-		fieldInfo.keySet().forEach(info -> {
+		final CtClass clazz = pool.makeClass(bucketClassName);
+
+		forEachStatisticsField(keys, aggregations, info -> {
 			propogate(() -> info.generate(clazz));
 		});
 
+		final List<CtClass> generated = new ArrayList<>();
+
+		final CollectorClassInfo result = propogate(() -> {
+			final Class<?> bucketClass = define(clazz, classLoader, generated);
+
+			final CtClass keyClazz = StatisticsKeyGenerator.generate(pool,
+					bucketClassName + KEY_POSTFIX, keys);
+			define(keyClazz, classLoader, generated);
+
+			final CtClass probeKeyClazz = StatisticsKeyGenerator.generateProbe(
+					pool, bucketClassName + PROBE_KEY_POSTFIX,
+					keyClazz.getName(), keys);
+			define(probeKeyClazz, classLoader, generated);
+
+			final CtClass recordClazz = StatisticsRecordGenerator.generate(
+					pool, bucketClassName + RECORD_POSTFIX, keys, aggregations);
+			final Class<?> recordClass = define(recordClazz, classLoader,
+					generated);
+
+			final CtClass recordUpdaterClazz = StatisticsUpdaterGenerator
+					.generate(pool, bucketClassName + RECORD_UPDATER_POSTFIX,
+							clazz, keyClazz, probeKeyClazz,
+							copy(keys, recordClass),
+							copy(aggregations, recordClass), mergeable, null,
+							layout);
+
+			final CtClass updaterClazz = StatisticsUpdaterGenerator.generate(
+					pool, bucketClassName + UPDATER_POSTFIX, clazz, keyClazz,
+					probeKeyClazz, keys, aggregations, mergeable,
+					recordClazz.getName(), layout);
+
+			final Class<?> recordUpdaterClass = define(recordUpdaterClazz,
+					classLoader, generated);
+			final AbstractStatisticsUpdater updater = (AbstractStatisticsUpdater) define(
+					updaterClazz, classLoader, generated).newInstance();
+			updater.setRecordUpdater((AbstractStatisticsUpdater) recordUpdaterClass
+					.newInstance());
+
+			return createClassInfo(classLoader, bucketClass, updater,
+					recordClass, keys, aggregations);
+		});
+
+		for (final CtClass generatedClazz : generated) {
+			generatedClazz.detach();
+		}
+
+		if (classOutput != null) {
+			write(classLoader.getBytecodes(), classOutput);
+		}
+
+		if (cacheDir != null) {
+			cache(classLoader.getBytecodes(), cacheDir);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns info of classes generated earlier, e.g. at build time, or null
+	 * if there are no such classes. Classes generated for another layout of
+	 * statistics are rejected
+	 */
+	private static CollectorClassInfo findClassInfo(
+			final String bucketClassName, final long layout,
+			final Collection<FieldInfo> keys,
+			final Collection<FieldInfo> aggregations) {
+		final ClassLoader classLoader = getClassLoader();
+
+		final Class<?> updaterClass;
+
+		try {
+			updaterClass = Class.forName(bucketClassName + UPDATER_POSTFIX,
+					true, classLoader);
+		} catch (final ClassNotFoundException e) {
+			return null;
+		}
+
+		return resolveClassInfo(updaterClass, bucketClassName, layout, keys,
+				aggregations);
+	}
+
+	/**
+	 * Defines classes cached by earlier start. Returns null if cached classes
+	 * cannot be loaded, e.g. they are partially removed or corrupted
+	 */
+	private static CollectorClassInfo loadClassInfo(final File cacheDir,
+			final GeneratedClassLoader classLoader,
+			final String bucketClassName, final long layout,
+			final Collection<FieldInfo> keys,
+			final Collection<FieldInfo> aggregations) {
+		try {
+			return propogate(() -> {
+				Class<?> updaterClass = null;
+
+				for (final String postfix : CLASS_POSTFIXES) {
+					final String className = bucketClassName + postfix;
+
+					updaterClass = classLoader.define(className, Files
+							.readAllBytes(getClassFile(cacheDir, className)
+									.toPath()));
+				}
+
+				return resolveClassInfo(updaterClass, bucketClassName, layout,
+						keys, aggregations);
+			});
+		} catch (final RuntimeException | LinkageError e) {
+			return null;
+		}
+	}
+
+	private static CollectorClassInfo resolveClassInfo(
+			final Class<?> updaterClass, final String bucketClassName,
+			final long layout, final Collection<FieldInfo> keys,
+			final Collection<FieldInfo> aggregations) {
+		final ClassLoader classLoader = updaterClass.getClassLoader();
+		// recorders of classes generated earlier are defined in separate loader
+		final GeneratedClassLoader generatedClassLoader = classLoader instanceof GeneratedClassLoader ? (GeneratedClassLoader) classLoader
+				: new GeneratedClassLoader(classLoader);
+
 		return propogate(() -> {
-			return generateClassInfo(clazz.toClass(), fieldInfo);
+			final AbstractStatisticsUpdater updater = (AbstractStatisticsUpdater) updaterClass
+					.newInstance();
+
+			if (updater.getLayout() != layout) {
+				throw new IllegalStateException("Generated classes <"
+						+ bucketClassName
+						+ "> don't match definition of statistics");
+			}
+
+			updater.setRecordUpdater((AbstractStatisticsUpdater) Class
+					.forName(bucketClassName + RECORD_UPDATER_POSTFIX, true,
+							classLoader).newInstance());
+
+			return createClassInfo(generatedClassLoader, Class.forName(
+					bucketClassName, true, classLoader), updater, Class
+					.forName(bucketClassName + RECORD_POSTFIX, true,
+							classLoader), keys, aggregations);
 		});
 	}
 
-	protected static CollectorClassInfo generateClassInfo(final Class<?> clazz,
-			final Map<IStatisticsField, FieldInfo> fieldInfo) {
-		final CollectorClassInfo result = new CollectorClassInfo(clazz);
-		final Map<String, Class<?>> methodInfo = new HashMap<>();
+	private static ClassLoader getClassLoader() {
+		final ClassLoader result = Thread.currentThread()
+				.getContextClassLoader();
 
-		fieldInfo.forEach((statisticsInfo, bucketInfo) -> {
-			propogate(() -> {
-				final MethodHandle accessMethod = statisticsInfo
-						.getAccessMethodHandle(clazz);
+		return result == null ? StatisticsCollector.class.getClassLoader()
+				: result;
+	}
+
+	/**
+	 * Each collector is generated in it's own pool, so classes of pool are
+	 * released after generation
+	 */
+	private static ClassPool createClassPool(
+			final GeneratedClassLoader classLoader) {
+		final ClassPool result = new ClassPool(ClassPool.getDefault());
+
+		result.appendClassPath(new LoaderClassPath(classLoader));
+
+		for (final Map.Entry<String, byte[]> bytecode : classLoader
+				.getBytecodes().entrySet()) {
+			result.insertClassPath(new ByteArrayClassPath(bytecode.getKey(),
+					bytecode.getValue()));
+		}
+
+		return result;
+	}
 
-				bucketInfo.setAccessor(accessMethod);
+	private static Class<?> define(final CtClass clazz,
+			final GeneratedClassLoader classLoader,
+			final List<CtClass> generated) throws Exception {
+		generated.add(clazz);
 
-				if (statisticsInfo.isAggregator()) {
-					result.getUpdaters().add(bucketInfo);
-				} else {
-					result.getKeys().put(bucketInfo.getName(), bucketInfo);
+		return classLoader.define(clazz.getName(), clazz.toBytecode());
+	}
+
+	private static File getClassFile(final File directory,
+			final String className) {
+		return new File(directory, className.replace('.', File.separatorChar)
+				+ ".class");
+	}
+
+	private static void write(final Map<String, byte[]> bytecodes,
+			final File output) {
+		bytecodes.forEach((className, bytecode) -> propogate(() -> {
+			final File file = getClassFile(output, className);
+			file.getParentFile().mkdirs();
+
+			Files.write(file.toPath(), bytecode);
+		}));
+	}
+
+	/**
+	 * Writes classes to temporary directory and moves it to cache, so other
+	 * processes sharing cache never see partially written classes
+	 */
+	private static void cache(final Map<String, byte[]> bytecodes,
+			final File cacheDir) {
+		propogate(() -> {
+			final Path cache = cacheDir.getParentFile().toPath();
+			Files.createDirectories(cache);
+
+			final Path temp = Files.createTempDirectory(cache,
+					cacheDir.getName());
+			write(bytecodes, temp.toFile());
+
+			try {
+				Files.move(temp, cacheDir.toPath(),
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (final IOException e) {
+				// cached by another process meanwhile
+				if (!cacheDir.isDirectory()) {
+					throw e;
 				}
 
-				methodInfo.put(statisticsInfo.getFieldName(),
-						statisticsInfo.getMethodType());
-			});
+				delete(temp);
+			}
 		});
+	}
+
+	private static void delete(final Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile)
+			.forEach(File::delete);
+		}
+	}
+
+	/**
+	 * Cached classes are valid for layout of statistics, version of generators
+	 * and version of library that generated them. Implementation version is
+	 * available only in packaged library, so generator version is always part
+	 * of key
+	 */
+	protected static String getCacheKey(final long layout) {
+		final String version = StatisticsCollector.class.getPackage()
+				.getImplementationVersion();
+
+		return Long.toHexString(layout) + "-g" + GENERATOR_VERSION
+				+ (version == null ? StringUtils.EMPTY : "-" + version);
+	}
+
+	private static CollectorClassInfo createClassInfo(
+			final GeneratedClassLoader classLoader, final Class<?> bucketClass,
+			final AbstractStatisticsUpdater updater, final Class<?> recordClass,
+			final Collection<FieldInfo> keys,
+			final Collection<FieldInfo> aggregations) {
+		final CollectorClassInfo result = new CollectorClassInfo(classLoader,
+				bucketClass, updater);
+
+		final List<FieldInfo> recordFields = new ArrayList<>(keys);
+		recordFields.addAll(aggregations);
+
+		result.setRecord(recordClass, recordFields);
 
-		final BeanGenerator externalBeanGenerator = new BeanGenerator();
-		BeanGenerator.addProperties(externalBeanGenerator, methodInfo);
+		return result;
+	}
+
+	/**
+	 * Calculates hash of everything that affects generated classes
+	 */
+	protected static long getLayout(final String bucketClassName,
+			final Collection<FieldInfo> keys,
+			final Collection<FieldInfo> aggregations, final boolean mergeable) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(bucketClassName).append(';').append(mergeable);
+
+		for (final Collection<FieldInfo> fields : Arrays.asList(keys,
+				aggregations)) {
+			builder.append('|');
 
-		result.setExternalEntityClass((Class<?>) externalBeanGenerator
-				.createClass());
+			for (final FieldInfo info : fields) {
+				builder.append(info.getLayout()).append(';');
+			}
+		}
+
+		// 64-bit FNV-1a
+		long result = 0xcbf29ce484222325L;
+
+		for (int i = 0; i < builder.length(); i++) {
+			result ^= builder.charAt(i);
+			result *= 0x100000001b3L;
+		}
 
 		return result;
 	}
 
+	private static Collection<FieldInfo> copy(final Collection<FieldInfo> fields,
+			final Class<?> recordClass) throws NoSuchMethodException {
+		final List<FieldInfo> result = new ArrayList<>();
+
+		for (final FieldInfo info : fields) {
+			result.add(info.copy(recordClass.getMethod(info.getGetter()
+					.getName())));
+		}
+
+		return result;
+	}
+
+	private static void forEachStatisticsField(
+			final Collection<FieldInfo> keys,
+			final Collection<FieldInfo> aggregations,
+			final Consumer<IStatisticsField> action) {
+		keys.forEach(info -> info.getStatisticsFields().forEach(action));
+		aggregations.forEach(info -> info.getStatisticsFields()
+				.forEach(action));
+	}
+
 	public void updateStatistics(final Object statisticsData) {
-		final Object statisticsBucket = getStatisticsBucket(statisticsData);
+		if (cleanupMode == CleanupMode.SWAP) {
+			final Generation current = enterGeneration();
 
-		updateStatistics(statisticsBucket, statisticsData);
+			try {
+				updateStatistics(current.getStorage(), statisticsData);
+			} finally {
+				current.getCounter().leave();
+			}
+		} else {
+			updateStatistics(generation.getStorage(), statisticsData);
+		}
 	}
 
-	protected void updateStatistics(final Object statisticsBucket,
+	protected void updateStatistics(final IStatisticsStorage storage,
 			final Object statisticsData) {
-		classInfo.getUpdaters().forEach(updater -> {
-			propogate(() -> {
-				Object value = updater.getGetter().invoke(statisticsData);
+		storage.updateStatistics(statisticsData, bucketUpdater);
+	}
 
-				value = updateValue(value, updater.getExpression());
+	public void updateStatistics(final Iterable<?> statisticsData) {
+		if (cleanupMode == CleanupMode.SWAP) {
+			final Generation current = enterGeneration();
 
-				updater.getAccessor().invoke(statisticsBucket, value);
-			});
-		});
+			try {
+				current.getStorage().updateStatistics(statisticsData,
+						bucketUpdater);
+			} finally {
+				current.getCounter().leave();
+			}
+		} else {
+			generation.getStorage().updateStatistics(statisticsData,
+					bucketUpdater);
+		}
 	}
 
-	protected Object getStatisticsBucket(final Object statisticsData) {
-		final IStatisticsKey key = generateStatisticsKey(statisticsData);
+	/**
+	 * Updates statistics with rows of columns. Columns are mapped by names of
+	 * statistics keys and aggregated fields and should be arrays of types of
+	 * these fields. Consecutive rows with same key values are applied to
+	 * bucket at once
+	 */
+	public void updateStatistics(final Map<String, ?> columns, final int size) {
+		final Object[] columnArray = toColumnArray(columns, size);
+
+		if (cleanupMode == CleanupMode.SWAP) {
+			final Generation current = enterGeneration();
+
+			try {
+				updateStatistics(current.getStorage(), columnArray, size);
+			} finally {
+				current.getCounter().leave();
+			}
+		} else {
+			updateStatistics(generation.getStorage(), columnArray, size);
+		}
+	}
 
-		Object statisticsBucket = statistics.get(key);
+	private Object[] toColumnArray(final Map<String, ?> columns,
+			final int size) {
+		final List<FieldInfo> fields = classInfo.getRecordFields();
 
-		if (statisticsBucket == null) {
-			statisticsBucket = generateStatisticsBucket(key, statisticsData);
+		if (columns.size() != fields.size()) {
+			throw new IllegalArgumentException("Columns " + columns.keySet()
+					+ " doesn't match fields of statistics");
 		}
 
-		return statisticsBucket;
+		final Object[] result = new Object[fields.size()];
+
+		for (int i = 0; i < result.length; i++) {
+			final FieldInfo info = fields.get(i);
+			final Object column = columns.get(info.getName());
+
+			if ((column == null)
+					|| (column.getClass().getComponentType() != info
+							.getGetter().getReturnType())) {
+				throw new IllegalArgumentException("Column <"
+						+ info.getName() + "> should be an array of <"
+						+ info.getGetter().getReturnType().getName() + ">");
+			}
+
+			if (Array.getLength(column) < size) {
+				throw new IllegalArgumentException("Column <"
+						+ info.getName() + "> has less than " + size
+						+ " rows");
+			}
+
+			result[i] = column;
+		}
+
+		return result;
 	}
 
-	protected IStatisticsKey generateStatisticsKey(final Object statisticsData) {
-		final StatisticsKeyBuilder builder = new StatisticsKeyBuilder();
+	protected void updateStatistics(final IStatisticsStorage storage,
+			final Object[] columns, final int size) {
+		final AbstractStatisticsUpdater updater = classInfo.getUpdater();
+		final Object record = records.acquire();
+		final ColumnRun run = new ColumnRun(updater, columns);
 
-		classInfo.getKeys().forEach((name, handles) -> {
-			propogate(() -> {
-				Object value = handles.getGetter().invoke(statisticsData);
+		propogate(() -> {
+			int from = 0;
 
-				value = updateValue(value, handles.getExpression());
+			while (from < size) {
+				int to = from + 1;
 
-				builder.withParameter(name, value);
-			});
+				while ((to < size) && updater.sameKey(columns, from, to)) {
+					to++;
+				}
+
+				updater.fillRecord(columns, from, record);
+				run.setRange(from, to);
+
+				storage.updateStatistics(record, run);
+
+				from = to;
+			}
 		});
 
-		return builder.build();
+		records.release(record);
 	}
 
-	protected Object generateStatisticsBucket(final IStatisticsKey key,
+	private Generation enterGeneration() {
+		while (true) {
+			final Generation current = generation;
+
+			current.getCounter().enter();
+
+			// generation could be swapped before this thread was counted
+			if (current == generation) {
+				return current;
+			}
+
+			current.getCounter().leave();
+		}
+	}
+
+	protected void updateStatistics(final Object statisticsBucket,
 			final Object statisticsData) {
-		return propogate(() -> {
-			final Object result = classInfo.getBucketClass().newInstance();
+		propogate(() -> {
+			classInfo.getUpdater().apply(statisticsData, statisticsBucket);
+		});
+	}
 
-			classInfo.getKeys().forEach((name, handles) -> {
-				propogate(() -> {
-					final Object value = key.get(name);
+	/**
+	 * Copies values of statistics keys and aggregated fields of entry into a
+	 * record that can be passed to {@link #updateStatistics(Object)} instead
+	 * of the entry
+	 */
+	public Object extractRecord(final Object statisticsData) {
+		return propogate(() -> classInfo.getUpdater().extractRecord(
+				statisticsData));
+	}
 
-					handles.getAccessor().invoke(result, value);
-				});
-			});
+	/**
+	 * Returns record of statistics entry, entry itself if it is a record
+	 * already
+	 */
+	protected Object toRecord(final Object statisticsData) {
+		if (classInfo.getRecordClass().isInstance(statisticsData)) {
+			return statisticsData;
+		}
+
+		return extractRecord(statisticsData);
+	}
+
+	/**
+	 * Creates partial aggregates that fold statistics entries in calling
+	 * thread. Returns null if buckets of statistics cannot be merged, i.e.
+	 * statistics is not sharded
+	 */
+	public IStatisticsPartials createPartials() {
+		return mergeable ? new StatisticsPartials(this, classInfo.getUpdater())
+				: null;
+	}
+
+	/**
+	 * Merges partial buckets into buckets of their keys, each bucket is looked
+	 * up once
+	 */
+	void mergeStatistics(final Collection<Partial> partials) {
+		if (cleanupMode == CleanupMode.SWAP) {
+			final Generation current = enterGeneration();
+
+			try {
+				mergeStatistics(current.getStorage(), partials);
+			} finally {
+				current.getCounter().leave();
+			}
+		} else {
+			mergeStatistics(generation.getStorage(), partials);
+		}
+	}
+
+	void mergeStatistics(final IStatisticsStorage storage,
+			final Collection<Partial> partials) {
+		for (final Partial partial : partials) {
+			storage.updateStatistics(partial.getRecord(), partial);
+		}
+	}
+
+	/**
+	 * Returns implementation of recorder interface. Methods of recorder should
+	 * accept values of statistics keys and then values of aggregated fields in
+	 * order of their declaration and update statistics in calling thread
+	 * without creation of statistics entry
+	 */
+	public <T> T createRecorder(final Class<T> recorderType) {
+		return recorderType.cast(recorders.computeIfAbsent(recorderType,
+				type -> generateRecorder(type)));
+	}
+
+	protected Object generateRecorder(final Class<?> recorderType) {
+		final Class<?> recordClass = classInfo.getRecordClass();
+		final GeneratedClassLoader classLoader = classInfo.getClassLoader();
 
-			final Object existing = statistics.putIfAbsent(key, result);
+		final CtClass recorderClazz = propogate(() -> StatisticsRecorderGenerator
+				.generate(createClassPool(classLoader), classInfo.getBucketClass()
+						.getName() + RECORDER_POSTFIX + recorderType.getSimpleName(),
+						recorderType, recordClass.getName(),
+						classInfo.getRecordFields()));
 
-			return existing == null ? result : existing;
+		return propogate(() -> {
+			final Class<?> recorderClass = classLoader.define(
+					recorderClazz.getName(), recorderClazz.toBytecode());
+			recorderClazz.detach();
+
+			return recorderClass.getConstructor(StatisticsCollector.class,
+					InstancePool.class).newInstance(this, records);
 		});
 	}
 
-	protected Map<IStatisticsKey, Object> getStatistics() {
-		return statistics;
+	/**
+	 * Returns hash code of statistics key of entry without creation of the
+	 * key. Entries with equal keys have equal hashes
+	 */
+	public int hashStatisticsKey(final Object statisticsData) {
+		final AbstractStatisticsProbeKey probeKey = probeKeys.acquire();
+
+		propogate(() -> classInfo.getUpdater().fillKey(statisticsData,
+				probeKey));
+
+		final int result = probeKey.hashCode();
+
+		probeKeys.release(probeKey);
+
+		return result;
+	}
+
+	/**
+	 * Drops pooled instances of generated classes and created recorders.
+	 * Called when collector is unregistered, so nothing but stale references
+	 * to collector keeps it's generated classes loaded
+	 */
+	public void close() {
+		probeKeys.clear();
+		records.clear();
+		recorders.clear();
+	}
+
+	protected IStatisticsStorage getStorage() {
+		return generation.getStorage();
+	}
+
+	protected void setStorage(final IStatisticsStorage storage) {
+		this.generation = new Generation(storage);
+	}
+
+	protected void setStorageFactory(
+			final Supplier<IStatisticsStorage> storageFactory) {
+		this.storageFactory = storageFactory;
+	}
+
+	protected void setCleanupMode(final CleanupMode cleanupMode) {
+		this.cleanupMode = cleanupMode;
+	}
+
+	/**
+	 * Returns number of updates with new statistics keys which were folded
+	 * into overflow bucket because of limit of buckets. Each update is
+	 * counted, not distinct keys
+	 */
+	public long getFoldedUpdateCount() {
+		return bucketLimit == null ? 0 : bucketLimit.getFoldedUpdateCount();
+	}
+
+	/**
+	 * Returns number of buckets evicted because of limit of buckets
+	 */
+	public long getEvictedCount() {
+		return bucketLimit == null ? 0 : bucketLimit.getEvictedCount();
 	}
 
+	private synchronized Generation swapGeneration() {
+		final Generation result = generation;
+
+		generation = new Generation(storageFactory.get());
+
+		return result;
+	}
+
+	/**
+	 * Collects buckets applied to filter. Overflow bucket of limited
+	 * statistics, if any, is neither collected nor removed
+	 */
 	public Collection<Object> collectStatistics(final IStatisticsFilter filter,
 			final boolean cleanup) {
+		return collectStatistics(filter, cleanup, null);
+	}
+
+	/**
+	 * Collects buckets applied to filter. Overflow bucket of limited
+	 * statistics, if any, is passed to overflowConsumer instead of result, so
+	 * it cannot be mistaken for bucket of a key with default values. If
+	 * overflowConsumer is null overflow bucket stays in storage
+	 */
+	public Collection<Object> collectStatistics(final IStatisticsFilter filter,
+			final boolean cleanup, final Consumer<Object> overflowConsumer) {
 		final Collection<Object> result = new ArrayList<>();
 
-		statistics.keySet().forEach(
-				key -> {
-					if (filter.isApplied(key)) {
-						final Object data = cleanup ? statistics.remove(key)
-								: statistics.get(key);
+		// overflow bucket that is not collected cannot be dropped together
+		// with previous generation
+		final boolean swap = (overflowConsumer != null)
+				|| (bucketLimit == null);
 
-						result.add(data);
-					}
-				});
+		if (cleanup && (cleanupMode == CleanupMode.SWAP)
+				&& (filter == IStatisticsFilter.ALL) && swap) {
+			final Generation previous = swapGeneration();
 
-		return CollectionUtils
-				.transformingCollection(result, exportTransformer);
-	}
+			// buckets of previous generation can be collected only after all
+			// updates in progress are applied
+			previous.getCounter().awaitEmpty();
 
-	protected Object updateValue(final Object original, final String expression)
-			throws Exception {
-		if ((expressionHandler != null) && (expression != null)) {
-			return expressionHandler.invokeExpression(expression, original);
+			previous.getStorage().collectStatistics(filter, false, result::add);
+
+			if (overflowConsumer != null) {
+				previous.getStorage().collectOverflow(filter, false,
+						overflowConsumer);
+			}
+		} else {
+			final IStatisticsStorage storage = getStorage();
+
+			storage.collectStatistics(filter, cleanup, result::add);
+
+			if (overflowConsumer != null) {
+				storage.collectOverflow(filter, cleanup, overflowConsumer);
+			}
 		}
 
-		return original;
+		return result;
 	}
 }
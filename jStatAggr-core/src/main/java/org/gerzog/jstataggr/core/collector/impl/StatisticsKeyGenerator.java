@@ -0,0 +1,246 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+
+import org.apache.commons.lang3.StringUtils;
+import org.gerzog.jstataggr.IStatisticsKey;
+import org.gerzog.jstataggr.core.templates.TemplateHelper;
+import org.gerzog.jstataggr.core.utils.KeyUtils;
+
+/**
+ * Generates typed implementation of {@link IStatisticsKey} with a field for
+ * each statistics key of collector
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+final class StatisticsKeyGenerator {
+
+	private static final String MODIFIER = "public";
+
+	private static final String HASH_FIELD = "hash$";
+
+	private static final String PARAMETER_PREFIX = "key";
+
+	private static final String OTHER_VARIABLE = "other";
+
+	private static final String KEY_UTILS_PREFIX = KeyUtils.class.getName()
+			+ ".";
+
+	private StatisticsKeyGenerator() {
+
+	}
+
+	public static CtClass generate(final ClassPool pool,
+			final String className, final Collection<FieldInfo> keys)
+					throws Exception {
+		final CtClass result = pool.makeClass(className);
+
+		result.addInterface(pool.get(IStatisticsKey.class.getName()));
+
+		for (final FieldInfo info : keys) {
+			result.addField(CtField.make(fieldDeclaration(info, true), result));
+		}
+		result.addField(CtField.make("private final int " + HASH_FIELD + ";",
+				result));
+
+		result.addConstructor(CtNewConstructor.make(
+				constructor(result.getSimpleName(), keys), result));
+
+		addCommonMethods(result, className, keys);
+
+		return result;
+	}
+
+	public static CtClass generateProbe(final ClassPool pool,
+			final String className, final String keyClassName,
+			final Collection<FieldInfo> keys) throws Exception {
+		final CtClass result = pool.makeClass(className,
+				pool.get(AbstractStatisticsProbeKey.class.getName()));
+
+		for (final FieldInfo info : keys) {
+			result.addField(CtField.make(fieldDeclaration(info, false), result));
+		}
+		result.addField(CtField.make("private int " + HASH_FIELD + ";", result));
+
+		result.addMethod(CtMethod.make(rehashMethod(keys), result));
+		result.addMethod(CtMethod.make(toKeyMethod(keyClassName, keys), result));
+
+		addCommonMethods(result, keyClassName, keys);
+
+		return result;
+	}
+
+	private static void addCommonMethods(final CtClass clazz,
+			final String keyClassName, final Collection<FieldInfo> keys)
+					throws Exception {
+		clazz.addMethod(CtMethod.make(hashCodeMethod(), clazz));
+		clazz.addMethod(CtMethod.make(equalsMethod(keyClassName, keys), clazz));
+		clazz.addMethod(CtMethod.make(getMethod(keys), clazz));
+		clazz.addMethod(CtMethod.make(toStringMethod(keys), clazz));
+	}
+
+	protected static String fieldDeclaration(final FieldInfo info,
+			final boolean immutable) {
+		return MODIFIER + (immutable ? " final " : " ")
+				+ TemplateHelper.getTypeName(info.getType()) + " "
+				+ info.getName() + ";";
+	}
+
+	protected static String constructor(final String simpleName,
+			final Collection<FieldInfo> keys) {
+		final StringBuilder builder = new StringBuilder();
+		final List<Object> arguments = new ArrayList<>();
+
+		builder.append("super();");
+
+		int index = 0;
+
+		for (final FieldInfo info : keys) {
+			final String parameter = PARAMETER_PREFIX + index++;
+
+			arguments.add(TemplateHelper.getTypeName(info.getType()));
+			arguments.add(parameter);
+
+			builder.append("this.").append(info.getName()).append(" = ")
+			.append(parameter).append(";");
+		}
+
+		builder.append(hashStatements(keys));
+
+		return TemplateHelper.constructor(MODIFIER, simpleName,
+				builder.toString(), arguments.toArray());
+	}
+
+	protected static String rehashMethod(final Collection<FieldInfo> keys) {
+		return TemplateHelper.method(MODIFIER, "rehash", null,
+				hashStatements(keys));
+	}
+
+	protected static String toKeyMethod(final String keyClassName,
+			final Collection<FieldInfo> keys) {
+		final List<String> values = new ArrayList<>();
+
+		for (final FieldInfo info : keys) {
+			values.add("this." + info.getName());
+		}
+
+		return TemplateHelper.method(MODIFIER, "toKey",
+				IStatisticsKey.class.getName(), "return new "
+						+ TemplateHelper.methodCall(keyClassName,
+								values.toArray(new String[values.size()])));
+	}
+
+	protected static String hashStatements(final Collection<FieldInfo> keys) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append("int hash = 1;");
+
+		for (final FieldInfo info : keys) {
+			builder.append("hash = 31 * hash + ")
+			.append(TemplateHelper.methodCall(KEY_UTILS_PREFIX + "hash",
+					"this." + info.getName()));
+		}
+
+		builder.append("this.").append(HASH_FIELD).append(" = hash;");
+
+		return builder.toString();
+	}
+
+	protected static String hashCodeMethod() {
+		return TemplateHelper.method(MODIFIER, "hashCode", "int", "return this."
+				+ HASH_FIELD + ";");
+	}
+
+	protected static String equalsMethod(final String className,
+			final Collection<FieldInfo> keys) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append("if (this == object) {return true;}");
+		builder.append("if (!(object instanceof ").append(className)
+		.append(")) {return false;}");
+		builder.append(TemplateHelper.variable(className, OTHER_VARIABLE,
+				"(" + className + ") object"));
+		builder.append("return this.").append(HASH_FIELD).append(" == ")
+		.append(OTHER_VARIABLE).append(".hashCode()");
+
+		for (final FieldInfo info : keys) {
+			builder.append(" && ")
+			.append(KEY_UTILS_PREFIX)
+			.append("equals(this.")
+			.append(info.getName())
+			.append(", ")
+			.append(OTHER_VARIABLE)
+			.append(".")
+			.append(info.getName()).append(")");
+		}
+
+		builder.append(";");
+
+		return TemplateHelper.method(MODIFIER, "equals", "boolean",
+				builder.toString(), Object.class.getName(), "object");
+	}
+
+	protected static String getMethod(final Collection<FieldInfo> keys) {
+		final StringBuilder builder = new StringBuilder();
+
+		for (final FieldInfo info : keys) {
+			builder.append("if (")
+			.append(TemplateHelper.stringLiteral(info.getName()))
+			.append(".equals(name)) {return ")
+			.append(TemplateHelper.box(info.getType(),
+					"this." + info.getName())).append(";}");
+		}
+
+		builder.append("return null;");
+
+		return TemplateHelper.method(MODIFIER, "get", Object.class.getName(),
+				builder.toString(), String.class.getName(), "name");
+	}
+
+	protected static String toStringMethod(final Collection<FieldInfo> keys) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append("return \"{\"");
+
+		boolean first = true;
+
+		for (final FieldInfo info : keys) {
+			builder.append(" + ")
+			.append(TemplateHelper.stringLiteral((first ? StringUtils.EMPTY
+					: ", ") + info.getName() + "="))
+					.append(" + this.").append(info.getName());
+
+			first = false;
+		}
+
+		builder.append(" + \"}\";");
+
+		return TemplateHelper.method(MODIFIER, "toString",
+				String.class.getName(), builder.toString());
+	}
+
+}
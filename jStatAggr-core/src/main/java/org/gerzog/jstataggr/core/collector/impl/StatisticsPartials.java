@@ -0,0 +1,126 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import static org.gerzog.jstataggr.core.utils.Throwables.propogate;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.gerzog.jstataggr.IStatisticsKey;
+import org.gerzog.jstataggr.IStatisticsPartials;
+
+/**
+ * Partial aggregates of collector with mergeable buckets. Each statistics key
+ * has it's own partial bucket of collector's bucket class and a record that
+ * is used to look up bucket of the key in storage on merge
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+final class StatisticsPartials implements IStatisticsPartials {
+
+	static final class Partial implements BiConsumer<Object, Object> {
+
+		private final AbstractStatisticsUpdater updater;
+
+		private final Object record;
+
+		private final Object bucket;
+
+		public Partial(final AbstractStatisticsUpdater updater,
+				final Object record, final Object bucket) {
+			this.updater = updater;
+			this.record = record;
+			this.bucket = bucket;
+		}
+
+		public Object getRecord() {
+			return record;
+		}
+
+		@Override
+		public void accept(final Object statisticsBucket,
+				final Object statisticsData) {
+			updater.merge(statisticsBucket, bucket);
+		}
+
+	}
+
+	private final StatisticsCollector collector;
+
+	private final AbstractStatisticsUpdater updater;
+
+	private final AbstractStatisticsProbeKey probeKey;
+
+	private Map<IStatisticsKey, Partial> partials = new HashMap<>();
+
+	private int entryCount;
+
+	public StatisticsPartials(final StatisticsCollector collector,
+			final AbstractStatisticsUpdater updater) {
+		this.collector = collector;
+		this.updater = updater;
+		this.probeKey = updater.createProbeKey();
+	}
+
+	@Override
+	public void fold(final Object statisticsEntry) {
+		propogate(() -> {
+			updater.fillKey(statisticsEntry, probeKey);
+
+			Partial partial = partials.get(probeKey);
+
+			if (partial == null) {
+				final IStatisticsKey key = probeKey.toKey();
+
+				partial = new Partial(updater,
+						collector.toRecord(statisticsEntry),
+						updater.createBucket(key));
+				partials.put(key, partial);
+			}
+
+			updater.apply(statisticsEntry, partial.bucket);
+		});
+
+		entryCount++;
+	}
+
+	@Override
+	public void merge() {
+		final Collection<Partial> merged = partials.values();
+
+		partials = new HashMap<>();
+		entryCount = 0;
+
+		collector.mergeStatistics(merged);
+	}
+
+	@Override
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Returns number of partial aggregates, i.e. of distinct statistics keys
+	 */
+	public int size() {
+		return partials.size();
+	}
+
+}
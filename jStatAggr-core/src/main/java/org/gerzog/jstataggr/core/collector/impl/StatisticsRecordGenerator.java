@@ -0,0 +1,76 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+
+import org.gerzog.jstataggr.core.templates.TemplateHelper;
+
+/**
+ * Generates compact record that keeps values of statistics keys and
+ * aggregated fields copied from statistics entry. Record has getters with
+ * same names as statistics entry, so it can be handled by updater generated
+ * for record fields
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+final class StatisticsRecordGenerator {
+
+	private static final String MODIFIER = "public";
+
+	private StatisticsRecordGenerator() {
+
+	}
+
+	public static CtClass generate(final ClassPool pool,
+			final String className, final Collection<FieldInfo> keys,
+			final Collection<FieldInfo> aggregations) throws Exception {
+		final CtClass result = pool.makeClass(className);
+
+		for (final Collection<FieldInfo> fields : Arrays.asList(keys,
+				aggregations)) {
+			for (final FieldInfo info : fields) {
+				result.addField(CtField.make(fieldDeclaration(info), result));
+				result.addMethod(CtMethod.make(getter(info), result));
+			}
+		}
+
+		return result;
+	}
+
+	protected static String fieldDeclaration(final FieldInfo info) {
+		return MODIFIER + " "
+				+ TemplateHelper.getTypeName(info.getGetter().getReturnType())
+				+ " " + info.getName() + ";";
+	}
+
+	protected static String getter(final FieldInfo info) {
+		final Method getter = info.getGetter();
+
+		return TemplateHelper.method(MODIFIER, getter.getName(),
+				TemplateHelper.getTypeName(getter.getReturnType()),
+				"return this." + info.getName() + ";");
+	}
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+
+import org.gerzog.jstataggr.core.templates.TemplateHelper;
+
+/**
+ * Generates implementation of user-declared recorder interface. Each method
+ * of recorder accepts values of statistics keys and then aggregated fields in
+ * order of their declaration, fills record taken from pool of collector and
+ * applies it to collector
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+final class StatisticsRecorderGenerator {
+
+	private static final String MODIFIER = "public";
+
+	private static final String PARAMETER_PREFIX = "value";
+
+	private static final String RECORD_VARIABLE = "record";
+
+	private StatisticsRecorderGenerator() {
+
+	}
+
+	public static CtClass generate(final ClassPool pool,
+			final String className, final Class<?> recorderType,
+			final String recordClassName, final List<FieldInfo> fields)
+					throws Exception {
+		if (!recorderType.isInterface()) {
+			throw new IllegalArgumentException("Recorder <"
+					+ recorderType.getName() + "> should be an interface");
+		}
+
+		final CtClass result = pool.makeClass(className);
+
+		result.addInterface(pool.get(recorderType.getName()));
+
+		result.addField(CtField.make("private final "
+				+ StatisticsCollector.class.getName() + " collector;", result));
+		result.addField(CtField.make("private final "
+				+ InstancePool.class.getName() + " records;", result));
+
+		result.addConstructor(CtNewConstructor.make(TemplateHelper
+				.constructor(MODIFIER, result.getSimpleName(),
+						"this.collector = collector; this.records = records;",
+						StatisticsCollector.class.getName(), "collector",
+						InstancePool.class.getName(), "records"), result));
+
+		for (final Method method : recorderType.getMethods()) {
+			if (Modifier.isAbstract(method.getModifiers())) {
+				validate(recorderType, method, fields);
+
+				result.addMethod(CtMethod.make(
+						recordMethod(method, recordClassName, fields), result));
+			}
+		}
+
+		return result;
+	}
+
+	protected static void validate(final Class<?> recorderType,
+			final Method method, final List<FieldInfo> fields) {
+		final Class<?>[] parameterTypes = method.getParameterTypes();
+
+		boolean valid = (method.getReturnType() == void.class)
+				&& (parameterTypes.length == fields.size());
+
+		for (int i = 0; valid && (i < parameterTypes.length); i++) {
+			valid = parameterTypes[i] == fields.get(i).getGetter()
+					.getReturnType();
+		}
+
+		if (!valid) {
+			final List<String> expected = new ArrayList<>();
+
+			for (final FieldInfo info : fields) {
+				expected.add(TemplateHelper.getTypeName(info.getGetter()
+						.getReturnType()) + " " + info.getName());
+			}
+
+			throw new IllegalArgumentException("Method <" + method.getName()
+					+ "> of recorder <" + recorderType.getName()
+					+ "> should return void and accept parameters " + expected);
+		}
+	}
+
+	protected static String recordMethod(final Method method,
+			final String recordClassName, final List<FieldInfo> fields) {
+		final StringBuilder builder = new StringBuilder();
+		final List<Object> arguments = new ArrayList<>();
+
+		builder.append(TemplateHelper.variable(recordClassName,
+				RECORD_VARIABLE, TemplateHelper.cast(recordClassName,
+						"this.records.acquire()")));
+
+		int index = 0;
+
+		for (final FieldInfo info : fields) {
+			final String parameter = PARAMETER_PREFIX + index++;
+
+			arguments.add(TemplateHelper.getTypeName(info.getGetter()
+					.getReturnType()));
+			arguments.add(parameter);
+
+			builder.append(RECORD_VARIABLE).append(".").append(info.getName())
+			.append(" = ").append(parameter).append(";");
+		}
+
+		builder.append(TemplateHelper.methodCall(
+				"this.collector.updateStatistics", RECORD_VARIABLE));
+		builder.append(TemplateHelper.methodCall("this.records.release",
+				RECORD_VARIABLE));
+
+		return TemplateHelper.method(MODIFIER, method.getName(), null,
+				builder.toString(), arguments.toArray());
+	}
+
+}
@@ -0,0 +1,655 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+
+import org.gerzog.jstataggr.AggregationType;
+import org.gerzog.jstataggr.IStatisticsKey;
+import org.gerzog.jstataggr.core.functions.FunctionHelper;
+import org.gerzog.jstataggr.core.manager.impl.internal.IStatisticsField;
+import org.gerzog.jstataggr.core.templates.TemplateHelper;
+import org.gerzog.jstataggr.core.utils.FieldUtils;
+import org.gerzog.jstataggr.core.utils.KeyUtils;
+
+/**
+ * Generates implementation of {@link AbstractStatisticsUpdater} that handles
+ * all fields of statistics entry in a single method
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+final class StatisticsUpdaterGenerator {
+
+	private static final String MODIFIER = "public";
+
+	private static final String DATA_PARAMETER = "statisticsData";
+
+	private static final String BUCKET_PARAMETER = "statisticsBucket";
+
+	private static final String BUCKET_VARIABLE = "bucket";
+
+	private static final String VALUE_VARIABLE_PREFIX = "value";
+
+	private static final String UPDATE_VALUE_METHOD = "updateValue";
+
+	private static final String KEY_PARAMETER = "statisticsKey";
+
+	private static final String KEY_VARIABLE = "key";
+
+	private static final String INDEX_VARIABLE = "index";
+
+	private static final String PART_VARIABLE_PREFIX = "part";
+
+	private static final String TARGET_PARAMETER = "target";
+
+	private static final String SOURCE_PARAMETER = "source";
+
+	private static final String TARGET_VARIABLE = "targetBucket";
+
+	private static final String SOURCE_VARIABLE = "sourceBucket";
+
+	private static final String RECORD_VARIABLE = "record";
+
+	private static final String RECORD_UPDATER = "this.recordUpdater";
+
+	private static final String RECORD_PARAMETER = "statisticsRecord";
+
+	private static final String COLUMNS_PARAMETER = "columns";
+
+	private static final String ROW_PARAMETER = "row";
+
+	private static final String OTHER_ROW_PARAMETER = "otherRow";
+
+	private static final String FROM_PARAMETER = "from";
+
+	private static final String TO_PARAMETER = "to";
+
+	private static final String COLUMN_VARIABLE_PREFIX = "column";
+
+	private static final String ROW_VARIABLE = "i";
+
+	private StatisticsUpdaterGenerator() {
+
+	}
+
+	/**
+	 * Generates updater of statistics entries. If recordClassName is defined
+	 * updater passes records created by
+	 * {@link AbstractStatisticsUpdater#extractRecord(Object)} to record
+	 * updater, otherwise keys and aggregations should read values of records
+	 * and generated updater is a record updater itself. Layout is a hash of
+	 * statistics definition the updater is generated for
+	 */
+	public static CtClass generate(final ClassPool pool,
+			final String className, final CtClass bucketClass,
+			final CtClass keyClass, final CtClass probeKeyClass,
+			final Collection<FieldInfo> keys,
+			final Collection<FieldInfo> aggregations, final boolean mergeable,
+			final String recordClassName, final long layout) throws Exception {
+		final CtClass result = pool.makeClass(className,
+				pool.get(AbstractStatisticsUpdater.class.getName()));
+
+		final boolean dispatch = recordClassName != null;
+
+		result.addMethod(CtMethod.make(
+				dispatch(applyMethod(bucketClass.getName(), aggregations),
+						recordClassName, RECORD_UPDATER + ".apply("
+								+ DATA_PARAMETER + ", " + BUCKET_PARAMETER
+								+ "); return;"), result));
+		result.addMethod(CtMethod.make(
+				dispatch(extractKeyMethod(keyClass.getName(), keys),
+						recordClassName, "return " + RECORD_UPDATER
+						+ ".extractKey(" + DATA_PARAMETER + ");"),
+				result));
+		result.addMethod(CtMethod.make(
+				dispatch(fillKeyMethod(probeKeyClass.getName(), keys),
+						recordClassName, RECORD_UPDATER + ".fillKey("
+								+ DATA_PARAMETER + ", " + KEY_PARAMETER
+								+ "); return;"), result));
+		result.addMethod(CtMethod.make(
+				createProbeKeyMethod(probeKeyClass.getName()), result));
+		result.addMethod(CtMethod.make(
+				createBucketMethod(bucketClass.getName(), keyClass.getName(),
+						keys), result));
+		result.addMethod(CtMethod.make(
+				dispatch(indexMethod(keys), recordClassName, "return "
+						+ RECORD_UPDATER + ".index(" + DATA_PARAMETER + ");"),
+				result));
+
+		if (mergeable) {
+			result.addMethod(CtMethod.make(
+					mergeMethod(bucketClass.getName(), aggregations), result));
+		}
+
+		result.addMethod(CtMethod.make(
+				dispatch(packMethod(keys), recordClassName, "return "
+						+ RECORD_UPDATER + ".pack(" + DATA_PARAMETER + ");"),
+				result));
+		result.addMethod(CtMethod.make(
+				extractBucketKeyMethod(bucketClass.getName(),
+						keyClass.getName(), keys), result));
+		result.addMethod(CtMethod.make(TemplateHelper.method(MODIFIER,
+				"getLayout", long.class.getName(), "return " + layout + "L;"),
+				result));
+
+		if (dispatch) {
+			result.addMethod(CtMethod.make(
+					fillRecordMethod(recordClassName, keys), result));
+			result.addMethod(CtMethod.make(sameKeyMethod(keys), result));
+			result.addMethod(CtMethod.make(
+					applyColumnsMethod(bucketClass.getName(), keys.size(),
+							aggregations), result));
+		}
+
+		result.addMethod(CtMethod.make(dispatch ? extractRecordMethod(
+				recordClassName, keys, aggregations) : TemplateHelper.method(
+				MODIFIER, "extractRecord", Object.class.getName(), "return "
+						+ DATA_PARAMETER + ";", Object.class.getName(),
+				DATA_PARAMETER), result));
+
+		return result;
+	}
+
+	/**
+	 * Adds to beginning of method a statement that passes records to record
+	 * updater
+	 */
+	protected static String dispatch(final String method,
+			final String recordClassName, final String statement) {
+		if (recordClassName == null) {
+			return method;
+		}
+
+		final int bodyStart = method.indexOf('{') + 1;
+
+		return method.substring(0, bodyStart) + "if (" + DATA_PARAMETER
+				+ " instanceof " + recordClassName + ") {" + statement + "}"
+				+ method.substring(bodyStart);
+	}
+
+	protected static String extractRecordMethod(final String recordClassName,
+			final Collection<FieldInfo> keys,
+			final Collection<FieldInfo> aggregations) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(TemplateHelper.variable(recordClassName,
+				RECORD_VARIABLE, "new " + recordClassName + "()"));
+
+		for (final Collection<FieldInfo> fields : Arrays.asList(keys,
+				aggregations)) {
+			for (final FieldInfo info : fields) {
+				builder.append(RECORD_VARIABLE).append(".")
+				.append(info.getName()).append(" = ")
+				.append(getterLine(info)).append(";");
+			}
+		}
+
+		builder.append("return ").append(RECORD_VARIABLE).append(";");
+
+		return TemplateHelper.method(MODIFIER, "extractRecord",
+				Object.class.getName(), builder.toString(),
+				Object.class.getName(), DATA_PARAMETER);
+	}
+
+	protected static String fillRecordMethod(final String recordClassName,
+			final Collection<FieldInfo> keys) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(TemplateHelper.variable(recordClassName,
+				RECORD_VARIABLE,
+				TemplateHelper.cast(recordClassName, RECORD_PARAMETER)));
+
+		int index = 0;
+
+		for (final FieldInfo info : keys) {
+			builder.append(RECORD_VARIABLE).append(".")
+			.append(info.getName()).append(" = ")
+			.append(columnLine(info, index++, ROW_PARAMETER)).append(";");
+		}
+
+		return TemplateHelper.method(MODIFIER, "fillRecord", null,
+				builder.toString(), TemplateHelper.getTypeName(Object[].class),
+				COLUMNS_PARAMETER, int.class.getName(), ROW_PARAMETER,
+				Object.class.getName(), RECORD_PARAMETER);
+	}
+
+	protected static String sameKeyMethod(final Collection<FieldInfo> keys) {
+		final StringBuilder builder = new StringBuilder();
+
+		int index = 0;
+
+		for (final FieldInfo info : keys) {
+			builder.append("if (!").append(KeyUtils.class.getName())
+			.append(".equals(")
+			.append(columnLine(info, index, ROW_PARAMETER)).append(", ")
+			.append(columnLine(info, index, OTHER_ROW_PARAMETER))
+			.append(")) { return false; }");
+
+			index++;
+		}
+
+		builder.append("return true;");
+
+		return TemplateHelper.method(MODIFIER, "sameKey",
+				boolean.class.getName(), builder.toString(),
+				TemplateHelper.getTypeName(Object[].class), COLUMNS_PARAMETER,
+				int.class.getName(), ROW_PARAMETER, int.class.getName(),
+				OTHER_ROW_PARAMETER);
+	}
+
+	/**
+	 * Generates method that applies a run of rows with same key to a bucket.
+	 * MIN, MAX and SUM of int and long values are reduced in local variables
+	 * and applied to bucket once per run, other aggregations are applied for
+	 * each row
+	 */
+	protected static String applyColumnsMethod(final String bucketClassName,
+			final int firstColumn, final Collection<FieldInfo> aggregations) {
+		final StringBuilder head = new StringBuilder();
+		final StringBuilder loop = new StringBuilder();
+		final StringBuilder tail = new StringBuilder();
+
+		head.append(TemplateHelper.variable(bucketClassName, BUCKET_VARIABLE,
+				TemplateHelper.cast(bucketClassName, BUCKET_PARAMETER)));
+
+		int index = 0;
+
+		for (final FieldInfo info : aggregations) {
+			final String column = COLUMN_VARIABLE_PREFIX + index;
+			final String variable = VALUE_VARIABLE_PREFIX + index;
+			final Class<?> columnType = info.getGetter().getReturnType();
+
+			head.append(TemplateHelper.variable(
+					TemplateHelper.getTypeName(columnType) + "[]", column,
+					TemplateHelper.cast(TemplateHelper.getTypeName(columnType)
+							+ "[]", COLUMNS_PARAMETER + "["
+							+ (firstColumn + index) + "]")));
+			head.append(TemplateHelper.variable(info.getType(), variable,
+					expressionLine(info, column + "[" + FROM_PARAMETER + "]")));
+
+			loop.append(variable).append(" = ")
+			.append(expressionLine(info, column + "[" + ROW_VARIABLE + "]"))
+			.append(";");
+
+			final AggregationType[] types = info.getAggregationTypes();
+
+			for (int i = 0; i < types.length; i++) {
+				final IStatisticsField field = info.getStatisticsFields()
+						.get(i);
+
+				if (isReducible(info, types[i])) {
+					final String reduced = types[i].name().toLowerCase()
+							+ index;
+
+					head.append(TemplateHelper.variable(info.getType(),
+							reduced, variable));
+					loop.append(reduced).append(" = ")
+					.append(reduceLine(reduced, variable, types[i]))
+					.append(";");
+					tail.append(field.getUpdateStatement(BUCKET_VARIABLE,
+							reduced));
+				} else {
+					final String update = field.getUpdateStatement(
+							BUCKET_VARIABLE, variable);
+
+					head.append(update);
+					loop.append(update);
+				}
+			}
+
+			index++;
+		}
+
+		final String body = head + "for (int " + ROW_VARIABLE + " = "
+				+ FROM_PARAMETER + " + 1; " + ROW_VARIABLE + " < "
+				+ TO_PARAMETER + "; " + ROW_VARIABLE + "++) {" + loop + "}"
+				+ tail;
+
+		return TemplateHelper.method(MODIFIER, "applyColumns", null, body,
+				TemplateHelper.getTypeName(Object[].class), COLUMNS_PARAMETER,
+				int.class.getName(), FROM_PARAMETER, int.class.getName(),
+				TO_PARAMETER, Object.class.getName(), BUCKET_PARAMETER);
+	}
+
+	private static boolean isReducible(final FieldInfo info,
+			final AggregationType type) {
+		return ((info.getType() == int.class) || (info.getType() == long.class))
+				&& ((type == AggregationType.MIN)
+						|| (type == AggregationType.MAX) || (type == AggregationType.SUM));
+	}
+
+	protected static String reduceLine(final String reduced,
+			final String value, final AggregationType type) {
+		switch (type) {
+		case SUM:
+			return reduced + " + " + value;
+		case MIN:
+			return "Math.min(" + reduced + ", " + value + ")";
+		case MAX:
+			return "Math.max(" + reduced + ", " + value + ")";
+		default:
+			throw new IllegalArgumentException("Aggregation type <" + type
+					+ "> cannot be reduced");
+		}
+	}
+
+	protected static String columnLine(final FieldInfo info, final int index,
+			final String row) {
+		return TemplateHelper.cast(
+				TemplateHelper.getTypeName(info.getGetter().getReturnType())
+				+ "[]", COLUMNS_PARAMETER + "[" + index + "]")
+				+ "[" + row + "]";
+	}
+
+	protected static String applyMethod(final String bucketClassName,
+			final Collection<FieldInfo> aggregations) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(TemplateHelper.variable(bucketClassName,
+				BUCKET_VARIABLE, "(" + bucketClassName + ") "
+						+ BUCKET_PARAMETER));
+
+		int index = 0;
+
+		for (final FieldInfo info : aggregations) {
+			final String variable = VALUE_VARIABLE_PREFIX + index++;
+
+			builder.append(TemplateHelper.variable(info.getType(), variable,
+					valueLine(info)));
+
+			for (final IStatisticsField field : info.getStatisticsFields()) {
+				builder.append(field.getUpdateStatement(BUCKET_VARIABLE,
+						variable));
+			}
+		}
+
+		return TemplateHelper.method(MODIFIER, "apply", null,
+				builder.toString(), Object.class.getName(), DATA_PARAMETER,
+				Object.class.getName(), BUCKET_PARAMETER);
+	}
+
+	protected static String extractKeyMethod(final String keyClassName,
+			final Collection<FieldInfo> keys) {
+		final List<String> values = new ArrayList<>();
+
+		for (final FieldInfo info : keys) {
+			values.add(valueLine(info));
+		}
+
+		final String body = "return new "
+				+ TemplateHelper.methodCall(keyClassName,
+						values.toArray(new String[values.size()]));
+
+		return TemplateHelper.method(MODIFIER, "extractKey",
+				IStatisticsKey.class.getName(), body, Object.class.getName(),
+				DATA_PARAMETER);
+	}
+
+	protected static String fillKeyMethod(final String probeKeyClassName,
+			final Collection<FieldInfo> keys) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(TemplateHelper.variable(probeKeyClassName,
+				KEY_VARIABLE, "(" + probeKeyClassName + ") " + KEY_PARAMETER));
+
+		for (final FieldInfo info : keys) {
+			builder.append(KEY_VARIABLE).append(".").append(info.getName())
+			.append(" = ").append(valueLine(info)).append(";");
+		}
+
+		builder.append(TemplateHelper.methodCall(KEY_VARIABLE + ".rehash"));
+
+		return TemplateHelper.method(MODIFIER, "fillKey", null,
+				builder.toString(), Object.class.getName(), DATA_PARAMETER,
+				AbstractStatisticsProbeKey.class.getName(), KEY_PARAMETER);
+	}
+
+	protected static String createProbeKeyMethod(
+			final String probeKeyClassName) {
+		return TemplateHelper.method(MODIFIER, "createProbeKey",
+				AbstractStatisticsProbeKey.class.getName(), "return new "
+						+ probeKeyClassName + "();");
+	}
+
+	protected static String createBucketMethod(final String bucketClassName,
+			final String keyClassName, final Collection<FieldInfo> keys) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(TemplateHelper.variable(keyClassName, KEY_VARIABLE,
+				"(" + keyClassName + ") " + KEY_PARAMETER));
+		builder.append(TemplateHelper.variable(bucketClassName,
+				BUCKET_VARIABLE, "new " + bucketClassName + "()"));
+
+		for (final FieldInfo info : keys) {
+			for (final IStatisticsField field : info.getStatisticsFields()) {
+				builder.append(field.getUpdateStatement(BUCKET_VARIABLE,
+						KEY_VARIABLE + "." + info.getName()));
+			}
+		}
+
+		builder.append("return ").append(BUCKET_VARIABLE).append(";");
+
+		return TemplateHelper.method(MODIFIER, "createBucket",
+				Object.class.getName(), builder.toString(),
+				IStatisticsKey.class.getName(), KEY_PARAMETER);
+	}
+
+	protected static String indexMethod(final Collection<FieldInfo> keys) {
+		final StringBuilder builder = new StringBuilder();
+
+		if (IndexedStatisticsStorage.getCapacity(keys) < 0) {
+			builder.append("return -1;");
+		} else {
+			builder.append(TemplateHelper.variable(int.class, INDEX_VARIABLE,
+					"0"));
+
+			// key values are combined as digits of a mixed radix number
+			long stride = 1;
+			int index = 0;
+
+			for (final FieldInfo info : keys) {
+				final String variable = INDEX_VARIABLE + index++;
+
+				builder.append(TemplateHelper.variable(int.class, variable,
+						indexLine(info)));
+				builder.append("if (").append(variable)
+						.append(" < 0) { return -1; }");
+				builder.append(INDEX_VARIABLE).append(" += ").append(variable)
+						.append(" * ").append(stride).append(";");
+
+				stride *= info.getCardinality();
+			}
+
+			builder.append("return ").append(INDEX_VARIABLE).append(";");
+		}
+
+		return TemplateHelper.method(MODIFIER, "index", int.class.getName(),
+				builder.toString(), Object.class.getName(), DATA_PARAMETER);
+	}
+
+	protected static String indexLine(final FieldInfo info) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(KeyUtils.class.getName()).append(".index(");
+
+		if (info.getType().isEnum() || (info.getType() == boolean.class)
+				|| (info.getType() == Boolean.class)) {
+			builder.append(valueLine(info));
+		} else {
+			// javassist doesn't widen primitive arguments on method lookup
+			builder.append(info.getType().isPrimitive() ? TemplateHelper.cast(
+					long.class, valueLine(info)) : valueLine(info));
+			builder.append(", ").append(info.getLowerBound()).append("L, ")
+			.append(info.getUpperBound()).append("L");
+		}
+
+		return builder.append(")").toString();
+	}
+
+	protected static String packMethod(final Collection<FieldInfo> keys) {
+		final StringBuilder builder = new StringBuilder();
+
+		if (PackedStatisticsStorage.getPackedWidth(keys) < 0) {
+			builder.append("return -1L;");
+		} else {
+			builder.append(TemplateHelper.variable(long.class, KEY_VARIABLE,
+					"0L"));
+
+			int shift = 0;
+			int index = 0;
+
+			for (final FieldInfo info : keys) {
+				final String variable = PART_VARIABLE_PREFIX + index++;
+
+				builder.append(TemplateHelper.variable(long.class, variable,
+						packLine(info)));
+
+				if (PackedStatisticsStorage.isRangeChecked(info)) {
+					builder.append("if (").append(variable)
+					.append(" < 0L) { return -1L; }");
+				}
+
+				builder.append(KEY_VARIABLE).append(" = ").append(KEY_VARIABLE)
+				.append(" | (").append(variable).append(" << ")
+				.append(shift).append(");");
+
+				shift += PackedStatisticsStorage.getBitWidth(info);
+			}
+
+			builder.append("return ").append(KEY_VARIABLE).append(";");
+		}
+
+		return TemplateHelper.method(MODIFIER, "pack", long.class.getName(),
+				builder.toString(), Object.class.getName(), DATA_PARAMETER);
+	}
+
+	protected static String packLine(final FieldInfo info) {
+		if (info.getCardinality() < 0) {
+			return KeyUtils.class.getName() + ".pack(" + valueLine(info) + ")";
+		}
+
+		return TemplateHelper.cast(long.class, indexLine(info));
+	}
+
+	protected static String extractBucketKeyMethod(
+			final String bucketClassName, final String keyClassName,
+			final Collection<FieldInfo> keys) {
+		final List<String> values = new ArrayList<>();
+
+		for (final FieldInfo info : keys) {
+			values.add(TemplateHelper.cast(bucketClassName, BUCKET_PARAMETER)
+					+ "."
+					+ FieldUtils.getGetterName(info.getName(), info.getType())
+					+ "()");
+		}
+
+		final String body = "return new "
+				+ TemplateHelper.methodCall(keyClassName,
+						values.toArray(new String[values.size()]));
+
+		return TemplateHelper.method(MODIFIER, "extractBucketKey",
+				IStatisticsKey.class.getName(), body, Object.class.getName(),
+				BUCKET_PARAMETER);
+	}
+
+	protected static String mergeMethod(final String bucketClassName,
+			final Collection<FieldInfo> aggregations) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(TemplateHelper.variable(bucketClassName,
+				TARGET_VARIABLE,
+				TemplateHelper.cast(bucketClassName, TARGET_PARAMETER)));
+		builder.append(TemplateHelper.variable(bucketClassName,
+				SOURCE_VARIABLE,
+				TemplateHelper.cast(bucketClassName, SOURCE_PARAMETER)));
+
+		for (final FieldInfo info : aggregations) {
+			for (final AggregationType type : info.getAggregationTypes()) {
+				builder.append(mergeLine(FieldUtils.getAggregationFieldName(
+						info.getName(), type), type));
+			}
+		}
+
+		return TemplateHelper.method(MODIFIER, "merge", null,
+				builder.toString(), Object.class.getName(), TARGET_PARAMETER,
+				Object.class.getName(), SOURCE_PARAMETER);
+	}
+
+	protected static String mergeLine(final String fieldName,
+			final AggregationType type) {
+		final String target = TARGET_VARIABLE + "." + fieldName;
+		final String source = SOURCE_VARIABLE + "." + fieldName;
+
+		switch (type) {
+		case COUNT:
+		case SUM:
+			return target + " = " + target + " + " + source + ";";
+		case MIN:
+			return target + " = Math.min(" + target + ", " + source + ");";
+		case MAX:
+			return target + " = Math.max(" + target + ", " + source + ");";
+		case AVERAGE:
+			final String countName = FieldUtils.getAggregationFieldName(
+					fieldName, AggregationType.COUNT);
+			final String targetCount = TARGET_VARIABLE + "." + countName;
+			final String sourceCount = SOURCE_VARIABLE + "." + countName;
+
+			return target + " = " + FunctionHelper.class.getName()
+					+ ".mergeAverage(" + target + ", " + targetCount + ", "
+					+ source + ", " + sourceCount + ");"
+					+ mergeLine(countName, AggregationType.COUNT);
+		default:
+			throw new IllegalArgumentException("Unsupported aggregation type <"
+					+ type + ">");
+		}
+	}
+
+	protected static String getterLine(final FieldInfo info) {
+		final Method getter = info.getGetter();
+
+		return TemplateHelper.cast(getter.getDeclaringClass(), DATA_PARAMETER)
+				+ "." + getter.getName() + "()";
+	}
+
+	protected static String valueLine(final FieldInfo info) {
+		return expressionLine(info, getterLine(info));
+	}
+
+	protected static String expressionLine(final FieldInfo info,
+			final String value) {
+		final Method getter = info.getGetter();
+
+		if (info.getExpression() == null) {
+			return value;
+		}
+
+		final String expressionCall = UPDATE_VALUE_METHOD + "("
+				+ TemplateHelper.box(getter.getReturnType(), value) + ", "
+				+ TemplateHelper.stringLiteral(info.getExpression()) + ")";
+
+		return TemplateHelper.unbox(info.getType(), expressionCall);
+	}
+
+}
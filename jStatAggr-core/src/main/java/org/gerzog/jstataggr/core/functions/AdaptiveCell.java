@@ -0,0 +1,100 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.functions;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Aggregated value which is kept in a single compare-and-set cell until
+ * updates of it fail {@link #INFLATION_THRESHOLD} times, and in striped cells
+ * of {@link LongAccumulator} after that. So rarely updated values stay small
+ * while contended values scale with updating threads.
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public abstract class AdaptiveCell {
+
+	/**
+	 * Number of failed compare-and-set operations after which cell is
+	 * inflated to striped cells
+	 */
+	public static final int INFLATION_THRESHOLD = 16;
+
+	private static final AtomicLongFieldUpdater<AdaptiveCell> VALUE_UPDATER = AtomicLongFieldUpdater
+			.newUpdater(AdaptiveCell.class, "value");
+
+	private static final AtomicReferenceFieldUpdater<AdaptiveCell, LongAccumulator> CELLS_UPDATER = AtomicReferenceFieldUpdater
+			.newUpdater(AdaptiveCell.class, LongAccumulator.class, "cells");
+
+	private volatile long value;
+
+	private volatile LongAccumulator cells;
+
+	// counted without synchronization, lost increments only delay inflation
+	private int failures;
+
+	protected AdaptiveCell(final long initialValue) {
+		this.value = initialValue;
+	}
+
+	public void accumulate(final long update) {
+		LongAccumulator striped = cells;
+
+		while (striped == null) {
+			final long current = value;
+			final long next = combine(current, update);
+
+			if ((next == current)
+					|| VALUE_UPDATER.compareAndSet(this, current, next)) {
+				return;
+			}
+
+			if (++failures >= INFLATION_THRESHOLD) {
+				CELLS_UPDATER.compareAndSet(this, null, createCells());
+			}
+
+			striped = cells;
+		}
+
+		striped.accumulate(update);
+	}
+
+	public long get() {
+		final LongAccumulator striped = cells;
+
+		// value is read after cells, so it is never missed before inflation
+		final long current = value;
+
+		return striped == null ? current : combine(current, striped.get());
+	}
+
+	public boolean isInflated() {
+		return cells != null;
+	}
+
+	protected abstract long combine(long current, long update);
+
+	protected abstract LongAccumulator createCells();
+
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+
+}
@@ -316,7 +316,56 @@ public final class FunctionHelper {
 		}
 	}
 
-	private static int getCount(final Object o) {
+	public static void apply(final AggregationType type, final int update,
+			final AdaptiveCell current) {
+		apply(type, (long) update, current);
+	}
+
+	public static void apply(final AggregationType type, final long update,
+			final AdaptiveCell current) {
+		switch (type) {
+		case AVERAGE:
+			throw new IllegalStateException(
+					"Method apply() didn's support AVERAGE type. Please use applyAverage instread");
+		case COUNT:
+			current.accumulate(1l);
+			break;
+		case MAX:
+		case MIN:
+		case SUM:
+			current.accumulate(update);
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported aggregation type <"
+					+ type + ">");
+		}
+	}
+
+	public static void apply(final AggregationType type, final Object update,
+			final AdaptiveCell current) {
+		switch (type) {
+		case AVERAGE:
+			throw new IllegalStateException(
+					"Method apply() for Object didn's support COUNT type.");
+		case COUNT:
+			current.accumulate(getCount(update));
+			break;
+		case MAX:
+			throw new IllegalStateException(
+					"Method apply() for long didn's support MAX type.");
+		case MIN:
+			throw new IllegalStateException(
+					"Method apply() for long didn's support MIN type.");
+		case SUM:
+			throw new IllegalStateException(
+					"Method apply() for long didn's support SUM type.");
+		default:
+			throw new IllegalArgumentException("Unsupported aggregation type <"
+					+ type + ">");
+		}
+	}
+
+	public static int getCount(final Object o) {
 		if (o instanceof Collection<?>) {
 			return ((Collection<?>) o).size();
 		} else if (o.getClass().isArray()) {
@@ -356,4 +405,20 @@ public final class FunctionHelper {
 
 		currentAverage.set((sum + update) / (currentCountLong + 1));
 	}
+
+	public static long mergeAverage(final long average1, final long count1,
+			final long average2, final long count2) {
+		final long count = count1 + count2;
+
+		if (count == 0) {
+			return average1;
+		}
+
+		return ((average1 * count1) + (average2 * count2)) / count;
+	}
+
+	public static int mergeAverage(final int average1, final int count1,
+			final int average2, final int count2) {
+		return (int) mergeAverage((long) average1, count1, average2, count2);
+	}
 }
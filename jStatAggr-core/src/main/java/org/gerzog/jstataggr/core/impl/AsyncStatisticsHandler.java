@@ -17,19 +17,49 @@ package org.gerzog.jstataggr.core.impl;
 
 import static org.apache.commons.lang3.Validate.isTrue;
 import static org.apache.commons.lang3.Validate.notNull;
+import static org.gerzog.jstataggr.core.utils.Throwables.propogate;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
+import org.gerzog.jstataggr.IStatisticsFilter;
 import org.gerzog.jstataggr.IStatisticsManager;
+import org.gerzog.jstataggr.IStatisticsPartials;
 import org.gerzog.jstataggr.core.internal.impl.AbstractStatisticsHandler;
+import org.gerzog.jstataggr.core.internal.impl.StatisticsTask;
 
 /**
  * Asynchronious Statistics handler that uses Executor to schedule statistics
- * update events
+ * update events. Executor can be injected or created according to
+ * executorType. Queue of {@link ExecutorType#FIXED} executor can be bounded
+ * with queueCapacity, in this case overflowPolicy defines what happens with
+ * entries that don't fit into queue. QueueCapacity, overflowPolicy and
+ * threadFactory are supported only by {@link ExecutorType#FIXED} executor,
+ * other executor types reject them. ThreadNumber is not supported by
+ * {@link ExecutorType#VIRTUAL} executor. Injected executor rejects all
+ * settings of created executors.
+ *
+ * If combineSize is greater than one, each producer thread collects statistics
+ * entries in it's own buffer and schedules them in a single update event when
+ * buffer reaches combineSize or becomes older than combineTimeout. Entries of
+ * statistics with mergeable buckets (sharded statistics) are folded into
+ * partial aggregates per statistics key by producer thread, so update event
+ * only merges one partial bucket per key. Entries of other statistics are
+ * applied one by one
  *
  * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
  *
@@ -38,10 +68,75 @@ public class AsyncStatisticsHandler extends AbstractStatisticsHandler {
 
 	private static final int DEFAULT_THREAD_NUMBER = 1;
 
+	private static final int DEFAULT_QUEUE_CAPACITY = Integer.MAX_VALUE;
+
+	private static final String VIRTUAL_EXECUTOR_FACTORY = "newVirtualThreadPerTaskExecutor";
+
+	private static final String INJECTED_EXECUTOR_NAME = "injected";
+
+	private static final int DEFAULT_COMBINE_SIZE = 1;
+
+	private static final long DEFAULT_COMBINE_TIMEOUT = 1000L;
+
+	private static final String FLUSH_THREAD_NAME = "jStatAggr-flush";
+
+	/**
+	 * Entries of statistics that doesn't support partial aggregation
+	 */
+	private final class EntryBatch implements IStatisticsPartials {
+
+		private final String statisticsName;
+
+		private final List<Object> entries = new ArrayList<>();
+
+		public EntryBatch(final String statisticsName) {
+			this.statisticsName = statisticsName;
+		}
+
+		@Override
+		public void fold(final Object statisticsEntry) {
+			entries.add(statisticsEntry);
+		}
+
+		@Override
+		public void merge() {
+			updateStatistics(entries, statisticsName);
+		}
+
+		@Override
+		public int getEntryCount() {
+			return entries.size();
+		}
+
+	}
+
 	private int threadNumber;
 
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+	private final LongAdder droppedCount = new LongAdder();
+
+	private final LongAdder callerRunsCount = new LongAdder();
+
+	private ExecutorType executorType = ExecutorType.FIXED;
+
+	// null means default thread factory
+	private ThreadFactory threadFactory;
+
+	private ExecutorService executor;
+
 	private ExecutorService updateExecutor;
 
+	private int combineSize = DEFAULT_COMBINE_SIZE;
+
+	private long combineTimeout = DEFAULT_COMBINE_TIMEOUT;
+
+	private StatisticsCombiner combiner;
+
+	private ScheduledExecutorService flushExecutor;
+
 	public AsyncStatisticsHandler(final int threadNumber) {
 		super();
 
@@ -62,27 +157,260 @@ public class AsyncStatisticsHandler extends AbstractStatisticsHandler {
 		this(manager, DEFAULT_THREAD_NUMBER);
 	}
 
+	@Override
+	protected void handleStatistics(final Object statisticsEntry,
+			final String statisticsName) {
+		if (combiner != null) {
+			combiner.add(statisticsEntry, statisticsName);
+		} else {
+			super.handleStatistics(statisticsEntry, statisticsName);
+		}
+	}
+
+	/**
+	 * Creates partials for combined entries of statistics. Entries of
+	 * statistics which buckets cannot be merged are kept as is and applied as
+	 * a batch
+	 */
+	protected IStatisticsPartials createPartials(final Object statisticsEntry,
+			final String statisticsName) {
+		notNull(getManager(), "Statistics Manager cannot be null");
+
+		final IStatisticsPartials result = getManager().createPartials(
+				statisticsEntry.getClass(), statisticsName);
+
+		return result == null ? new EntryBatch(statisticsName) : result;
+	}
+
+	protected void handleCombined(final IStatisticsPartials partials) {
+		handleStatistics(new StatisticsTask(partials::merge,
+				partials.getEntryCount()));
+	}
+
+	/**
+	 * Schedules updates for all statistics entries collected by producer
+	 * threads
+	 */
+	public void flush() {
+		if (combiner != null) {
+			combiner.flush();
+		}
+	}
+
+	@Override
+	public void writeStatistics(final String statisticsName,
+			final IStatisticsFilter filter, final boolean cleanup)
+			throws Exception {
+		flush();
+
+		super.writeStatistics(statisticsName, filter, cleanup);
+	}
+
 	@Override
 	protected void handleStatistics(final Runnable action) {
 		notNull(updateExecutor, "Executor was not initialized. Please call method initialize().");
 
-		updateExecutor.submit(action);
+		// queued action stays unwrapped, so overflow can count it's entries
+		updateExecutor.execute(action);
+	}
+
+	protected void handleOverflow(final Runnable action,
+			final ThreadPoolExecutor executor) {
+		if (executor.isShutdown()) {
+			throw new RejectedExecutionException("Executor was shut down");
+		}
+
+		switch (overflowPolicy) {
+		case BLOCK:
+			propogate(() -> executor.getQueue().put(action));
+			break;
+		case DROP_OLDEST:
+			while (!executor.getQueue().offer(action)) {
+				final Runnable oldest = executor.getQueue().poll();
+
+				// queue could be drained by workers meanwhile
+				if (oldest != null) {
+					droppedCount.add(StatisticsTask.sizeOf(oldest));
+				}
+			}
+			break;
+		case CALLER_RUNS:
+			callerRunsCount.add(StatisticsTask.sizeOf(action));
+			action.run();
+			break;
+		default:
+			droppedCount.add(StatisticsTask.sizeOf(action));
+			break;
+		}
+	}
+
+	/**
+	 * @return number of statistics entries dropped because queue was full,
+	 *         newest or oldest ones depending on overflowPolicy
+	 */
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	/**
+	 * @return number of statistics entries handled in caller thread because
+	 *         queue was full
+	 */
+	public long getCallerRunsCount() {
+		return callerRunsCount.sum();
 	}
 
 	public void setThreadNumber(final int threadNumber) {
 		this.threadNumber = threadNumber;
 	}
 
+	public void setQueueCapacity(final int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public void setExecutorType(final ExecutorType executorType) {
+		this.executorType = executorType;
+	}
+
+	public void setThreadFactory(final ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+
+	public void setCombineSize(final int combineSize) {
+		this.combineSize = combineSize;
+	}
+
+	/**
+	 * Sets max age of combined statistics entries in microseconds
+	 */
+	public void setCombineTimeout(final long combineTimeout) {
+		this.combineTimeout = combineTimeout;
+	}
+
+	/**
+	 * Sets external Executor. It will be used instead of created one and will
+	 * not be stopped on shutdown. Settings of created executor can't be
+	 * combined with it
+	 */
+	public void setExecutor(final ExecutorService executor) {
+		this.executor = executor;
+	}
+
 	@PostConstruct
 	public void initialize() {
+		if (executor != null) {
+			validateInjectedExecutor();
+
+			updateExecutor = executor;
+		} else {
+			updateExecutor = createExecutor();
+		}
+
+		if (combineSize > 1) {
+			isTrue(combineTimeout > 0, "CombineTimeout can be in rage %s..%s, but input value is %s", 1, Long.MAX_VALUE, combineTimeout);
+
+			combiner = new StatisticsCombiner(combineSize,
+					TimeUnit.MICROSECONDS.toNanos(combineTimeout),
+					this::createPartials, this::handleCombined);
+
+			flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread result = new Thread(runnable, FLUSH_THREAD_NAME);
+				result.setDaemon(true);
+
+				return result;
+			});
+			flushExecutor.scheduleWithFixedDelay(combiner::flushExpired,
+					combineTimeout, combineTimeout, TimeUnit.MICROSECONDS);
+		}
+	}
+
+	protected ExecutorService createExecutor() {
+		notNull(executorType, "ExecutorType cannot be null");
 		isTrue(threadNumber > 0, "ThreadNumber can be in rage %s..%s, but input value is %s", 1, Integer.MAX_VALUE, threadNumber);
 
-		updateExecutor = Executors.newFixedThreadPool(threadNumber);
+		if (executorType != ExecutorType.FIXED) {
+			validateThreadPoolSettings(executorType);
+		}
+
+		if (executorType == ExecutorType.VIRTUAL) {
+			isTrue(threadNumber == DEFAULT_THREAD_NUMBER, "ThreadNumber is not supported by %s executor", executorType);
+		}
+
+		switch (executorType) {
+		case FORK_JOIN:
+			return new ForkJoinPool(threadNumber,
+					ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		case VIRTUAL:
+			return createVirtualThreadExecutor();
+		default:
+			isTrue(queueCapacity > 0, "QueueCapacity can be in rage %s..%s, but input value is %s", 1, Integer.MAX_VALUE, queueCapacity);
+			notNull(overflowPolicy, "OverflowPolicy cannot be null");
+
+			return new ThreadPoolExecutor(threadNumber, threadNumber, 0L,
+					TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(
+							queueCapacity),
+					threadFactory == null ? Executors.defaultThreadFactory()
+							: threadFactory, this::handleOverflow);
+		}
+	}
+
+	/**
+	 * Settings of thread pool queue and threads can't be applied to other
+	 * executors, so they are rejected instead of being silently ignored
+	 */
+	private void validateThreadPoolSettings(final Object executorName) {
+		isTrue(queueCapacity == DEFAULT_QUEUE_CAPACITY, "QueueCapacity is not supported by %s executor", executorName);
+		isTrue(overflowPolicy == OverflowPolicy.BLOCK, "OverflowPolicy is not supported by %s executor", executorName);
+		isTrue(threadFactory == null, "ThreadFactory is not supported by %s executor", executorName);
 	}
 
+	private void validateInjectedExecutor() {
+		validateThreadPoolSettings(INJECTED_EXECUTOR_NAME);
+
+		isTrue(executorType == ExecutorType.FIXED, "ExecutorType is not supported by %s executor", INJECTED_EXECUTOR_NAME);
+		isTrue(threadNumber == DEFAULT_THREAD_NUMBER, "ThreadNumber is not supported by %s executor", INJECTED_EXECUTOR_NAME);
+	}
+
+	// LN: looked up reflectively to keep library compatible with Java 8
+	private static ExecutorService createVirtualThreadExecutor() {
+		final Method factory;
+
+		try {
+			factory = Executors.class.getMethod(VIRTUAL_EXECUTOR_FACTORY);
+		} catch (final NoSuchMethodException e) {
+			throw new IllegalStateException(
+					"Virtual threads are not supported by current JVM", e);
+		}
+
+		return propogate(() -> (ExecutorService) factory.invoke(null));
+	}
+
+	/**
+	 * Waits for running flush of expired buffers before final flush, so no
+	 * batch is scheduled after update executor is stopped. If calling thread
+	 * is interrupted it stops waiting and keeps it's interrupted status
+	 */
 	@PreDestroy
 	public void shutdown() {
-		if (updateExecutor != null) {
+		if (flushExecutor != null) {
+			flushExecutor.shutdown();
+
+			try {
+				flushExecutor.awaitTermination(Long.MAX_VALUE,
+						TimeUnit.NANOSECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		flush();
+
+		// injected executor is managed by it's owner
+		if ((updateExecutor != null) && (updateExecutor != executor)) {
 			updateExecutor.shutdown();
 		}
 	}
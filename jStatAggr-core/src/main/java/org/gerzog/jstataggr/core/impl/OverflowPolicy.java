@@ -0,0 +1,47 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.impl;
+
+/**
+ * Defines what asynchronious Statistics Handler does with statistics entry
+ * when its queue is full
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Caller waits until queue has free space
+	 */
+	BLOCK,
+
+	/**
+	 * New statistics entry is dropped
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * Oldest queued statistics entry is dropped to free space for new one
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Statistics entry is handled in caller thread
+	 */
+	CALLER_RUNS;
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.impl;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.gerzog.jstataggr.IStatisticsManager;
+
+/**
+ * Asynchronious Statistics handler that gives each consumer thread it's own
+ * buffer and passes statistics entry to buffer selected by hash of it's
+ * statistics key. Each bucket is updated only by a single thread, so
+ * {@link org.gerzog.jstataggr.FieldType#PRIMITIVE} aggregation fields are
+ * safe to use.
+ *
+ * Overflow policy {@link OverflowPolicy#CALLER_RUNS} is not supported since
+ * it breaks single-writer guarantee
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public class PartitionedStatisticsHandler extends RingBufferStatisticsHandler {
+
+	public PartitionedStatisticsHandler(final int threadNumber) {
+		super(threadNumber);
+	}
+
+	public PartitionedStatisticsHandler() {
+		super();
+	}
+
+	public PartitionedStatisticsHandler(final IStatisticsManager manager,
+			final int threadNumber) {
+		super(manager, threadNumber);
+	}
+
+	public PartitionedStatisticsHandler(final IStatisticsManager manager) {
+		super(manager);
+	}
+
+	@Override
+	protected void handleStatistics(final List<Object> statisticsEntries,
+			final String statisticsName) {
+		// entries of batch can belong to different partitions
+		for (final Object statisticsEntry : statisticsEntries) {
+			publish(statisticsEntry, statisticsName);
+		}
+	}
+
+	@Override
+	protected int selectBuffer(final Object statisticsEntry,
+			final String statisticsName) {
+		if (statisticsName == null) {
+			return 0;
+		}
+
+		notNull(getManager(), "Statistics Manager cannot be null");
+
+		final int hash = getManager().hashStatisticsKey(statisticsEntry,
+				statisticsName);
+
+		return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % getThreadNumber();
+	}
+
+	@Override
+	protected int getBufferCount() {
+		return getThreadNumber();
+	}
+
+	@Override
+	@PostConstruct
+	public void initialize() {
+		isTrue(getOverflowPolicy() != OverflowPolicy.CALLER_RUNS, "OverflowPolicy %s is not supported by partitioned handler", OverflowPolicy.CALLER_RUNS);
+
+		super.initialize();
+	}
+
+}
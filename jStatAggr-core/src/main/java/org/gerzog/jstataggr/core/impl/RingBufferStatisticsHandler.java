@@ -0,0 +1,324 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.impl;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.gerzog.jstataggr.IStatisticsManager;
+import org.gerzog.jstataggr.core.internal.impl.AbstractStatisticsHandler;
+import org.gerzog.jstataggr.core.internal.impl.StatisticsTask;
+
+/**
+ * Asynchronious Statistics handler that passes statistics entries to
+ * consumer threads through a preallocated lock-free ring buffer. Consumers
+ * take entries in batches; overflowPolicy defines what happens with entries
+ * when buffer is full.
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public class RingBufferStatisticsHandler extends AbstractStatisticsHandler {
+
+	private static final int DEFAULT_THREAD_NUMBER = 1;
+
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private static final int DEFAULT_BATCH_SIZE = 256;
+
+	private static final String THREAD_NAME_PREFIX = "jStatAggr-ring-";
+
+	private int threadNumber;
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	private WaitStrategy waitStrategy = WaitStrategy.PARK;
+
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+	private final LongAdder droppedCount = new LongAdder();
+
+	private final LongAdder callerRunsCount = new LongAdder();
+
+	private final LongAdder failedCount = new LongAdder();
+
+	private StatisticsRingBuffer[] buffers;
+
+	private Thread[] consumers;
+
+	private volatile boolean running;
+
+	private final BiConsumer<Object, String> processor = (entry, name) -> process(
+			entry, name);
+
+	public RingBufferStatisticsHandler(final int threadNumber) {
+		super();
+
+		this.threadNumber = threadNumber;
+	}
+
+	public RingBufferStatisticsHandler() {
+		this(DEFAULT_THREAD_NUMBER);
+	}
+
+	public RingBufferStatisticsHandler(final IStatisticsManager manager,
+			final int threadNumber) {
+		super(manager);
+
+		this.threadNumber = threadNumber;
+	}
+
+	public RingBufferStatisticsHandler(final IStatisticsManager manager) {
+		this(manager, DEFAULT_THREAD_NUMBER);
+	}
+
+	@Override
+	protected void handleStatistics(final Object statisticsEntry,
+			final String statisticsName) {
+		publish(statisticsEntry, statisticsName);
+	}
+
+	@Override
+	protected void handleStatistics(final Runnable action) {
+		publish(action, null);
+	}
+
+	/**
+	 * Passes entry to buffer. Entries published after shutdown are rejected,
+	 * since there is no consumer to take them
+	 */
+	protected void publish(final Object statisticsEntry,
+			final String statisticsName) {
+		notNull(buffers,
+				"Ring buffer was not initialized. Please call method initialize().");
+		checkRunning();
+
+		final StatisticsRingBuffer buffer = buffers[selectBuffer(
+				statisticsEntry, statisticsName)];
+
+		if (!buffer.offer(statisticsEntry, statisticsName)) {
+			handleOverflow(buffer, statisticsEntry, statisticsName);
+		}
+	}
+
+	/**
+	 * Returns index of buffer for statistics entry
+	 */
+	protected int selectBuffer(final Object statisticsEntry,
+			final String statisticsName) {
+		return 0;
+	}
+
+	/**
+	 * Returns number of buffers. Each consumer thread takes entries from
+	 * buffer by it's index modulo number of buffers
+	 */
+	protected int getBufferCount() {
+		return 1;
+	}
+
+	protected void handleOverflow(final StatisticsRingBuffer buffer,
+			final Object statisticsEntry, final String statisticsName) {
+		int iteration = 0;
+
+		switch (overflowPolicy) {
+		case BLOCK:
+			while (!buffer.offer(statisticsEntry, statisticsName)) {
+				// consumers could be stopped while producer waits
+				checkRunning();
+
+				waitStrategy.idle(iteration++);
+			}
+			break;
+		case DROP_OLDEST:
+			do {
+				// oldest statistics entry is dropped
+				buffer.drain(1, (entry, name) -> droppedCount.add(sizeOf(
+						entry, name)));
+			} while (!buffer.offer(statisticsEntry, statisticsName));
+			break;
+		case CALLER_RUNS:
+			callerRunsCount.add(sizeOf(statisticsEntry, statisticsName));
+			process(statisticsEntry, statisticsName);
+			break;
+		default:
+			droppedCount.add(sizeOf(statisticsEntry, statisticsName));
+			break;
+		}
+	}
+
+	private void checkRunning() {
+		if (!running) {
+			throw new RejectedExecutionException("Ring buffer handler was shut down");
+		}
+	}
+
+	/**
+	 * Actions are published without name of statistics
+	 */
+	private static int sizeOf(final Object statisticsEntry,
+			final String statisticsName) {
+		return statisticsName == null ? StatisticsTask.sizeOf(statisticsEntry)
+				: 1;
+	}
+
+	private void process(final Object statisticsEntry,
+			final String statisticsName) {
+		try {
+			if (statisticsName == null) {
+				((Runnable) statisticsEntry).run();
+			} else {
+				updateStatistics(statisticsEntry, statisticsName);
+			}
+		} catch (final RuntimeException e) {
+			// failed entry is skipped, so consumer keeps handling next ones
+			failedCount.increment();
+		}
+	}
+
+	protected void consume(final StatisticsRingBuffer buffer) {
+		int iteration = 0;
+
+		while (running || !buffer.isEmpty()) {
+			if (buffer.drain(batchSize, processor) > 0) {
+				iteration = 0;
+			} else {
+				waitStrategy.idle(iteration++);
+			}
+		}
+	}
+
+	/**
+	 * @return number of statistics entries dropped because buffer was full,
+	 *         newest or oldest ones depending on overflowPolicy
+	 */
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	/**
+	 * @return number of statistics entries handled in caller thread because
+	 *         buffer was full
+	 */
+	public long getCallerRunsCount() {
+		return callerRunsCount.sum();
+	}
+
+	/**
+	 * @return number of statistics entries and actions that failed with
+	 *         exception and were skipped by consumers
+	 */
+	public long getFailedCount() {
+		return failedCount.sum();
+	}
+
+	public void setThreadNumber(final int threadNumber) {
+		this.threadNumber = threadNumber;
+	}
+
+	protected int getThreadNumber() {
+		return threadNumber;
+	}
+
+	public void setBufferSize(final int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public void setBatchSize(final int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setWaitStrategy(final WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	public void setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	protected OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Starts consumer threads. Repeated call of initialized handler is ignored
+	 */
+	@PostConstruct
+	public synchronized void initialize() {
+		if (consumers != null) {
+			return;
+		}
+
+		isTrue(threadNumber > 0, "ThreadNumber can be in rage %s..%s, but input value is %s", 1, Integer.MAX_VALUE, threadNumber);
+		isTrue(bufferSize > 1 && Integer.bitCount(bufferSize) == 1, "BufferSize should be a power of two greater than one, but input value is %s", bufferSize);
+		isTrue(batchSize > 0, "BatchSize can be in rage %s..%s, but input value is %s", 1, Integer.MAX_VALUE, batchSize);
+		notNull(waitStrategy, "WaitStrategy cannot be null");
+		notNull(overflowPolicy, "OverflowPolicy cannot be null");
+
+		buffers = new StatisticsRingBuffer[getBufferCount()];
+
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = new StatisticsRingBuffer(bufferSize);
+		}
+
+		running = true;
+
+		consumers = new Thread[threadNumber];
+
+		for (int i = 0; i < threadNumber; i++) {
+			final StatisticsRingBuffer buffer = buffers[i % buffers.length];
+
+			consumers[i] = new Thread(() -> consume(buffer), THREAD_NAME_PREFIX
+					+ i);
+			consumers[i].setDaemon(true);
+			consumers[i].start();
+		}
+	}
+
+	/**
+	 * Stops consumer threads after all published entries are handled. If
+	 * calling thread is interrupted it stops waiting for consumers and keeps
+	 * it's interrupted status
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		running = false;
+
+		if (consumers != null) {
+			try {
+				for (final Thread consumer : consumers) {
+					consumer.join();
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+
+				return;
+			}
+
+			consumers = null;
+		}
+	}
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import org.gerzog.jstataggr.IStatisticsPartials;
+
+/**
+ * Folds statistics entries of each producer thread into it's own buffer of
+ * partial aggregates per statistics name and passes them to consumer when
+ * buffer reaches size limit or becomes older than timeout.
+ *
+ * Buffer is locked by it's owner on update and by flushing thread on flush,
+ * so the lock is contended only during flush. Partials are taken out of
+ * buffer under the lock, but passed to consumer outside of it, so slow
+ * consumer doesn't stall owner of buffer
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class StatisticsCombiner {
+
+	private static final class Buffer {
+
+		private Map<String, IStatisticsPartials> partials = new HashMap<>();
+
+		private final WeakReference<Thread> owner;
+
+		private int size;
+
+		private long startTime;
+
+		public Buffer(final Thread owner) {
+			this.owner = new WeakReference<>(owner);
+		}
+
+		public boolean isAlive() {
+			final Thread thread = owner.get();
+
+			return (thread != null) && thread.isAlive();
+		}
+
+		public Map<String, IStatisticsPartials> takePartials() {
+			final Map<String, IStatisticsPartials> result = partials;
+
+			partials = new HashMap<>();
+			size = 0;
+
+			return result;
+		}
+
+	}
+
+	private final int maxSize;
+
+	private final long timeout;
+
+	private final BiFunction<Object, String, IStatisticsPartials> factory;
+
+	private final Consumer<IStatisticsPartials> consumer;
+
+	private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+
+	private final ThreadLocal<Buffer> currentBuffer = ThreadLocal
+			.withInitial(() -> createBuffer());
+
+	/**
+	 * @param maxSize
+	 *            - max number of entries folded into buffer of thread
+	 * @param timeout
+	 *            - max age of buffer in nanoseconds
+	 * @param factory
+	 *            - creates partials for first entry of statistics name
+	 * @param consumer
+	 *            - consumer of partials of single statistics name
+	 */
+	public StatisticsCombiner(final int maxSize, final long timeout,
+			final BiFunction<Object, String, IStatisticsPartials> factory,
+			final Consumer<IStatisticsPartials> consumer) {
+		this.maxSize = maxSize;
+		this.timeout = timeout;
+		this.factory = factory;
+		this.consumer = consumer;
+	}
+
+	private Buffer createBuffer() {
+		final Buffer result = new Buffer(Thread.currentThread());
+
+		buffers.add(result);
+
+		return result;
+	}
+
+	public void add(final Object statisticsEntry, final String statisticsName) {
+		final Buffer buffer = currentBuffer.get();
+		Map<String, IStatisticsPartials> batches = null;
+
+		synchronized (buffer) {
+			final long now = System.nanoTime();
+
+			if (buffer.size == 0) {
+				buffer.startTime = now;
+			}
+
+			buffer.partials.computeIfAbsent(statisticsName,
+					name -> factory.apply(statisticsEntry, name)).fold(
+					statisticsEntry);
+			buffer.size++;
+
+			if ((buffer.size >= maxSize) || ((now - buffer.startTime) >= timeout)) {
+				batches = buffer.takePartials();
+			}
+		}
+
+		if (batches != null) {
+			flush(batches);
+		}
+	}
+
+	/**
+	 * Passes all buffered partials to consumer
+	 */
+	public void flush() {
+		flush(false);
+	}
+
+	/**
+	 * Passes partials of buffers that are older than timeout to consumer
+	 */
+	public void flushExpired() {
+		flush(true);
+	}
+
+	private void flush(final boolean expiredOnly) {
+		for (final Buffer buffer : buffers) {
+			Map<String, IStatisticsPartials> batches = null;
+
+			synchronized (buffer) {
+				if ((buffer.size > 0)
+						&& (!expiredOnly || ((System.nanoTime() - buffer.startTime) >= timeout))) {
+					batches = buffer.takePartials();
+				}
+
+				// buffer of finished thread will never be updated again
+				if ((buffer.size == 0) && !buffer.isAlive()) {
+					buffers.remove(buffer);
+				}
+			}
+
+			if (batches != null) {
+				flush(batches);
+			}
+		}
+	}
+
+	private void flush(final Map<String, IStatisticsPartials> batches) {
+		batches.values().forEach(consumer);
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer buffer of statistics
+ * entries with their names. Slots are preallocated; each slot has a sequence
+ * that defines whether it's ready to be written by producer or read by
+ * consumer, so no allocations are made per entry.
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class StatisticsRingBuffer {
+
+	private final Object[] entries;
+
+	private final String[] names;
+
+	private final AtomicLongArray sequences;
+
+	private final int mask;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private final AtomicLong head = new AtomicLong();
+
+	public StatisticsRingBuffer(final int capacity) {
+		// LN: with single slot published and released sequences are the same
+		if ((capacity < 2) || (Integer.bitCount(capacity) != 1)) {
+			throw new IllegalArgumentException(
+					"Capacity should be a power of two greater than one, but was "
+							+ capacity);
+		}
+
+		this.entries = new Object[capacity];
+		this.names = new String[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		this.mask = capacity - 1;
+
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Puts entry to buffer
+	 *
+	 * @return false if buffer is full
+	 */
+	public boolean offer(final Object statisticsEntry,
+			final String statisticsName) {
+		long position = tail.get();
+
+		while (true) {
+			final int index = (int) position & mask;
+			final long difference = sequences.get(index) - position;
+
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					entries[index] = statisticsEntry;
+					names[index] = statisticsName;
+
+					// publishes slot to consumers
+					sequences.lazySet(index, position + 1);
+
+					return true;
+				}
+			} else if (difference < 0) {
+				return false;
+			}
+
+			position = tail.get();
+		}
+	}
+
+	/**
+	 * Takes up to maxEntries published entries in a single batch and passes
+	 * them to consumer
+	 *
+	 * @return number of consumed entries
+	 */
+	public int drain(final int maxEntries,
+			final BiConsumer<Object, String> consumer) {
+		while (true) {
+			final long position = head.get();
+
+			int available = 0;
+
+			while ((available < maxEntries)
+					&& (sequences.get((int) (position + available) & mask) == (position
+							+ available + 1))) {
+				available++;
+			}
+
+			if (available == 0) {
+				return 0;
+			}
+
+			if (head.compareAndSet(position, position + available)) {
+				for (int i = 0; i < available; i++) {
+					final int index = (int) (position + i) & mask;
+
+					final Object statisticsEntry = entries[index];
+					final String statisticsName = names[index];
+
+					entries[index] = null;
+					names[index] = null;
+
+					// releases slot for producers of next round
+					sequences.lazySet(index, position + i + mask + 1);
+
+					consumer.accept(statisticsEntry, statisticsName);
+				}
+
+				return available;
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+}
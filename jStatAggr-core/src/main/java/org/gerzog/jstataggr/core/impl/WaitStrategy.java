@@ -0,0 +1,82 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.impl;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Defines how threads of Statistics Handler wait for statistics entries or
+ * for free space in buffer
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public enum WaitStrategy {
+
+	/**
+	 * Thread spins without releasing CPU. Lowest latency, but occupies a core
+	 * for each waiting thread
+	 */
+	BUSY_SPIN {
+		@Override
+		public void idle(final int iteration) {
+			// do nothing
+		}
+	},
+
+	/**
+	 * Thread yields CPU to other threads on each iteration
+	 */
+	YIELD {
+		@Override
+		public void idle(final int iteration) {
+			Thread.yield();
+		}
+	},
+
+	/**
+	 * Thread spins and yields for a short time and then sleeps for
+	 * {@value #PARK_NANOS} nanoseconds on each iteration. Lowest CPU usage,
+	 * but highest latency
+	 */
+	PARK {
+		@Override
+		public void idle(final int iteration) {
+			if (iteration < SPIN_ITERATIONS) {
+				return;
+			} else if (iteration < YIELD_ITERATIONS) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+	};
+
+	private static final int SPIN_ITERATIONS = 100;
+
+	private static final int YIELD_ITERATIONS = 200;
+
+	private static final long PARK_NANOS = 100_000;
+
+	/**
+	 * Waits once
+	 *
+	 * @param iteration
+	 *            - number of unsuccessful attempts made by thread before
+	 */
+	public abstract void idle(int iteration);
+
+}
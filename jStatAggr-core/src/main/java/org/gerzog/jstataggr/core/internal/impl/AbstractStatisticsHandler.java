@@ -15,18 +15,21 @@
  */
 package org.gerzog.jstataggr.core.internal.impl;
 
-import static org.apache.commons.lang3.Validate.isTrue;
 import static org.apache.commons.lang3.Validate.notNull;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
-import org.apache.commons.lang3.StringUtils;
 import org.gerzog.jstataggr.IStatisticsFilter;
 import org.gerzog.jstataggr.IStatisticsHandler;
 import org.gerzog.jstataggr.IStatisticsManager;
 import org.gerzog.jstataggr.IStatisticsWriter;
-import org.gerzog.jstataggr.annotations.StatisticsEntry;
+import org.gerzog.jstataggr.core.utils.EntryUtils;
 
 /**
  * Abstract implementation of Statistcs Handler
@@ -36,13 +39,14 @@ import org.gerzog.jstataggr.annotations.StatisticsEntry;
  */
 public abstract class AbstractStatisticsHandler implements IStatisticsHandler {
 
-	private static final String NO_ANNOTATION_MESSAGE = "%s class is not marked with mandatory annotation @StatisticsEntry";
 	private static final String INPUT_PARAMETER_NULL_MESSAGE = "StatisticsEntry cannot be null";
 
 	private IStatisticsManager manager;
 
 	private Collection<IStatisticsWriter> writers;
 
+	private boolean extractOnSubmit;
+
 	protected AbstractStatisticsHandler() {
 		this(null);
 	}
@@ -55,49 +59,108 @@ public abstract class AbstractStatisticsHandler implements IStatisticsHandler {
 		this.manager = manager;
 	}
 
+	protected IStatisticsManager getManager() {
+		return manager;
+	}
+
+	/**
+	 * If set values of statistics entry are copied into a record before
+	 * handling, so caller can reuse entry object right after
+	 * {@link #handleStatistics(Object)} returns
+	 */
+	public void setExtractOnSubmit(final boolean extractOnSubmit) {
+		this.extractOnSubmit = extractOnSubmit;
+	}
+
 	@Override
 	public void handleStatistics(final Object statisticsEntry) {
 		notNull(statisticsEntry, INPUT_PARAMETER_NULL_MESSAGE);
 
-		final Class<?> clazz = statisticsEntry.getClass();
+		final String statisticsName = EntryUtils
+				.getStatisticsName(statisticsEntry.getClass());
+
+		handleStatistics(extract(statisticsEntry, statisticsName),
+				statisticsName);
+	}
+
+	@Override
+	public void handleStatistics(final Collection<?> statisticsEntries) {
+		notNull(statisticsEntries, INPUT_PARAMETER_NULL_MESSAGE);
+
+		final Map<Class<?>, String> names = new HashMap<>();
+		final Map<Class<?>, List<Object>> batches = new LinkedHashMap<>();
 
-		final StatisticsEntry annotation = clazz
-				.getAnnotation(StatisticsEntry.class);
+		// all entries are validated before any of them is handled
+		for (final Object statisticsEntry : statisticsEntries) {
+			notNull(statisticsEntry, INPUT_PARAMETER_NULL_MESSAGE);
 
-		final String className = clazz.getSimpleName();
+			names.computeIfAbsent(statisticsEntry.getClass(),
+					EntryUtils::getStatisticsName);
+		}
+
+		for (final Object statisticsEntry : statisticsEntries) {
+			final Class<?> clazz = statisticsEntry.getClass();
+
+			batches.computeIfAbsent(clazz, key -> new ArrayList<>()).add(
+					extract(statisticsEntry, names.get(clazz)));
+		}
 
-		isTrue(annotation != null, NO_ANNOTATION_MESSAGE, className);
+		batches.forEach((clazz, batch) -> handleStatistics(batch,
+				names.get(clazz)));
+	}
 
+	protected void handleStatistics(final Object statisticsEntry,
+			final String statisticsName) {
 		handleStatistics(() -> updateStatistics(statisticsEntry,
-				getStatisticsName(annotation, className)));
+				statisticsName));
+	}
+
+	private Object extract(final Object statisticsEntry,
+			final String statisticsName) {
+		if (!extractOnSubmit) {
+			return statisticsEntry;
+		}
+
+		notNull(manager, "Statistics Manager cannot be null");
+
+		return manager.extractRecord(statisticsEntry, statisticsName);
 	}
 
-	private void updateStatistics(final Object statisticsEntry,
+	/**
+	 * Handles batch of statistics entries of same class
+	 */
+	protected void handleStatistics(final List<Object> statisticsEntries,
+			final String statisticsName) {
+		handleStatistics(new StatisticsTask(() -> updateStatistics(
+				statisticsEntries, statisticsName), statisticsEntries.size()));
+	}
+
+	protected void updateStatistics(final Object statisticsEntry,
 			final String statisticsName) {
 		notNull(manager, "Statistics Manager cannot be null");
 
 		manager.updateStatistics(statisticsEntry, statisticsName);
 	}
 
-	private String getStatisticsName(final StatisticsEntry entry,
-			final String className) {
-		final String entryName = entry.value();
+	protected void updateStatistics(final List<Object> statisticsEntries,
+			final String statisticsName) {
+		notNull(manager, "Statistics Manager cannot be null");
 
-		return StringUtils.isEmpty(entryName) ? className : entryName;
+		manager.updateStatistics(statisticsEntries, statisticsName);
 	}
 
 	protected abstract void handleStatistics(Runnable action);
 
 	@Override
 	public void writeStatistics(final boolean cleanup) throws Exception {
-		writeStatistics(null, (key) -> true, cleanup);
+		writeStatistics(null, IStatisticsFilter.ALL, cleanup);
 
 	}
 
 	@Override
 	public void writeStatistics(final String statisticsName,
 			final boolean cleanup) throws Exception {
-		writeStatistics(statisticsName, (key) -> true, cleanup);
+		writeStatistics(statisticsName, IStatisticsFilter.ALL, cleanup);
 	}
 
 	@Override
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.internal.impl;
+
+/**
+ * Update action that knows number of statistics entries applied by it, so
+ * overflow of asynchronious handlers is counted in entries
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public final class StatisticsTask implements Runnable {
+
+	private final Runnable action;
+
+	private final int size;
+
+	public StatisticsTask(final Runnable action, final int size) {
+		this.action = action;
+		this.size = size;
+	}
+
+	@Override
+	public void run() {
+		action.run();
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns number of statistics entries of task, any other action is
+	 * counted as a single entry
+	 */
+	public static int sizeOf(final Object action) {
+		return action instanceof StatisticsTask ? ((StatisticsTask) action)
+				.getSize() : 1;
+	}
+
+}
@@ -18,25 +18,37 @@ package org.gerzog.jstataggr.core.manager.impl;
 import static org.gerzog.jstataggr.core.utils.Throwables.propogate;
 
 import java.beans.PropertyDescriptor;
-import java.lang.invoke.MethodHandle;
-import java.lang.invoke.MethodHandles;
+import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.gerzog.jstataggr.AggregationType;
 import org.gerzog.jstataggr.IStatisticsFilter;
 import org.gerzog.jstataggr.IStatisticsManager;
+import org.gerzog.jstataggr.IStatisticsPartials;
+import org.gerzog.jstataggr.IStatisticsWriter;
 import org.gerzog.jstataggr.annotations.Aggregated;
 import org.gerzog.jstataggr.annotations.Expression;
+import org.gerzog.jstataggr.annotations.StatisticsEntry;
 import org.gerzog.jstataggr.annotations.StatisticsKey;
 import org.gerzog.jstataggr.core.collector.impl.StatisticsCollector;
 import org.gerzog.jstataggr.core.collector.impl.StatisticsCollector.StatisticsCollectorBuilder;
 import org.gerzog.jstataggr.core.expressions.IExpressionHandler;
+import org.gerzog.jstataggr.core.utils.EntryUtils;
 
 /**
  * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
@@ -54,10 +66,24 @@ public class StatisticsManagerImpl implements IStatisticsManager {
 
 	private static final Class<?>[] SUPPORTED_TYPES_FOR_AVERAGE_AGGREGATION = { Long.class, long.class, Integer.class, int.class };
 
+	private static final Class<?>[] SUPPORTED_TYPES_FOR_KEY_RANGE = { Long.class, long.class, Integer.class, int.class, Short.class, short.class, Byte.class, byte.class, Character.class, char.class };
+
 	private final Map<String, StatisticsCollector> collectors = new ConcurrentHashMap<>();
 
+	private final Map<String, CompletableFuture<StatisticsCollector>> creations = new ConcurrentHashMap<>();
+
 	private IExpressionHandler expressionHandler;
 
+	private Collection<Class<?>> statisticsClasses = Collections.emptyList();
+
+	private Collection<String> packagesToScan = Collections.emptyList();
+
+	private File classOutput;
+
+	private File classCache;
+
+	private Collection<IStatisticsWriter> evictionWriters = Collections.emptyList();
+
 	public StatisticsManagerImpl() {
 		this(null);
 	}
@@ -70,27 +96,203 @@ public class StatisticsManagerImpl implements IStatisticsManager {
 		this.expressionHandler = expressionHandler;
 	}
 
+	public void setStatisticsClasses(final Collection<Class<?>> statisticsClasses) {
+		this.statisticsClasses = statisticsClasses;
+	}
+
+	public void setPackagesToScan(final Collection<String> packagesToScan) {
+		this.packagesToScan = packagesToScan;
+	}
+
+	/**
+	 * Sets directory where classes generated for statistics are written, so
+	 * they can be packaged with application and reused instead of generation
+	 * on startup
+	 */
+	public void setClassOutput(final File classOutput) {
+		this.classOutput = classOutput;
+	}
+
+	/**
+	 * Sets local directory where generated classes are cached between
+	 * restarts, so javassist generation is skipped for statistics that didn't
+	 * change
+	 */
+	public void setClassCache(final File classCache) {
+		this.classCache = classCache;
+	}
+
+	/**
+	 * Sets writers of buckets evicted because statistics reached it's limit
+	 * of buckets. Evicted buckets are written in updating thread, without
+	 * writers they are dropped
+	 */
+	public void setEvictionWriters(final Collection<IStatisticsWriter> evictionWriters) {
+		this.evictionWriters = evictionWriters;
+	}
+
+	/**
+	 * Registers configured statistics classes and statistics classes found in
+	 * configured packages
+	 */
+	@PostConstruct
+	public void initialize() {
+		final Collection<Class<?>> classes = new LinkedHashSet<>(statisticsClasses);
+
+		for (final String packageName : packagesToScan) {
+			classes.addAll(EntryUtils.findStatisticsEntries(getClassLoader(), packageName));
+		}
+
+		registerStatistics(classes);
+	}
+
+	private ClassLoader getClassLoader() {
+		final ClassLoader result = Thread.currentThread().getContextClassLoader();
+
+		return result == null ? getClass().getClassLoader() : result;
+	}
+
+	/**
+	 * Registers statistics classes with names defined by
+	 * {@link StatisticsEntry}. Collectors are generated in parallel
+	 */
+	public void registerStatistics(final Collection<Class<?>> classes) {
+		final Map<String, Class<?>> names = new HashMap<>();
+
+		for (final Class<?> clazz : classes) {
+			final Class<?> previous = names.put(EntryUtils.getStatisticsName(clazz), clazz);
+
+			if (previous != null) {
+				throw new IllegalStateException("Statistics classes <" + previous.getName() + "> and <" + clazz.getName() + "> have same name");
+			}
+		}
+
+		names.entrySet().parallelStream().forEach(entry -> registerStatistics(entry.getValue(), entry.getKey()));
+	}
+
+	@Override
+	public void registerStatistics(final Class<?> statisticsClass, final String statisticsName) {
+		getCollector(statisticsClass, statisticsName);
+	}
+
+	@Override
+	public void unregisterStatistics(final String statisticsName) {
+		final StatisticsCollector collector = collectors.remove(statisticsName);
+
+		if (collector != null) {
+			collector.close();
+		}
+	}
+
 	@Override
 	public void updateStatistics(final Object statisticsEntry, final String statisticsName) {
-		StatisticsCollector collector = collectors.get(statisticsName);
+		getCollector(statisticsEntry.getClass(), statisticsName).updateStatistics(statisticsEntry);
+	}
+
+	@Override
+	public void updateStatistics(final Iterable<?> statisticsEntries, final String statisticsName) {
+		final Iterator<?> iterator = statisticsEntries.iterator();
+
+		if (iterator.hasNext()) {
+			final Object first = iterator.next();
+
+			getCollector(first.getClass(), statisticsName).updateStatistics(statisticsEntries);
+		}
+	}
+
+	@Override
+	public void updateStatistics(final Map<String, ?> columns, final int size, final Class<?> statisticsClass, final String statisticsName) {
+		getCollector(statisticsClass, statisticsName).updateStatistics(columns, size);
+	}
+
+	@Override
+	public int hashStatisticsKey(final Object statisticsEntry, final String statisticsName) {
+		return getCollector(statisticsEntry.getClass(), statisticsName).hashStatisticsKey(statisticsEntry);
+	}
+
+	@Override
+	public Object extractRecord(final Object statisticsEntry, final String statisticsName) {
+		return getCollector(statisticsEntry.getClass(), statisticsName).extractRecord(statisticsEntry);
+	}
+
+	@Override
+	public <T> T createRecorder(final Class<T> recorderType, final Class<?> statisticsClass, final String statisticsName) {
+		return getCollector(statisticsClass, statisticsName).createRecorder(recorderType);
+	}
+
+	@Override
+	public IStatisticsPartials createPartials(final Class<?> statisticsClass, final String statisticsName) {
+		return getCollector(statisticsClass, statisticsName).createPartials();
+	}
+
+	protected StatisticsCollector getCollector(final Class<?> statisticsClass, final String statisticsName) {
+		final StatisticsCollector collector = collectors.get(statisticsName);
 
 		if (collector == null) {
-			collector = createCollector(statisticsEntry.getClass(), statisticsName);
+			return awaitCollector(statisticsClass, statisticsName);
 		}
 
-		collector.updateStatistics(statisticsEntry);
+		return collector;
 	}
 
-	protected synchronized StatisticsCollector createCollector(final Class<?> statisticsClass, final String statisticsName) {
-		final StatisticsCollectorBuilder builder = new StatisticsCollectorBuilder(statisticsName, expressionHandler);
+	/**
+	 * Creates collector exactly once per name. Threads that request collector
+	 * of the same name during it's generation wait for it, threads of other
+	 * names are not blocked
+	 */
+	private StatisticsCollector awaitCollector(final Class<?> statisticsClass, final String statisticsName) {
+		final CompletableFuture<StatisticsCollector> creation = new CompletableFuture<>();
+		final CompletableFuture<StatisticsCollector> existing = creations.putIfAbsent(statisticsName, creation);
+
+		if (existing != null) {
+			try {
+				return existing.join();
+			} catch (final CompletionException e) {
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+			}
+		}
+
+		try {
+			// collector could be registered before creation was started
+			StatisticsCollector result = collectors.get(statisticsName);
 
-		initializeCollector(statisticsClass, builder);
+			if (result == null) {
+				result = createCollector(statisticsClass, statisticsName);
+
+				collectors.put(statisticsName, result);
+			}
+
+			creation.complete(result);
+
+			return result;
+		} catch (RuntimeException | Error e) {
+			creation.completeExceptionally(e);
+
+			throw e;
+		} finally {
+			creations.remove(statisticsName, creation);
+		}
+	}
 
-		final StatisticsCollector result = builder.build();
+	protected StatisticsCollector createCollector(final Class<?> statisticsClass, final String statisticsName) {
+		final StatisticsCollectorBuilder builder = new StatisticsCollectorBuilder(statisticsName, expressionHandler).withClassOutput(classOutput).withClassCache(classCache);
 
-		final StatisticsCollector previous = collectors.putIfAbsent(statisticsName, result);
+		final StatisticsEntry entry = statisticsClass.getAnnotation(StatisticsEntry.class);
 
-		return previous == null ? result : result;
+		if (entry != null) {
+			builder.withStorageType(entry.storage()).withCleanupMode(entry.cleanup()).withShards(entry.sharded())
+			.withBucketLimit(entry.maxBuckets(), entry.overflow(), buckets -> writeEvicted(statisticsName, buckets));
+		}
+
+		initializeCollector(statisticsClass, builder);
+
+		return builder.build();
+	}
+
+	protected void writeEvicted(final String statisticsName, final Collection<Object> buckets) {
+		for (final IStatisticsWriter writer : evictionWriters) {
+			propogate(() -> writer.writeStatistics(statisticsName, buckets));
+		}
 	}
 
 	protected void initializeCollector(final Class<?> statisticsClass, final StatisticsCollectorBuilder builder) {
@@ -106,9 +308,11 @@ public class StatisticsManagerImpl implements IStatisticsManager {
 			}
 
 			if (field.isAnnotationPresent(StatisticsKey.class)) {
-				validateStatisticsKeyField(field);
+				final StatisticsKey annotation = field.getAnnotation(StatisticsKey.class);
 
-				appendStatisticsKeys(builder, statisticsClass, field, expression);
+				validateStatisticsKeyField(field, annotation);
+
+				appendStatisticsKeys(builder, statisticsClass, field, annotation, expression);
 			}
 
 			if (field.isAnnotationPresent(Aggregated.class)) {
@@ -121,23 +325,21 @@ public class StatisticsManagerImpl implements IStatisticsManager {
 		}
 	}
 
-	protected void appendStatisticsKeys(final StatisticsCollectorBuilder builder, final Class<?> statisticsClass, final Field field, final String expression) {
-		final MethodHandle getter = findGetter(statisticsClass, field);
+	protected void appendStatisticsKeys(final StatisticsCollectorBuilder builder, final Class<?> statisticsClass, final Field field, final StatisticsKey annotation, final String expression) {
+		final Method getter = findGetter(statisticsClass, field);
 
-		builder.addStatisticsKey(field, getter, expression);
+		builder.addStatisticsKey(field, annotation.min(), annotation.max(), getter, expression);
 	}
 
 	protected void appendAggregation(final StatisticsCollectorBuilder builder, final Class<?> statisticsClass, final Field field, final Aggregated annotation, final String expression) {
-		final MethodHandle getter = findGetter(statisticsClass, field);
+		final Method getter = findGetter(statisticsClass, field);
 
 		builder.addAggregation(field, annotation.value(), annotation.fieldType(), getter, expression);
 	}
 
-	protected MethodHandle findGetter(final Class<?> statisticsClass, final Field field) {
+	protected Method findGetter(final Class<?> statisticsClass, final Field field) {
 		return propogate(() -> {
-			final Method readMethod = new PropertyDescriptor(field.getName(), statisticsClass).getReadMethod();
-
-			return MethodHandles.lookup().unreflect(readMethod);
+			return new PropertyDescriptor(field.getName(), statisticsClass).getReadMethod();
 		}, (e) -> new IllegalStateException("There is no public getter for field <" + field + ">", e));
 	}
 
@@ -147,21 +349,51 @@ public class StatisticsManagerImpl implements IStatisticsManager {
 
 		collectors.forEach((name, collector) -> {
 			if ((statisticsName == null) || name.equals(statisticsName)) {
-				result.put(name, collector.collectStatistics(filter, cleanup));
+				final Collection<Object> overflow = new ArrayList<>();
+
+				result.put(name, collector.collectStatistics(filter, cleanup, overflow::add));
+
+				if (!overflow.isEmpty()) {
+					result.put(name + OVERFLOW_POSTFIX, overflow);
+				}
 			}
 		});
 
 		return result;
 	}
 
+	@Override
+	public long getFoldedUpdateCount(final String statisticsName) {
+		final StatisticsCollector collector = collectors.get(statisticsName);
+
+		return collector == null ? 0 : collector.getFoldedUpdateCount();
+	}
+
+	@Override
+	public long getEvictedCount(final String statisticsName) {
+		final StatisticsCollector collector = collectors.get(statisticsName);
+
+		return collector == null ? 0 : collector.getEvictedCount();
+	}
+
 	protected Map<String, StatisticsCollector> getCollectors() {
 		return collectors;
 	}
 
-	protected void validateStatisticsKeyField(final Field field) {
+	protected void validateStatisticsKeyField(final Field field, final StatisticsKey annotation) {
 		if (field.isAnnotationPresent(Aggregated.class)) {
 			throw new IllegalStateException("StatisticsKey field <" + field.getName() + "> cannot be marked as @Aggregated");
 		}
+
+		if ((annotation.min() != Long.MIN_VALUE) || (annotation.max() != Long.MAX_VALUE)) {
+			if (!ArrayUtils.contains(SUPPORTED_TYPES_FOR_KEY_RANGE, field.getType())) {
+				throw new IllegalStateException("StatisticsKey field <" + field.getName() + "> is of unsupported type <" + field.getType().getSimpleName() + "> for range of values");
+			}
+
+			if (annotation.min() > annotation.max()) {
+				throw new IllegalStateException("StatisticsKey field <" + field.getName() + "> has min value greater than max value");
+			}
+		}
 	}
 
 	protected void validateAggregationField(final Field field, final Aggregated annotation) {
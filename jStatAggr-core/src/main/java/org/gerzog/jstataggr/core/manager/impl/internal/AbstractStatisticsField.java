@@ -15,11 +15,6 @@
  */
 package org.gerzog.jstataggr.core.manager.impl.internal;
 
-import java.lang.invoke.MethodHandle;
-import java.lang.invoke.MethodHandles;
-import java.lang.reflect.Method;
-
-import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.CtField;
 import javassist.CtMethod;
@@ -32,8 +27,6 @@ import org.gerzog.jstataggr.core.templates.TemplateHelper;
  */
 abstract class AbstractStatisticsField implements IStatisticsField {
 
-	protected static final ClassPool CLASS_POOL = ClassPool.getDefault();
-
 	private final String originalFieldName;
 
 	private final Class<?> fieldType;
@@ -73,7 +66,8 @@ abstract class AbstractStatisticsField implements IStatisticsField {
 	}
 
 	protected void generateField(final CtClass clazz) throws Exception {
-		final CtClass dataClazz = CLASS_POOL.get(fieldType.getName());
+		final CtClass dataClazz = clazz.getClassPool().get(
+				fieldType.getName());
 
 		final CtField field = new CtField(dataClazz, generateFieldName(), clazz);
 
@@ -110,18 +104,14 @@ abstract class AbstractStatisticsField implements IStatisticsField {
 	}
 
 	@Override
-	public MethodHandle getAccessMethodHandle(final Class<?> clazz)
-			throws Exception {
-		final Method method = clazz.getMethod(getAccessMethodName(),
-				getAccessMethodType());
-
-		return MethodHandles.lookup().unreflect(method);
+	public String getUpdateStatement(final String bucketName,
+			final String valueName) {
+		return TemplateHelper.methodCall(bucketName + "."
+				+ getAccessMethodName(), valueName);
 	}
 
 	protected abstract String getAccessMethodName();
 
-	protected abstract Class<?> getAccessMethodType();
-
 	@Override
 	public String getFieldName() {
 		return originalFieldName;
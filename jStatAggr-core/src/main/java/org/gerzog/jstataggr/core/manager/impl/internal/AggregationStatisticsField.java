@@ -22,9 +22,14 @@ import java.util.concurrent.atomic.LongAdder;
 import javassist.CtClass;
 import javassist.CtField;
 import javassist.CtMethod;
+import javassist.Modifier;
 
+import org.apache.commons.lang3.ClassUtils;
 import org.gerzog.jstataggr.AggregationType;
 import org.gerzog.jstataggr.FieldType;
+import org.gerzog.jstataggr.core.functions.AdaptiveAdder;
+import org.gerzog.jstataggr.core.functions.AdaptiveMaxAccumulator;
+import org.gerzog.jstataggr.core.functions.AdaptiveMinAccumulator;
 import org.gerzog.jstataggr.core.functions.MaxAccumulator;
 import org.gerzog.jstataggr.core.functions.MinAccumulator;
 import org.gerzog.jstataggr.core.templates.TemplateHelper;
@@ -39,6 +44,12 @@ class AggregationStatisticsField extends AbstractStatisticsField {
 
 	private final AggregationType aggregationType;
 
+	private final FieldType type;
+
+	private PackedLayout layout;
+
+	private int slot = -1;
+
 	protected AggregationStatisticsField(final String modifier,
 			final String fieldName, final Class<?> methodClass,
 			final Class<?> fieldClass, final AggregationType aggregationType,
@@ -47,6 +58,7 @@ class AggregationStatisticsField extends AbstractStatisticsField {
 				aggregationType, fieldType));
 
 		this.aggregationType = aggregationType;
+		this.type = fieldType;
 	}
 
 	protected AggregationStatisticsField(final String fieldName,
@@ -56,6 +68,7 @@ class AggregationStatisticsField extends AbstractStatisticsField {
 				aggregationType, fieldType));
 
 		this.aggregationType = aggregationType;
+		this.type = fieldType;
 	}
 
 	public AggregationStatisticsField(final String fieldName,
@@ -87,6 +100,17 @@ class AggregationStatisticsField extends AbstractStatisticsField {
 	}
 
 	protected String getUpdaterText() {
+		if (type == FieldType.PACKED) {
+			return TemplateHelper.packedUpdater(getModifier(), getFieldName(),
+					getMethodType(), aggregationType, slot);
+		}
+
+		if (type == FieldType.FIELD_UPDATER) {
+			return TemplateHelper.fieldUpdaterUpdater(getModifier(),
+					getFieldName(), getMethodType(), getFieldType(),
+					aggregationType);
+		}
+
 		return TemplateHelper.simpleUpdater(getModifier(), getFieldName(),
 				getMethodType(), getFieldType(), aggregationType);
 	}
@@ -97,21 +121,64 @@ class AggregationStatisticsField extends AbstractStatisticsField {
 				aggregationType);
 	}
 
+	/**
+	 * Assigns slot in packed values of bucket to packed aggregation
+	 */
+	protected void setLayout(final PackedLayout layout) {
+		if (type == FieldType.PACKED) {
+			this.layout = layout;
+			this.slot = layout.allocate(InitializerUtils.getInitialValue(
+					getFieldType(), aggregationType));
+		}
+	}
+
+	protected int getSlot() {
+		return slot;
+	}
+
+	@Override
+	protected void generateField(final CtClass clazz) throws Exception {
+		if (type == FieldType.PACKED) {
+			layout.generate(clazz);
+		} else {
+			super.generateField(clazz);
+		}
+	}
+
+	@Override
+	protected void generateGetter(final CtClass clazz) throws Exception {
+		if (type == FieldType.PACKED) {
+			clazz.addMethod(CtMethod.make(TemplateHelper.packedGetter(
+					getModifier(), generateFieldName(), getGetterCastType(),
+					slot), clazz));
+		} else {
+			super.generateGetter(clazz);
+		}
+	}
+
 	@Override
 	protected void addField(final CtClass clazz, final CtField field)
 			throws Exception {
+		if (type == FieldType.FIELD_UPDATER) {
+			field.setModifiers(field.getModifiers() | Modifier.VOLATILE);
+		}
+
 		clazz.addField(field, InitializerUtils.getInitializer(getFieldType(),
 				aggregationType));
+
+		if (type == FieldType.FIELD_UPDATER) {
+			clazz.addField(CtField.make(TemplateHelper.fieldUpdaterField(
+					clazz.getName(), field.getName(), getFieldType()), clazz));
+		}
 	}
 
-	@Override
-	protected String getAccessMethodName() {
-		return FieldUtils.getUpdaterName(getFieldName(), aggregationType);
+	protected FieldType getType() {
+		return type;
 	}
 
 	@Override
-	protected Class<?> getAccessMethodType() {
-		return getMethodType();
+	protected String getAccessMethodName() {
+		return FieldUtils.getUpdaterName(getFieldName(), aggregationType);
 	}
 
 	@Override
@@ -128,6 +195,11 @@ class AggregationStatisticsField extends AbstractStatisticsField {
 			return getAccumulatorType(originalFieldType, aggregation);
 		case ATOMIC:
 			return getAtomicType(originalFieldType);
+		case ADAPTIVE:
+			return getAdaptiveType(originalFieldType, aggregation);
+		case FIELD_UPDATER:
+		case PACKED:
+			return getFieldUpdaterType(originalFieldType);
 		default:
 			throw new IllegalStateException("Unsupported FieldType <"
 					+ fieldType + ">");
@@ -145,6 +217,19 @@ class AggregationStatisticsField extends AbstractStatisticsField {
 				+ type.getSimpleName() + ">");
 	}
 
+	private static Class<?> getFieldUpdaterType(final Class<?> type) {
+		final Class<?> result = ClassUtils.wrapperToPrimitive(type);
+
+		if (long.class.equals(result) || long.class.equals(type)) {
+			return long.class;
+		} else if (int.class.equals(result) || int.class.equals(type)) {
+			return int.class;
+		}
+
+		throw new IllegalArgumentException("Unsupported type <"
+				+ type.getSimpleName() + ">");
+	}
+
 	private static Class<?> getAccumulatorType(final Class<?> type,
 			final AggregationType aggregation) {
 		switch (aggregation) {
@@ -161,6 +246,30 @@ class AggregationStatisticsField extends AbstractStatisticsField {
 		}
 	}
 
+	private static Class<?> getAdaptiveType(final Class<?> type,
+			final AggregationType aggregation) {
+		if (!(type.equals(Long.class) || type.equals(long.class)
+				|| type.equals(Integer.class) || type.equals(int.class))
+				&& (aggregation != AggregationType.COUNT)) {
+			throw new IllegalArgumentException(
+					"Unsupported class for adaptive cell: <"
+							+ type.getSimpleName() + ">");
+		}
+
+		switch (aggregation) {
+		case MIN:
+			return AdaptiveMinAccumulator.class;
+		case MAX:
+			return AdaptiveMaxAccumulator.class;
+		case COUNT:
+		case SUM:
+			return AdaptiveAdder.class;
+		default:
+			throw new IllegalStateException("Unsupported aggregation <"
+					+ aggregation + "> for Adaptive type");
+		}
+	}
+
 	private static Class<?> getAdderType(final Class<?> type) {
 		if (type.equals(Long.class) || type.equals(long.class)
 				|| type.equals(Integer.class) || type.equals(int.class)) {
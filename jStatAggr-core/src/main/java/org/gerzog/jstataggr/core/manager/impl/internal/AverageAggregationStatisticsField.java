@@ -28,7 +28,7 @@ import org.gerzog.jstataggr.core.utils.FieldUtils;
  */
 class AverageAggregationStatisticsField extends AggregationStatisticsField {
 
-	private final AbstractStatisticsField countField;
+	private final AggregationStatisticsField countField;
 
 	public AverageAggregationStatisticsField(final String fieldName,
 			final Class<?> dataType, final AggregationType aggregationType,
@@ -39,6 +39,13 @@ class AverageAggregationStatisticsField extends AggregationStatisticsField {
 				generateFieldName(), dataType, AggregationType.COUNT, fieldType);
 	}
 
+	@Override
+	protected void setLayout(final PackedLayout layout) {
+		countField.setLayout(layout);
+
+		super.setLayout(layout);
+	}
+
 	@Override
 	public void generate(final CtClass clazz) throws Exception {
 		countField.generate(clazz);
@@ -49,16 +56,36 @@ class AverageAggregationStatisticsField extends AggregationStatisticsField {
 	// TODO: refactor this
 	@Override
 	protected String getUpdaterText() {
+		if (getType() == FieldType.PACKED) {
+			return TemplateHelper.method(getModifier(), FieldUtils
+					.getUpdaterName(getFieldName(), AggregationType.AVERAGE),
+					null, TemplateHelper.packedAverageBody(generateFieldName(),
+							getMethodType(), getSlot(), countField.getSlot())
+							+ getCountUpdaterCall(), TemplateHelper
+							.getTypeName(getMethodType()), generateFieldName());
+		}
+
+		if (getType() == FieldType.FIELD_UPDATER) {
+			return TemplateHelper.method(getModifier(), FieldUtils
+					.getUpdaterName(getFieldName(), AggregationType.AVERAGE),
+					null, TemplateHelper.fieldUpdaterAverageBody(
+							generateFieldName(), getMethodType(),
+							getFieldType()) + getCountUpdaterCall(),
+					TemplateHelper.getTypeName(getMethodType()),
+					generateFieldName());
+		}
+
 		final String averageUpdater = TemplateHelper.averageUpdater(
 				getModifier(), getFieldName(), getMethodType(), getFieldType());
 
+		return averageUpdater.replace("}", "\n") + getCountUpdaterCall() + "}";
+	}
+
+	private String getCountUpdaterCall() {
 		final String methodName = FieldUtils.getUpdaterName(
 				countField.getFieldName(), AggregationType.COUNT);
 		final String paramName = generateFieldName();
 
-		final String countUpdater = TemplateHelper.methodCall(methodName,
-				paramName);
-
-		return averageUpdater.replace("}", "\n") + countUpdater + "}";
+		return TemplateHelper.methodCall(methodName, paramName);
 	}
 }
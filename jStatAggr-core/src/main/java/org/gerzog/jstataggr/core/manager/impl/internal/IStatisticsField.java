@@ -15,8 +15,6 @@
  */
 package org.gerzog.jstataggr.core.manager.impl.internal;
 
-import java.lang.invoke.MethodHandle;
-
 import javassist.CtClass;
 
 /**
@@ -27,7 +25,7 @@ public interface IStatisticsField {
 
 	void generate(CtClass clazz) throws Exception;
 
-	MethodHandle getAccessMethodHandle(Class<?> clazz) throws Exception;
+	String getUpdateStatement(String bucketName, String valueName);
 
 	boolean isAggregator();
 
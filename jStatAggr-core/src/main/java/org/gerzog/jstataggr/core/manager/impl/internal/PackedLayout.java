@@ -0,0 +1,67 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.manager.impl.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javassist.CtClass;
+import javassist.CtField;
+
+import org.gerzog.jstataggr.core.templates.TemplateHelper;
+import org.gerzog.jstataggr.core.utils.FieldUtils;
+
+/**
+ * Assigns slots to {@link org.gerzog.jstataggr.FieldType#PACKED} aggregations
+ * of bucket. All of them are kept in single array of bucket
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public class PackedLayout {
+
+	private final List<Long> initialValues = new ArrayList<>();
+
+	protected int allocate(final long initialValue) {
+		initialValues.add(initialValue);
+
+		return initialValues.size() - 1;
+	}
+
+	public int size() {
+		return initialValues.size();
+	}
+
+	/**
+	 * Adds array of packed values to bucket, if it's not added yet
+	 */
+	protected void generate(final CtClass clazz) throws Exception {
+		for (final CtField field : clazz.getDeclaredFields()) {
+			if (field.getName().equals(FieldUtils.PACKED_FIELD_NAME)) {
+				return;
+			}
+		}
+
+		final long[] values = new long[initialValues.size()];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = initialValues.get(i);
+		}
+
+		clazz.addField(CtField.make(TemplateHelper.packedField(values), clazz));
+	}
+
+}
@@ -37,11 +37,6 @@ class StatisticsField extends AbstractStatisticsField {
 		return FieldUtils.getSetterName(generateFieldName());
 	}
 
-	@Override
-	protected Class<?> getAccessMethodType() {
-		return getFieldType();
-	}
-
 	@Override
 	public boolean isAggregator() {
 		return false;
@@ -33,18 +33,35 @@ public final class StatisticsFields {
 	}
 
 	public static IStatisticsField forAggregation(final String name, final Class<?> dataType, final AggregationType aggregationType, final FieldType fieldType) {
+		return forAggregation(name, dataType, aggregationType, fieldType, new PackedLayout());
+	}
+
+	/**
+	 * Creates aggregation field, packed aggregations of a bucket should share
+	 * the same layout
+	 */
+	public static IStatisticsField forAggregation(final String name, final Class<?> dataType, final AggregationType aggregationType, final FieldType fieldType, final PackedLayout layout) {
+		final AggregationStatisticsField result;
+
 		switch (aggregationType) {
 		case MIN:
 		case MAX:
 		case SUM:
-			return new AggregationStatisticsField(name, dataType, aggregationType, fieldType);
+			result = new AggregationStatisticsField(name, dataType, aggregationType, fieldType);
+			break;
 		case COUNT:
-			return new CountAggregationStatisticsField(name, dataType, aggregationType, fieldType);
+			result = new CountAggregationStatisticsField(name, dataType, aggregationType, fieldType);
+			break;
 		case AVERAGE:
-			return new AverageAggregationStatisticsField(name, dataType, aggregationType, fieldType);
+			result = new AverageAggregationStatisticsField(name, dataType, aggregationType, fieldType);
+			break;
 		default:
 			throw new IllegalStateException("Unsupported enum <" + aggregationType + ">");
 		}
+
+		result.setLayout(layout);
+
+		return result;
 	}
 
 }
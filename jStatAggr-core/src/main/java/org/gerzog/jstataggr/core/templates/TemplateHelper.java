@@ -16,14 +16,20 @@
 package org.gerzog.jstataggr.core.templates;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.LongAccumulator;
 import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.reflect.TypeUtils;
 import org.gerzog.jstataggr.AggregationType;
+import org.gerzog.jstataggr.core.functions.AdaptiveCell;
 import org.gerzog.jstataggr.core.functions.FunctionHelper;
 import org.gerzog.jstataggr.core.utils.FieldUtils;
 
@@ -39,6 +45,12 @@ public final class TemplateHelper {
 	private static final String APPLY_METHOD_PREFIX = FUNCTION_HELPER_PREFIX
 			+ "apply";
 
+	private static final String COUNT_METHOD_PREFIX = FUNCTION_HELPER_PREFIX
+			+ "getCount";
+
+	private static final String PACKED_FIELD_ACCESS = "this."
+			+ FieldUtils.PACKED_FIELD_NAME;
+
 	private static final String AGGREGATION_TYPE_PREFIX = AggregationType.class
 			.getTypeName() + ".";
 
@@ -67,7 +79,8 @@ public final class TemplateHelper {
 
 		if (TypeUtils.isAssignable(type, AtomicLong.class)
 				|| TypeUtils.isAssignable(type, AtomicInteger.class)
-				|| TypeUtils.isAssignable(type, LongAccumulator.class)) {
+				|| TypeUtils.isAssignable(type, LongAccumulator.class)
+				|| TypeUtils.isAssignable(type, AdaptiveCell.class)) {
 			postfix = ".get()";
 		} else if (TypeUtils.isAssignable(type, LongAdder.class)) {
 			postfix = ".sum()";
@@ -99,7 +112,7 @@ public final class TemplateHelper {
 		return builder.toString();
 	}
 
-	protected static String method(final String modifier, final String name,
+	public static String method(final String modifier, final String name,
 			final String resultType, final String body,
 			final Object... arguments) {
 		final StringBuilder builder = new StringBuilder();
@@ -112,7 +125,25 @@ public final class TemplateHelper {
 			builder.append("void");
 		}
 
-		builder.append(" ").append(name);
+		builder.append(" ");
+
+		return appendSignature(builder, name, body, arguments).toString();
+	}
+
+	public static String constructor(final String modifier,
+			final String className, final String body,
+			final Object... arguments) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(modifier).append(" ");
+
+		return appendSignature(builder, className, body, arguments)
+				.toString();
+	}
+
+	private static StringBuilder appendSignature(final StringBuilder builder,
+			final String name, final String body, final Object... arguments) {
+		builder.append(name);
 
 		builder.append("(");
 
@@ -128,7 +159,7 @@ public final class TemplateHelper {
 		}
 		builder.append(") {").append(body).append("}");
 
-		return builder.toString();
+		return builder;
 	}
 
 	public static String setter(final String modifier, final String name,
@@ -221,7 +252,193 @@ public final class TemplateHelper {
 		return builder.toString();
 	}
 
-	protected static String getTypeName(final Class<?> type) {
+	public static String fieldUpdaterField(final String className,
+			final String name, final Class<?> fieldType) {
+		final String updaterType = getFieldUpdaterType(fieldType).getName();
+
+		return "private static final " + updaterType + " "
+				+ FieldUtils.getFieldUpdaterName(name) + " = " + updaterType
+				+ ".newUpdater(" + className + ".class, " + stringLiteral(name)
+				+ ");";
+	}
+
+	private static Class<?> getFieldUpdaterType(final Class<?> fieldType) {
+		return fieldType.equals(int.class) ? AtomicIntegerFieldUpdater.class
+				: AtomicLongFieldUpdater.class;
+	}
+
+	public static String fieldUpdaterUpdater(final String modifier,
+			final String name, final Class<?> methodType,
+			final Class<?> fieldType, final AggregationType aggregationType) {
+		return method(modifier,
+				FieldUtils.getUpdaterName(name, aggregationType), null,
+				fieldUpdaterBody(name, methodType, aggregationType, fieldType),
+				getTypeName(methodType), name);
+	}
+
+	protected static String fieldUpdaterBody(final String name,
+			final Class<?> methodType, final AggregationType aggregationType,
+			final Class<?> fieldType) {
+		final String fieldName = FieldUtils.getAggregationFieldName(name,
+				aggregationType);
+
+		return atomicUpdaterBody(name, methodType, aggregationType, fieldType,
+				FieldUtils.getFieldUpdaterName(fieldName), "this", "this."
+						+ fieldName);
+	}
+
+	/**
+	 * Updates average by field updater. Average and it's count are updated
+	 * separately, same as for atomic fields
+	 */
+	public static String fieldUpdaterAverageBody(final String name,
+			final Class<?> methodType, final Class<?> fieldType) {
+		final String countFieldName = FieldUtils.getAggregationFieldName(name,
+				AggregationType.COUNT);
+
+		return atomicAverageBody(name, methodType, fieldType,
+				FieldUtils.getFieldUpdaterName(name), "this", "this." + name,
+				"this." + countFieldName);
+	}
+
+	public static String packedField(final long[] initialValues) {
+		final StringBuilder builder = new StringBuilder();
+		final String arrayType = AtomicLongArray.class.getName();
+
+		builder.append("final ").append(arrayType).append(" ")
+		.append(FieldUtils.PACKED_FIELD_NAME).append(" = new ")
+		.append(arrayType).append("(new long[] {");
+
+		for (int i = 0; i < initialValues.length; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+
+			// literal of Long.MIN_VALUE can't be negated by compiler
+			if (initialValues[i] == Long.MIN_VALUE) {
+				builder.append(Long.class.getName()).append(".MIN_VALUE");
+			} else {
+				builder.append(initialValues[i]).append("L");
+			}
+		}
+
+		return builder.append("});").toString();
+	}
+
+	public static String packedGetter(final String modifier,
+			final String name, final Class<?> returnType, final int slot) {
+		return method(modifier, FieldUtils.getGetterName(name, returnType),
+				getTypeName(returnType),
+				"return (" + returnType.getName() + ") " + packedRead(slot)
+				+ ";");
+	}
+
+	public static String packedUpdater(final String modifier,
+			final String name, final Class<?> methodType,
+			final AggregationType aggregationType, final int slot) {
+		return method(modifier,
+				FieldUtils.getUpdaterName(name, aggregationType), null,
+				packedUpdaterBody(name, methodType, aggregationType, slot),
+				getTypeName(methodType), name);
+	}
+
+	protected static String packedUpdaterBody(final String name,
+			final Class<?> methodType, final AggregationType aggregationType,
+			final int slot) {
+		return atomicUpdaterBody(name, methodType, aggregationType,
+				long.class, PACKED_FIELD_ACCESS, String.valueOf(slot),
+				packedRead(slot));
+	}
+
+	/**
+	 * Updates packed average. Average and it's count are updated separately,
+	 * same as for atomic fields
+	 */
+	public static String packedAverageBody(final String name,
+			final Class<?> methodType, final int slot, final int countSlot) {
+		return atomicAverageBody(name, methodType, long.class,
+				PACKED_FIELD_ACCESS, String.valueOf(slot), packedRead(slot),
+				packedRead(countSlot));
+	}
+
+	private static String packedRead(final int slot) {
+		return PACKED_FIELD_ACCESS + ".get(" + slot + ")";
+	}
+
+	/**
+	 * Generates update of value by atomic operations of target, which are
+	 * called with location of value as first argument
+	 */
+	private static String atomicUpdaterBody(final String name,
+			final Class<?> methodType, final AggregationType aggregationType,
+			final Class<?> valueType, final String target,
+			final String location, final String read) {
+		switch (aggregationType) {
+		case MIN:
+			final String min = cast(valueType, primitiveValue(methodType, name));
+
+			return casLoop(valueType, read, min + " >= current || ", target,
+					location, min, "return;");
+		case MAX:
+			final String max = cast(valueType, primitiveValue(methodType, name));
+
+			return casLoop(valueType, read, max + " <= current || ", target,
+					location, max, "return;");
+		case SUM:
+			return target + ".getAndAdd(" + location + ", "
+			+ cast(valueType, primitiveValue(methodType, name)) + ");";
+		case COUNT:
+			final String count = methodType.isPrimitive() ? "1"
+					: COUNT_METHOD_PREFIX + "(" + name + ")";
+
+			return target + ".getAndAdd(" + location + ", "
+			+ cast(valueType, count) + ");";
+		default:
+			throw new IllegalArgumentException("<" + aggregationType
+					+ "> is not supported by atomic updaters");
+		}
+	}
+
+	private static String atomicAverageBody(final String name,
+			final Class<?> methodType, final Class<?> valueType,
+			final String target, final String location, final String read,
+			final String countRead) {
+		final String value = cast(valueType, primitiveValue(methodType, name));
+
+		final String average = methodCall(APPLY_METHOD_PREFIX, value,
+				countRead, "current");
+
+		return casLoop(valueType, read, StringUtils.EMPTY, target, location,
+				StringUtils.removeEnd(average, ";"), "break;");
+	}
+
+	/**
+	 * Repeats compare-and-set of value until it succeeds or update is skipped
+	 */
+	private static String casLoop(final Class<?> valueType, final String read,
+			final String skipCondition, final String target,
+			final String location, final String value, final String exit) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append("while (true) {")
+		.append(variable(valueType, "current", read)).append("if (")
+		.append(skipCondition).append(target).append(".compareAndSet(")
+		.append(location).append(", current, ").append(value)
+		.append(")) { ").append(exit).append(" }}");
+
+		return builder.toString();
+	}
+
+	private static String primitiveValue(final Class<?> type, final String value) {
+		if (type.isPrimitive()) {
+			return value;
+		}
+
+		return value + "." + ClassUtils.wrapperToPrimitive(type).getName()
+				+ "Value()";
+	}
+
+	public static String getTypeName(final Class<?> type) {
 		if (type == null) {
 			return null;
 		}
@@ -232,6 +449,54 @@ public final class TemplateHelper {
 		return type.getName();
 	}
 
+	public static String variable(final Class<?> type, final String name,
+			final String value) {
+		return variable(getTypeName(type), name, value);
+	}
+
+	public static String variable(final String typeName, final String name,
+			final String value) {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(typeName).append(" ").append(name)
+		.append(" = ").append(value).append(";");
+
+		return builder.toString();
+	}
+
+	public static String cast(final Class<?> type, final String value) {
+		return cast(getTypeName(type), value);
+	}
+
+	public static String cast(final String typeName, final String value) {
+		return "((" + typeName + ") " + value + ")";
+	}
+
+	public static String box(final Class<?> type, final String value) {
+		if (type.isPrimitive()) {
+			return ClassUtils.primitiveToWrapper(type).getName() + ".valueOf("
+					+ value + ")";
+		}
+
+		return value;
+	}
+
+	public static String unbox(final Class<?> type, final String value) {
+		if (type.isPrimitive()) {
+			final Class<?> wrapper = ClassUtils.primitiveToWrapper(type);
+			final Class<?> castType = Number.class.isAssignableFrom(wrapper) ? Number.class
+					: wrapper;
+
+			return cast(castType, value) + "." + type.getName() + "Value()";
+		}
+
+		return cast(type, value);
+	}
+
+	public static String stringLiteral(final String value) {
+		return "\"" + StringEscapeUtils.escapeJava(value) + "\"";
+	}
+
 	public static String methodCall(final String methodName,
 			final String... paramNames) {
 		final StringBuilder builder = new StringBuilder();
@@ -0,0 +1,265 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.utils;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Concurrent map with primitive long keys based on open addressing.
+ *
+ * Map is split into segments; reads are lock-free while modifications lock a
+ * single segment. Removed entries are marked with tombstones that are cleaned
+ * on next rehash of segment, so slots are never reused by another key within
+ * the same table.
+ *
+ * Null values are not supported
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public class ConcurrentLongHashMap<V> {
+
+	private static final int SEGMENT_COUNT = 16;
+
+	private static final int SEGMENT_SHIFT = 28;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final Object TOMBSTONE = new Object();
+
+	private static final class Table {
+
+		private final long[] keys;
+
+		private final AtomicReferenceArray<Object> values;
+
+		private final int mask;
+
+		public Table(final int capacity) {
+			this.keys = new long[capacity];
+			this.values = new AtomicReferenceArray<>(capacity);
+			this.mask = capacity - 1;
+		}
+
+		public int capacity() {
+			return keys.length;
+		}
+
+	}
+
+	private static final class Segment {
+
+		private volatile Table table = new Table(INITIAL_CAPACITY);
+
+		private int size;
+
+		private int tombstones;
+
+		public Object get(final long key, final int hash) {
+			final Table current = table;
+
+			for (int i = hash & current.mask;; i = (i + 1) & current.mask) {
+				final Object value = current.values.get(i);
+
+				if (value == null) {
+					return null;
+				}
+
+				if ((value != TOMBSTONE) && (current.keys[i] == key)) {
+					return value;
+				}
+			}
+		}
+
+		public synchronized Object putIfAbsent(final long key, final int hash,
+				final Object value) {
+			final Object existing = get(key, hash);
+
+			if (existing != null) {
+				return existing;
+			}
+
+			// table is kept at most half-full including tombstones
+			if (((size + tombstones + 1) << 1) > table.capacity()) {
+				rehash();
+			}
+
+			final Table current = table;
+
+			int i = hash & current.mask;
+
+			while (current.values.get(i) != null) {
+				i = (i + 1) & current.mask;
+			}
+
+			// key is published by volatile write of value
+			current.keys[i] = key;
+			current.values.set(i, value);
+
+			size++;
+
+			return null;
+		}
+
+		public synchronized Object remove(final long key, final int hash) {
+			final Table current = table;
+
+			for (int i = hash & current.mask;; i = (i + 1) & current.mask) {
+				final Object value = current.values.get(i);
+
+				if (value == null) {
+					return null;
+				}
+
+				if ((value != TOMBSTONE) && (current.keys[i] == key)) {
+					current.values.set(i, TOMBSTONE);
+
+					size--;
+					tombstones++;
+
+					return value;
+				}
+			}
+		}
+
+		private void rehash() {
+			final Table current = table;
+
+			int capacity = current.capacity();
+
+			while (((size + 1) << 1) > capacity) {
+				capacity <<= 1;
+			}
+
+			final Table result = new Table(capacity);
+
+			for (int i = 0; i < current.capacity(); i++) {
+				final Object value = current.values.get(i);
+
+				if ((value != null) && (value != TOMBSTONE)) {
+					final long key = current.keys[i];
+
+					int j = hash(key) & result.mask;
+
+					while (result.values.get(j) != null) {
+						j = (j + 1) & result.mask;
+					}
+
+					result.keys[j] = key;
+					result.values.set(j, value);
+				}
+			}
+
+			tombstones = 0;
+			table = result;
+		}
+
+		public synchronized int size() {
+			return size;
+		}
+
+		@SuppressWarnings("unchecked")
+		public <V> void forEach(final ObjLongConsumer<V> consumer) {
+			final Table current = table;
+
+			for (int i = 0; i < current.capacity(); i++) {
+				final Object value = current.values.get(i);
+
+				if ((value != null) && (value != TOMBSTONE)) {
+					consumer.accept((V) value, current.keys[i]);
+				}
+			}
+		}
+
+	}
+
+	private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+	public ConcurrentLongHashMap() {
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(final long key) {
+		final int hash = hash(key);
+
+		return (V) segmentFor(hash).get(key, hash);
+	}
+
+	/**
+	 * Puts value if there is no value for key yet
+	 *
+	 * @return existing value or null if value was put
+	 */
+	@SuppressWarnings("unchecked")
+	public V putIfAbsent(final long key, final V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Value cannot be null");
+		}
+
+		final int hash = hash(key);
+
+		return (V) segmentFor(hash).putIfAbsent(key, hash, value);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V remove(final long key) {
+		final int hash = hash(key);
+
+		return (V) segmentFor(hash).remove(key, hash);
+	}
+
+	public int size() {
+		int result = 0;
+
+		for (final Segment segment : segments) {
+			result += segment.size();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Passes all values with their keys to consumer. Modifications made
+	 * during iteration may be not visible
+	 */
+	public void forEach(final ObjLongConsumer<V> consumer) {
+		for (final Segment segment : segments) {
+			segment.forEach(consumer);
+		}
+	}
+
+	private Segment segmentFor(final int hash) {
+		return segments[hash >>> SEGMENT_SHIFT];
+	}
+
+	private static int hash(final long key) {
+		// finalizer of MurmurHash3 spreads sequential keys over the table
+		long h = key;
+
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+
+		return (int) h;
+	}
+
+}
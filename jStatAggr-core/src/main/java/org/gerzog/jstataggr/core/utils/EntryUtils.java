@@ -0,0 +1,134 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.utils;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.gerzog.jstataggr.core.utils.Throwables.propogate;
+
+import java.io.File;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.lang3.StringUtils;
+import org.gerzog.jstataggr.annotations.StatisticsEntry;
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public final class EntryUtils {
+
+	private static final String NO_ANNOTATION_MESSAGE = "%s class is not marked with mandatory annotation @StatisticsEntry";
+
+	private static final String CLASS_FILE_POSTFIX = ".class";
+
+	private EntryUtils() {
+
+	}
+
+	/**
+	 * Returns name of statistics defined by {@link StatisticsEntry} or simple
+	 * name of class
+	 */
+	public static String getStatisticsName(final Class<?> clazz) {
+		final StatisticsEntry annotation = clazz.getAnnotation(StatisticsEntry.class);
+
+		final String className = clazz.getSimpleName();
+
+		isTrue(annotation != null, NO_ANNOTATION_MESSAGE, className);
+
+		final String entryName = annotation.value();
+
+		return StringUtils.isEmpty(entryName) ? className : entryName;
+	}
+
+	/**
+	 * Finds classes marked with {@link StatisticsEntry} in package and it's
+	 * subpackages. Directories and jar files of class path are scanned
+	 */
+	public static Collection<Class<?>> findStatisticsEntries(final ClassLoader classLoader, final String packageName) {
+		final String path = packageName.replace('.', '/');
+		final Collection<String> classNames = new LinkedHashSet<>();
+
+		propogate(() -> {
+			final Enumeration<URL> resources = classLoader.getResources(path);
+
+			while (resources.hasMoreElements()) {
+				final URL resource = resources.nextElement();
+
+				if ("jar".equals(resource.getProtocol())) {
+					findJarClasses(resource, path, classNames);
+				} else {
+					findDirectoryClasses(new File(URLDecoder.decode(resource.getFile(), "UTF-8")), packageName, classNames);
+				}
+			}
+		});
+
+		final List<Class<?>> result = new ArrayList<>();
+
+		for (final String className : classNames) {
+			final Class<?> clazz = propogate(() -> Class.forName(className, false, classLoader));
+
+			if (clazz.isAnnotationPresent(StatisticsEntry.class)) {
+				result.add(clazz);
+			}
+		}
+
+		return result;
+	}
+
+	private static void findJarClasses(final URL resource, final String path, final Collection<String> classNames) throws Exception {
+		final JarURLConnection connection = (JarURLConnection) resource.openConnection();
+		connection.setUseCaches(false);
+
+		try (JarFile jar = connection.getJarFile()) {
+			final Enumeration<JarEntry> entries = jar.entries();
+
+			while (entries.hasMoreElements()) {
+				final String name = entries.nextElement().getName();
+
+				if (name.startsWith(path + "/") && name.endsWith(CLASS_FILE_POSTFIX)) {
+					classNames.add(StringUtils.removeEnd(name, CLASS_FILE_POSTFIX).replace('/', '.'));
+				}
+			}
+		}
+	}
+
+	private static void findDirectoryClasses(final File directory, final String packageName, final Collection<String> classNames) {
+		final File[] files = directory.listFiles();
+
+		if (files == null) {
+			return;
+		}
+
+		for (final File file : files) {
+			if (file.isDirectory()) {
+				findDirectoryClasses(file, packageName + "." + file.getName(), classNames);
+			} else if (file.getName().endsWith(CLASS_FILE_POSTFIX)) {
+				classNames.add(packageName + "." + StringUtils.removeEnd(file.getName(), CLASS_FILE_POSTFIX));
+			}
+		}
+	}
+
+}
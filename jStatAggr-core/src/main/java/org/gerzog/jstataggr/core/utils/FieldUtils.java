@@ -26,6 +26,8 @@ import org.gerzog.jstataggr.AggregationType;
  */
 public final class FieldUtils {
 
+	public static final String PACKED_FIELD_NAME = "packedValues";
+
 	private static final String DEFAULT_GETTER_PREFIX = "get";
 
 	private static final String DEFAULT_SETTER_PREFIX = "set";
@@ -34,6 +36,8 @@ public final class FieldUtils {
 
 	private static final String UPDATER_PREFIX = "update";
 
+	private static final String FIELD_UPDATER_POSTFIX = "Updater";
+
 	private FieldUtils() {
 
 	}
@@ -58,6 +62,10 @@ public final class FieldUtils {
 		return UPDATER_PREFIX + StringUtils.capitalize(getAggregationFieldName(name, aggregationType));
 	}
 
+	public static String getFieldUpdaterName(final String name) {
+		return name + FIELD_UPDATER_POSTFIX;
+	}
+
 	public static String getAggregationFieldName(final String name, final AggregationType aggregationType) {
 		return name + getAggregationPostfix(aggregationType);
 	}
@@ -22,6 +22,9 @@ import java.util.concurrent.atomic.LongAdder;
 import javassist.CtField.Initializer;
 
 import org.gerzog.jstataggr.AggregationType;
+import org.gerzog.jstataggr.core.functions.AdaptiveAdder;
+import org.gerzog.jstataggr.core.functions.AdaptiveMaxAccumulator;
+import org.gerzog.jstataggr.core.functions.AdaptiveMinAccumulator;
 import org.gerzog.jstataggr.core.functions.MaxAccumulator;
 import org.gerzog.jstataggr.core.functions.MinAccumulator;
 
@@ -54,6 +57,27 @@ public final class InitializerUtils {
 		}
 	}
 
+	/**
+	 * Returns initial value of aggregation kept as long, e.g. in packed values
+	 * of bucket
+	 */
+	public static long getInitialValue(final Class<?> type, final AggregationType aggregation) {
+		final boolean isInt = type.equals(Integer.class) || type.equals(int.class);
+
+		switch (aggregation) {
+		case MIN:
+			return isInt ? Integer.MAX_VALUE : Long.MAX_VALUE;
+		case MAX:
+			return isInt ? Integer.MIN_VALUE : Long.MIN_VALUE;
+		case SUM:
+		case COUNT:
+		case AVERAGE:
+			return ZERO_LONG;
+		default:
+			throw new IllegalArgumentException("Initial value for <" + aggregation + "> is not yet defined");
+		}
+	}
+
 	private static Initializer getMinValueInitializer(final Class<?> type) throws Exception {
 		if (type.equals(Integer.class) || type.equals(int.class)) {
 			return Initializer.constant(Integer.MIN_VALUE);
@@ -65,6 +89,8 @@ public final class InitializerUtils {
 			return atomicLongInitializer(Long.MIN_VALUE);
 		} else if (type.equals(MaxAccumulator.class)) {
 			return Initializer.byExpr("new " + MaxAccumulator.class.getName() + "()");
+		} else if (type.equals(AdaptiveMaxAccumulator.class)) {
+			return Initializer.byExpr("new " + AdaptiveMaxAccumulator.class.getName() + "()");
 		}
 
 		throw new IllegalArgumentException("Initialzer for <" + type.getSimpleName() + "> class is not yet defined");
@@ -81,6 +107,8 @@ public final class InitializerUtils {
 			return atomicLongInitializer(Long.MAX_VALUE);
 		} else if (type.equals(MinAccumulator.class)) {
 			return Initializer.byExpr("new " + MinAccumulator.class.getName() + "()");
+		} else if (type.equals(AdaptiveMinAccumulator.class)) {
+			return Initializer.byExpr("new " + AdaptiveMinAccumulator.class.getName() + "()");
 		}
 
 		throw new IllegalArgumentException("Initialzer for <" + type.getSimpleName() + "> class is not yet defined");
@@ -101,6 +129,8 @@ public final class InitializerUtils {
 			return Initializer.constant(ZERO_LONG);
 		} else if (type.equals(LongAdder.class)) {
 			return Initializer.byExpr("new " + LongAdder.class.getName() + "()");
+		} else if (type.equals(AdaptiveAdder.class)) {
+			return Initializer.byExpr("new " + AdaptiveAdder.class.getName() + "()");
 		} else if (type.equals(AtomicLong.class)) {
 			return atomicLongInitializer(ZERO_LONG);
 		} else if (type.equals(AtomicInteger.class)) {
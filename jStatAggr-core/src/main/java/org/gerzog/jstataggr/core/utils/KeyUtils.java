@@ -0,0 +1,164 @@
+/**
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.utils;
+
+import java.util.Objects;
+
+/**
+ * Hash, equality, index and packing functions used by generated statistics
+ * keys and updaters
+ *
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+public final class KeyUtils {
+
+	private static final int TRUE_HASH = 1231;
+
+	private static final int FALSE_HASH = 1237;
+
+	private KeyUtils() {
+
+	}
+
+	public static int hash(final int value) {
+		return value;
+	}
+
+	public static int hash(final long value) {
+		return (int) (value ^ (value >>> 32));
+	}
+
+	public static int hash(final short value) {
+		return value;
+	}
+
+	public static int hash(final byte value) {
+		return value;
+	}
+
+	public static int hash(final char value) {
+		return value;
+	}
+
+	public static int hash(final boolean value) {
+		return value ? TRUE_HASH : FALSE_HASH;
+	}
+
+	public static int hash(final float value) {
+		return Float.floatToIntBits(value);
+	}
+
+	public static int hash(final double value) {
+		return hash(Double.doubleToLongBits(value));
+	}
+
+	public static int hash(final Object value) {
+		return Objects.hashCode(value);
+	}
+
+	public static boolean equals(final int value1, final int value2) {
+		return value1 == value2;
+	}
+
+	public static boolean equals(final long value1, final long value2) {
+		return value1 == value2;
+	}
+
+	public static boolean equals(final short value1, final short value2) {
+		return value1 == value2;
+	}
+
+	public static boolean equals(final byte value1, final byte value2) {
+		return value1 == value2;
+	}
+
+	public static boolean equals(final char value1, final char value2) {
+		return value1 == value2;
+	}
+
+	public static boolean equals(final boolean value1, final boolean value2) {
+		return value1 == value2;
+	}
+
+	public static boolean equals(final float value1, final float value2) {
+		return Float.floatToIntBits(value1) == Float.floatToIntBits(value2);
+	}
+
+	public static boolean equals(final double value1, final double value2) {
+		return Double.doubleToLongBits(value1) == Double
+				.doubleToLongBits(value2);
+	}
+
+	public static boolean equals(final Object value1, final Object value2) {
+		return Objects.equals(value1, value2);
+	}
+
+	public static int index(final boolean value) {
+		return value ? 1 : 0;
+	}
+
+	public static int index(final Boolean value) {
+		if (value == null) {
+			return 0;
+		}
+
+		return value.booleanValue() ? 2 : 1;
+	}
+
+	public static int index(final Enum<?> value) {
+		// zero index is reserved for null
+		return value == null ? 0 : value.ordinal() + 1;
+	}
+
+	public static int index(final long value, final long lowerBound,
+			final long upperBound) {
+		if ((value < lowerBound) || (value > upperBound)) {
+			return -1;
+		}
+
+		return (int) (value - lowerBound);
+	}
+
+	public static int index(final Number value, final long lowerBound,
+			final long upperBound) {
+		return value == null ? -1 : index(value.longValue(), lowerBound,
+				upperBound);
+	}
+
+	public static int index(final Character value, final long lowerBound,
+			final long upperBound) {
+		return value == null ? -1 : index(value.charValue(), lowerBound,
+				upperBound);
+	}
+
+	public static long pack(final int value) {
+		return value & 0xFFFFFFFFL;
+	}
+
+	public static long pack(final long value) {
+		return value;
+	}
+
+	public static long pack(final float value) {
+		return pack(Float.floatToIntBits(value));
+	}
+
+	public static long pack(final double value) {
+		return Double.doubleToLongBits(value);
+	}
+
+}
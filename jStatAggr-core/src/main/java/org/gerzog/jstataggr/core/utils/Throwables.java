@@ -31,6 +31,16 @@ public final class Throwables {
 		T call() throws Throwable;
 	}
 
+	@FunctionalInterface
+	public interface IntCallable {
+		int call() throws Throwable;
+	}
+
+	@FunctionalInterface
+	public interface LongCallable {
+		long call() throws Throwable;
+	}
+
 	@FunctionalInterface
 	public static interface ExceptionHandler<E> {
 		E handle(Throwable t);
@@ -51,6 +61,27 @@ public final class Throwables {
 		return propogate(callable, RuntimeException::new);
 	}
 
+	// LN: primitive versions avoid boxing of results on hot paths
+	public static int propogateInt(IntCallable callable) throws RuntimeException {
+		try {
+			return callable.call();
+		} catch (final RuntimeException e) {
+			throw e;
+		} catch (final Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static long propogateLong(LongCallable callable) throws RuntimeException {
+		try {
+			return callable.call();
+		} catch (final RuntimeException e) {
+			throw e;
+		} catch (final Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public static <T, E extends Throwable> T propogate(Callable<T> callable,
 			ExceptionHandler<E> handler) throws E {
 		try {
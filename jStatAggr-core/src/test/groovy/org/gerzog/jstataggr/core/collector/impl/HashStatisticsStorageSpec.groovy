@@ -0,0 +1,129 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl
+
+import org.gerzog.jstataggr.IStatisticsFilter
+import org.gerzog.jstataggr.IStatisticsKey
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class HashStatisticsStorageSpec extends Specification {
+
+	AbstractStatisticsUpdater updater = Mock(AbstractStatisticsUpdater)
+
+	HashStatisticsStorage storage = Spy(HashStatisticsStorage, constructorArgs: [updater])
+
+	Object statisticsData = new Object()
+
+	Object statisticsBucket = new Object()
+
+	IStatisticsKey key = Mock(IStatisticsKey)
+
+	AbstractStatisticsProbeKey probeKey = Mock(AbstractStatisticsProbeKey)
+
+	def "check bucket found"() {
+		setup:
+		storage.statistics.put(probeKey, statisticsBucket)
+
+		when:
+		def bucket = storage.getStatisticsBucket(statisticsData)
+
+		then:
+		1 * storage.generateProbeKey(statisticsData) >> probeKey
+		0 * probeKey.toKey()
+		0 * storage.generateStatisticsBucket(_, _)
+		bucket != null
+	}
+
+	def "check bucket not found and generated"() {
+		when:
+		def bucket = storage.getStatisticsBucket(statisticsData)
+
+		then:
+		1 * storage.generateProbeKey(statisticsData) >> probeKey
+		1 * probeKey.toKey() >> key
+		1 * storage.generateStatisticsBucket(key, statisticsData) >> statisticsBucket
+		bucket != null
+	}
+
+	def "check generated bucket is stored"() {
+		when:
+		def bucket = storage.generateStatisticsBucket(key, statisticsData)
+
+		then:
+		1 * updater.createBucket(key) >> statisticsBucket
+		bucket.is(statisticsBucket)
+		storage.statistics.get(key).is(statisticsBucket)
+	}
+
+	def "check statistics collection for all available keys"() {
+		setup:
+		IStatisticsFilter filter = Mock(IStatisticsFilter)
+		filter.isApplied(_ as IStatisticsKey) >> true
+
+		storage.statistics.put(Mock(IStatisticsKey), new Object())
+		storage.statistics.put(Mock(IStatisticsKey), new Object())
+
+		def result = []
+
+		when:
+		storage.collectStatistics(filter, false, { result << it })
+
+		then:
+		result.size() == 2
+		storage.statistics.size() == 2
+	}
+
+	def "check statistics collection for all available keys with cleanup"() {
+		setup:
+		IStatisticsFilter filter = Mock(IStatisticsFilter)
+		filter.isApplied(_ as IStatisticsKey) >> true
+
+		storage.statistics.put(Mock(IStatisticsKey), new Object())
+		storage.statistics.put(Mock(IStatisticsKey), new Object())
+
+		def result = []
+
+		when:
+		storage.collectStatistics(filter, true, { result << it })
+
+		then:
+		result.size() == 2
+		storage.statistics.size() == 0
+	}
+
+	def "check statistics collection for selected keys with cleanup"() {
+		setup:
+		IStatisticsFilter filter = Mock(IStatisticsFilter)
+		filter.isApplied(key) >> true
+
+		storage.statistics.put(key, new Object())
+		storage.statistics.put(Mock(IStatisticsKey), new Object())
+
+		def result = []
+
+		when:
+		storage.collectStatistics(filter, true, { result << it })
+
+		then:
+		result.size() == 1
+		storage.statistics.size() == 1
+	}
+}
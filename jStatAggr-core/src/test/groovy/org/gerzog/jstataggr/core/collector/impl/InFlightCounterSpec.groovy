@@ -0,0 +1,65 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class InFlightCounterSpec extends Specification {
+
+	InFlightCounter counter = new InFlightCounter(4)
+
+	def "check counter is empty after leave"() {
+		when:
+		counter.enter()
+
+		then:
+		!counter.isEmpty()
+
+		when:
+		counter.leave()
+
+		then:
+		counter.isEmpty()
+	}
+
+	def "check counter awaits other threads"() {
+		setup:
+		def entered = new Object()
+		def thread = Thread.start {
+			counter.enter()
+			synchronized (entered) {
+				entered.notify()
+			}
+			sleep(100)
+			counter.leave()
+		}
+		synchronized (entered) {
+			while (counter.isEmpty()) {
+				entered.wait(10)
+			}
+		}
+
+		when:
+		counter.awaitEmpty()
+
+		then:
+		!thread.isAlive() || counter.isEmpty()
+	}
+}
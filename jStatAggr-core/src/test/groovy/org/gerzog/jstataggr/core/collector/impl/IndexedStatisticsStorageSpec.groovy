@@ -0,0 +1,140 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl
+
+import org.gerzog.jstataggr.IStatisticsFilter
+import org.gerzog.jstataggr.IStatisticsKey
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class IndexedStatisticsStorageSpec extends Specification {
+
+	enum Level {
+		LOW, HIGH
+	}
+
+	AbstractStatisticsUpdater updater = Mock(AbstractStatisticsUpdater)
+
+	IStatisticsStorage fallback = Mock(IStatisticsStorage)
+
+	IndexedStatisticsStorage storage = Spy(IndexedStatisticsStorage, constructorArgs: [updater, 4, fallback])
+
+	Object statisticsData = new Object()
+
+	Object statisticsBucket = new Object()
+
+	IStatisticsKey key = Mock(IStatisticsKey)
+
+	FieldInfo createInfo(Class<?> type, long min = Long.MIN_VALUE, long max = Long.MAX_VALUE) {
+		def result = new FieldInfo('field', type, null, null)
+		result.setRange(min, max)
+
+		result
+	}
+
+	def "check bucket found by index"() {
+		setup:
+		storage.buckets.set(2, statisticsBucket)
+
+		when:
+		def bucket = storage.getStatisticsBucket(statisticsData)
+
+		then:
+		1 * updater.index(statisticsData) >> 2
+		0 * storage.generateStatisticsBucket(_, _)
+		bucket.is(statisticsBucket)
+	}
+
+	def "check bucket not found and generated"() {
+		when:
+		def bucket = storage.getStatisticsBucket(statisticsData)
+
+		then:
+		1 * updater.index(statisticsData) >> 2
+		1 * updater.extractKey(statisticsData) >> key
+		1 * updater.createBucket(key) >> statisticsBucket
+		bucket.is(statisticsBucket)
+		storage.buckets.get(2).is(statisticsBucket)
+		storage.keys.get(2).is(key)
+	}
+
+	def "check key is not extracted for known index"() {
+		setup:
+		storage.keys.set(2, key)
+
+		when:
+		storage.getStatisticsBucket(statisticsData)
+
+		then:
+		1 * updater.index(statisticsData) >> 2
+		0 * updater.extractKey(_)
+		1 * updater.createBucket(key) >> statisticsBucket
+	}
+
+	def "check fallback used for not indexed entry"() {
+		when:
+		def bucket = storage.getStatisticsBucket(statisticsData)
+
+		then:
+		1 * updater.index(statisticsData) >> -1
+		1 * fallback.getStatisticsBucket(statisticsData) >> statisticsBucket
+		bucket.is(statisticsBucket)
+	}
+
+	def "check statistics collection with cleanup"() {
+		setup:
+		IStatisticsKey another = Mock(IStatisticsKey)
+		IStatisticsFilter filter = Mock(IStatisticsFilter)
+		filter.isApplied(key) >> true
+
+		storage.keys.set(0, key)
+		storage.buckets.set(0, statisticsBucket)
+		storage.keys.set(3, another)
+		storage.buckets.set(3, new Object())
+
+		def result = []
+
+		when:
+		storage.collectStatistics(filter, true, { result << it })
+
+		then:
+		result == [statisticsBucket]
+		storage.buckets.get(0) == null
+		storage.buckets.get(3) != null
+		1 * fallback.collectStatistics(filter, true, _)
+	}
+
+	def "check capacity calculation"() {
+		expect:
+		IndexedStatisticsStorage.getCapacity(keys) == capacity
+
+		where:
+		keys                                                  | capacity
+		[]                                                    | 1
+		[createInfo(Level)]                                   | 3
+		[createInfo(Level), createInfo(boolean)]              | 6
+		[createInfo(Boolean), createInfo(int, -5, 4)]         | 30
+		[createInfo(byte)]                                    | 256
+		[createInfo(int)]                                     | -1
+		[createInfo(Long, 0, Long.MAX_VALUE)]                 | -1
+		[createInfo(String)]                                  | -1
+		[createInfo(short), createInfo(short)]                | -1
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class InstancePoolSpec extends Specification {
+
+	int created
+
+	InstancePool<Object> pool = new InstancePool<>({
+		created++
+		new Object()
+	}, 4)
+
+	def "check released instance reused"() {
+		when:
+		def first = pool.acquire()
+		pool.release(first)
+		def second = pool.acquire()
+
+		then:
+		second.is(first)
+		created == 1
+	}
+
+	def "check instance not shared while acquired"() {
+		when:
+		def first = pool.acquire()
+		def second = pool.acquire()
+
+		then:
+		!second.is(first)
+		created == 2
+	}
+
+	def "check pooled instances dropped on clear"() {
+		setup:
+		def first = pool.acquire()
+		pool.release(first)
+
+		when:
+		pool.clear()
+
+		then:
+		!pool.acquire().is(first)
+		created == 2
+	}
+}
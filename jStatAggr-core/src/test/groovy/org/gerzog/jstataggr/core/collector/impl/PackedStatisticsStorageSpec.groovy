@@ -0,0 +1,159 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl
+
+import org.gerzog.jstataggr.IStatisticsFilter
+import org.gerzog.jstataggr.IStatisticsKey
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class PackedStatisticsStorageSpec extends Specification {
+
+	enum Level {
+		LOW, MEDIUM, HIGH
+	}
+
+	AbstractStatisticsUpdater updater = Mock(AbstractStatisticsUpdater)
+
+	IStatisticsStorage fallback = Mock(IStatisticsStorage)
+
+	PackedStatisticsStorage storage = Spy(PackedStatisticsStorage, constructorArgs: [updater, true, fallback])
+
+	Object statisticsData = new Object()
+
+	Object statisticsBucket = new Object()
+
+	IStatisticsKey key = Mock(IStatisticsKey)
+
+	FieldInfo createInfo(Class<?> type, long min = Long.MIN_VALUE, long max = Long.MAX_VALUE) {
+		def result = new FieldInfo('field', type, null, null)
+		result.setRange(min, max)
+
+		result
+	}
+
+	def "check bucket found by packed key"() {
+		setup:
+		storage.statistics.putIfAbsent(5l, statisticsBucket)
+
+		when:
+		def bucket = storage.getStatisticsBucket(statisticsData)
+
+		then:
+		1 * updater.pack(statisticsData) >> 5l
+		0 * storage.generateStatisticsBucket(_, _)
+		bucket.is(statisticsBucket)
+	}
+
+	def "check bucket not found and generated"() {
+		when:
+		def bucket = storage.getStatisticsBucket(statisticsData)
+
+		then:
+		1 * updater.pack(statisticsData) >> 5l
+		1 * updater.extractKey(statisticsData) >> key
+		1 * updater.createBucket(key) >> statisticsBucket
+		bucket.is(statisticsBucket)
+		storage.statistics.get(5l).is(statisticsBucket)
+	}
+
+	def "check consecutive entries with same key looked up once in batch"() {
+		setup:
+		def action = Mock(java.util.function.BiConsumer)
+		def otherData = new Object()
+		def otherBucket = new Object()
+		storage.statistics.putIfAbsent(5l, statisticsBucket)
+		storage.statistics.putIfAbsent(6l, otherBucket)
+
+		when:
+		storage.updateStatistics([statisticsData, statisticsData, otherData, statisticsData], action)
+
+		then:
+		3 * updater.pack(statisticsData) >> 5l
+		1 * updater.pack(otherData) >> 6l
+		3 * action.accept(statisticsBucket, statisticsData)
+		1 * action.accept(otherBucket, otherData)
+		0 * storage.generateStatisticsBucket(_, _)
+	}
+
+	def "check fallback used for keys out of range"() {
+		when:
+		def bucket = storage.getStatisticsBucket(statisticsData)
+
+		then:
+		1 * updater.pack(statisticsData) >> -1l
+		1 * fallback.getStatisticsBucket(statisticsData) >> statisticsBucket
+		bucket.is(statisticsBucket)
+	}
+
+	def "check negative keys stored if range is not checked"() {
+		setup:
+		storage = new PackedStatisticsStorage(updater, false, fallback)
+
+		when:
+		storage.getStatisticsBucket(statisticsData)
+
+		then:
+		1 * updater.pack(statisticsData) >> -1l
+		0 * fallback.getStatisticsBucket(_)
+		1 * updater.createBucket(_) >> statisticsBucket
+	}
+
+	def "check statistics collection with cleanup"() {
+		setup:
+		def another = new Object()
+		IStatisticsFilter filter = Mock(IStatisticsFilter)
+		filter.isApplied(key) >> true
+
+		updater.extractBucketKey(statisticsBucket) >> key
+		updater.extractBucketKey(another) >> Mock(IStatisticsKey)
+
+		storage.statistics.putIfAbsent(1l, statisticsBucket)
+		storage.statistics.putIfAbsent(2l, another)
+
+		def result = []
+
+		when:
+		storage.collectStatistics(filter, true, { result << it })
+
+		then:
+		result == [statisticsBucket]
+		storage.statistics.size() == 1
+		1 * fallback.collectStatistics(filter, true, _)
+	}
+
+	def "check packed width calculation"() {
+		expect:
+		PackedStatisticsStorage.getPackedWidth(keys) == width
+
+		where:
+		keys															| width
+		[createInfo(Level)]												| 2
+		[createInfo(Level), createInfo(int), createInfo(int)]			| -1
+		[createInfo(Level), createInfo(int), createInfo(boolean)]		| 35
+		[createInfo(long)]												| 64
+		[createInfo(long), createInfo(boolean)]							| -1
+		[createInfo(int), createInfo(int, 0, 1l << 31)]					| 64
+		[createInfo(int), createInfo(int, 0, 1000)]						| 42
+		[createInfo(Integer)]											| -1
+		[createInfo(double), createInfo(byte)]							| -1
+		[createInfo(float), createInfo(short)]							| 48
+	}
+}
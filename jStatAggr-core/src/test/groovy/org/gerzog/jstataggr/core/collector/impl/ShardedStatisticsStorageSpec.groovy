@@ -0,0 +1,125 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl
+
+import java.util.function.BiConsumer
+
+import org.gerzog.jstataggr.IStatisticsFilter
+import org.gerzog.jstataggr.IStatisticsKey
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class ShardedStatisticsStorageSpec extends Specification {
+
+	AbstractStatisticsUpdater updater = Mock(AbstractStatisticsUpdater)
+
+	List<IStatisticsStorage> shardStorages = []
+
+	// threads of spec have close ids, so they never share one of many shards
+	ShardedStatisticsStorage storage = new ShardedStatisticsStorage(updater, {
+		def result = Mock(IStatisticsStorage)
+		shardStorages << result
+		result
+	}, 1024)
+
+	Object statisticsData = new Object()
+
+	IStatisticsKey key = Mock(IStatisticsKey)
+
+	def "check threads update own shards"() {
+		setup:
+		def action = Mock(BiConsumer)
+
+		when:
+		storage.updateStatistics(statisticsData, action)
+		Thread.start { storage.updateStatistics(statisticsData, action) }.join()
+		storage.updateStatistics(statisticsData, action)
+
+		then:
+		shardStorages.size() == 2
+		storage.shards.size() == 2
+	}
+
+	def "check buckets of shards merged into new bucket"() {
+		setup:
+		def bucket1 = new Object()
+		def bucket2 = new Object()
+		def merged = new Object()
+		def result = []
+
+		createShards(bucket1, bucket2)
+
+		updater.extractBucketKey(_) >> key
+
+		when:
+		storage.collectStatistics(IStatisticsFilter.ALL, false, { result << it })
+
+		then:
+		1 * updater.createBucket(key) >> merged
+		1 * updater.merge(merged, bucket1)
+		1 * updater.merge(merged, bucket2)
+		result == [merged]
+	}
+
+	def "check removed bucket reused on cleanup"() {
+		setup:
+		def bucket1 = new Object()
+		def bucket2 = new Object()
+		def result = []
+
+		createShards(bucket1, bucket2)
+
+		updater.extractBucketKey(_) >> key
+
+		when:
+		storage.collectStatistics(IStatisticsFilter.ALL, true, { result << it })
+
+		then:
+		0 * updater.createBucket(_)
+		1 * updater.merge(bucket1, bucket2)
+		result == [bucket1]
+	}
+
+	def "check number of shards bounded for thread per task updates"() {
+		setup:
+		def bounded = new ShardedStatisticsStorage(updater, {
+			def result = Mock(IStatisticsStorage)
+			shardStorages << result
+			result
+		}, 2)
+
+		when:
+		(1..10).each {
+			Thread.start { bounded.updateStatistics(statisticsData, Mock(BiConsumer)) }.join()
+		}
+
+		then:
+		shardStorages.size() <= 2
+		bounded.shards.size() == shardStorages.size()
+	}
+
+	private void createShards(Object... buckets) {
+		buckets.each { bucket ->
+			Thread.start { storage.updateStatistics(statisticsData, Mock(BiConsumer)) }.join()
+
+			shardStorages.last().collectStatistics(_, _, _) >> { args -> args[2].accept(bucket) }
+		}
+	}
+}
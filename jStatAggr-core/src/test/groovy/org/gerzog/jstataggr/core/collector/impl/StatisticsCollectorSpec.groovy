@@ -15,8 +15,26 @@
  */
 package org.gerzog.jstataggr.core.collector.impl
 
+import java.lang.ref.WeakReference
+import java.lang.reflect.Modifier
+import java.nio.file.Files
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLongArray
+
+import org.gerzog.jstataggr.AggregationType
+import org.gerzog.jstataggr.BucketOverflow
+import org.gerzog.jstataggr.CleanupMode
+import org.gerzog.jstataggr.FieldType
 import org.gerzog.jstataggr.IStatisticsFilter
-import org.gerzog.jstataggr.core.collector.impl.StatisticsKey.StatisticsKeyBuilder
+import org.gerzog.jstataggr.StorageType
+import org.gerzog.jstataggr.core.collector.impl.StatisticsCollector.StatisticsCollectorBuilder
+import org.gerzog.jstataggr.core.functions.AdaptiveAdder
+import org.gerzog.jstataggr.core.functions.AdaptiveMaxAccumulator
+import org.gerzog.jstataggr.core.functions.AdaptiveMinAccumulator
+
+import groovy.transform.CompileStatic
 
 import spock.lang.Specification
 
@@ -26,91 +44,866 @@ import spock.lang.Specification
  */
 class StatisticsCollectorSpec extends Specification {
 
+	enum Level {
+		LOW, HIGH
+	}
+
+	class Statistics {
+
+		Level level
+
+		int code
+
+		int id
+
+		String name
+
+		long value
+
+		Long total
+	}
+
+	interface Recorder {
+
+		void record(Level level, int code, long value)
+	}
+
+	interface InvalidRecorder {
+
+		void record(Level level, long value)
+	}
+
+	static int collectorIndex
+
 	StatisticsCollector collector = Spy(StatisticsCollector)
 
+	IStatisticsStorage storage = Mock(IStatisticsStorage)
+
 	Object statisticsData = new Object()
 
 	Object statisticsBucket = new Object()
 
-	StatisticsKey key = new StatisticsKeyBuilder().build()
+	def setup() {
+		collector.storage = storage
+	}
 
 	def "check collector creation on statistics update"() {
 		when:
 		collector.updateStatistics(statisticsData)
 
 		then:
-		1 * collector.getStatisticsBucket(statisticsData) >> statisticsBucket
+		1 * storage.updateStatistics(statisticsData, _) >> { args -> args[1].accept(statisticsBucket, statisticsData) }
 		1 * collector.updateStatistics(statisticsBucket, statisticsData) >> null
 	}
 
-	def "check bucket found"() {
+	def "check statistics collection delegated to storage"() {
 		setup:
-		collector.statistics.put(key, statisticsBucket)
+		IStatisticsFilter filter = Mock(IStatisticsFilter)
 
 		when:
-		def bucket = collector.getStatisticsBucket(statisticsData)
+		def result = collector.collectStatistics(filter, true)
 
 		then:
-		1 * collector.generateStatisticsKey(statisticsData) >> key
-		bucket != null
+		1 * storage.collectStatistics(filter, true, _) >> { args -> args[2].accept(statisticsBucket) }
+		result.size() == 1
 	}
 
-	def "check bucket not found and generated"() {
+	def "check storage swapped on cleanup of all statistics"() {
+		setup:
+		IStatisticsStorage newStorage = Mock(IStatisticsStorage)
+		collector.storageFactory = { newStorage }
+		collector.cleanupMode = CleanupMode.SWAP
+
 		when:
-		def bucket = collector.getStatisticsBucket(statisticsData)
+		collector.collectStatistics(IStatisticsFilter.ALL, true)
 
 		then:
-		1 * collector.generateStatisticsKey(statisticsData) >> key
-		1 * collector.generateStatisticsBucket(key, statisticsData) >> statisticsBucket
-		bucket != null
+		1 * storage.collectStatistics(IStatisticsFilter.ALL, false, _)
+		collector.storage.is(newStorage)
 	}
 
-	def "check statistics collection for all available keys"() {
+	def "check storage not swapped"() {
 		setup:
-		IStatisticsFilter filter = Mock(IStatisticsFilter)
-		filter.isApplied(_ as StatisticsKey) >> true
+		collector.storageFactory = { Mock(IStatisticsStorage) }
+		collector.cleanupMode = cleanupMode
 
-		collector.statistics.put(new StatisticsKeyBuilder().withParameter('key1', 'value1').build(), new Object())
-		collector.statistics.put(new StatisticsKeyBuilder().withParameter('key2', 'value2').build(), new Object())
+		when:
+		collector.collectStatistics(filter, cleanup)
+
+		then:
+		1 * storage.collectStatistics(filter, cleanup, _)
+		collector.storage.is(storage)
+
+		where:
+		cleanupMode				| filter							| cleanup
+		CleanupMode.REMOVE		| IStatisticsFilter.ALL				| true
+		CleanupMode.SWAP		| IStatisticsFilter.ALL				| false
+		CleanupMode.SWAP		| { true } as IStatisticsFilter		| true
+	}
+
+	def "check no updates lost on swap"() {
+		setup:
+		def result = createBuilder(['level'], StorageType.AUTO).withCleanupMode(CleanupMode.SWAP).build()
+		def executor = Executors.newFixedThreadPool(4)
+		def collected = []
 
 		when:
-		def result = collector.collectStatistics(filter, false)
+		4.times {
+			executor.submit {
+				10000.times {
+					result.updateStatistics(new Statistics(level: Level.LOW, value: 1))
+				}
+			}
+		}
+		executor.shutdown()
+		while (!executor.isTerminated()) {
+			collected.addAll(result.collectStatistics(IStatisticsFilter.ALL, true))
+		}
+		collected.addAll(result.collectStatistics(IStatisticsFilter.ALL, true))
 
 		then:
-		result.size() == 2
-		collector.statistics.size() == 2
+		collected.sum { it.valueSum } == 40000
 	}
 
-	def "check statistics collection for all available keys with cleanup"() {
+	def "check compact aggregations under concurrent updates"() {
 		setup:
-		IStatisticsFilter filter = Mock(IStatisticsFilter)
-		filter.isApplied(_ as StatisticsKey) >> true
+		def builder = new StatisticsCollectorBuilder("statisticsCollectorSpec${collectorIndex++}", null)
+		builder.addStatisticsKey(Statistics.getDeclaredField('level'), Long.MIN_VALUE, Long.MAX_VALUE, getter('level'), null)
+		builder.addAggregation(Statistics.getDeclaredField('value'), [
+			AggregationType.SUM,
+			AggregationType.MIN,
+			AggregationType.MAX,
+			AggregationType.COUNT,
+			AggregationType.AVERAGE
+		] as AggregationType[], fieldType, getter('value'), null)
+		builder.addAggregation(Statistics.getDeclaredField('id'), [AggregationType.SUM, AggregationType.MAX] as AggregationType[], fieldType, getter('id'), null)
+		def result = builder.build()
+		def executor = Executors.newFixedThreadPool(4)
 
-		collector.statistics.put(new StatisticsKeyBuilder().withParameter('key1', 'value1').build(), new Object())
-		collector.statistics.put(new StatisticsKeyBuilder().withParameter('key2', 'value2').build(), new Object())
+		when:
+		(0..3).each { thread ->
+			executor.submit {
+				(1..1000).each { value ->
+					result.updateStatistics(new Statistics(level: Level.LOW, id: thread, value: value))
+				}
+			}
+		}
+		executor.shutdown()
+		executor.awaitTermination(30, TimeUnit.SECONDS)
+
+		def bucket = result.collectStatistics(IStatisticsFilter.ALL, false)[0]
+
+		then:
+		bucket.valueSum == 4 * 500500
+		bucket.valueMin == 1
+		bucket.valueMax == 1000
+		bucket.valueCount == 4000
+		bucket.valueAverageCount == 4000
+		bucket.idSum == 6000
+		bucket.idMax == 3
+		result.classInfo.bucketClass.declaredFields.findAll { !Modifier.isStatic(it.modifiers) && (it.name != 'level') }*.type as Set == fieldClasses as Set
+
+		where:
+		fieldType					| fieldClasses
+		FieldType.FIELD_UPDATER		| [long, int]
+		FieldType.PACKED			| [AtomicLongArray]
+	}
+
+	def "check adaptive aggregations under concurrent updates"() {
+		setup:
+		def builder = new StatisticsCollectorBuilder("statisticsCollectorSpec${collectorIndex++}", null)
+		builder.addStatisticsKey(Statistics.getDeclaredField('level'), Long.MIN_VALUE, Long.MAX_VALUE, getter('level'), null)
+		builder.addAggregation(Statistics.getDeclaredField('value'), [
+			AggregationType.SUM,
+			AggregationType.MIN,
+			AggregationType.MAX,
+			AggregationType.COUNT
+		] as AggregationType[], FieldType.ADAPTIVE, getter('value'), null)
+		builder.addAggregation(Statistics.getDeclaredField('name'), [AggregationType.COUNT] as AggregationType[], FieldType.ADAPTIVE, getter('name'), null)
+		def result = builder.build()
+		def executor = Executors.newFixedThreadPool(4)
 
 		when:
-		def result = collector.collectStatistics(filter, true)
+		(0..3).each { thread ->
+			executor.submit {
+				(1..1000).each { value ->
+					result.updateStatistics(new Statistics(level: Level.LOW, name: 'name', value: value))
+				}
+			}
+		}
+		executor.shutdown()
+		executor.awaitTermination(30, TimeUnit.SECONDS)
+
+		def bucket = result.collectStatistics(IStatisticsFilter.ALL, false)[0]
 
 		then:
-		result.size() == 2
-		collector.statistics.size() == 0
+		bucket.valueSum == 4 * 500500
+		bucket.valueMin == 1
+		bucket.valueMax == 1000
+		bucket.valueCount == 4000
+		bucket.nameCount == 4000
+		result.classInfo.bucketClass.declaredFields.findAll { it.name != 'level' }*.type as Set == [
+			AdaptiveAdder,
+			AdaptiveMinAccumulator,
+			AdaptiveMaxAccumulator
+		] as Set
 	}
 
-	def "check statistics collection for selected keys with cleanup"() {
+	def "check adaptive average not supported"() {
 		setup:
-		StatisticsKey key = new StatisticsKeyBuilder().withParameter('key1', 'value1').build()
-		IStatisticsFilter filter = Mock(IStatisticsFilter)
-		filter.isApplied(key) >> true
+		def builder = new StatisticsCollectorBuilder("statisticsCollectorSpec${collectorIndex++}", null)
+		builder.addStatisticsKey(Statistics.getDeclaredField('level'), Long.MIN_VALUE, Long.MAX_VALUE, getter('level'), null)
+
+		when:
+		builder.addAggregation(Statistics.getDeclaredField('value'), [AggregationType.AVERAGE] as AggregationType[], FieldType.ADAPTIVE, getter('value'), null)
+		builder.build()
 
-		collector.statistics.put(key, new Object())
-		collector.statistics.put(new StatisticsKeyBuilder().withParameter('key2', 'value2').build(), new Object())
+		then:
+		thrown(IllegalStateException)
+	}
+
+	def "check new keys folded into overflow bucket beyond limit of buckets"() {
+		setup:
+		def result = createBuilder(['name'], StorageType.HASHED).withBucketLimit(2, BucketOverflow.FOLD, null).build()
 
 		when:
-		def result = collector.collectStatistics(filter, true)
+		['a', 'b', 'c', 'a', 'd'].each { result.updateStatistics(new Statistics(name: it, value: 1)) }
+
+		def overflow = []
+		def collected = result.collectStatistics(IStatisticsFilter.ALL, false, { overflow << it })
 
 		then:
-		result.size() == 1
-		collector.statistics.size() == 1
+		result.storage instanceof BoundedStatisticsStorage
+		collected.collectEntries { [(it.name): it.valueSum] } == [a: 2, b: 1]
+		overflow*.valueSum == [2]
+		result.foldedUpdateCount == 2
+		result.evictedCount == 0
+
+		when:
+		result.collectStatistics(IStatisticsFilter.ALL, true, {})
+		result.updateStatistics(new Statistics(name: 'c', value: 1))
+		overflow.clear()
+
+		then:
+		result.collectStatistics(IStatisticsFilter.ALL, false, { overflow << it })*.name == ['c']
+		overflow.isEmpty()
+	}
+
+	def "check overflow bucket survives cleanup without overflow consumer"() {
+		setup:
+		def result = createBuilder(['name'], StorageType.HASHED).withCleanupMode(cleanupMode).withBucketLimit(1, BucketOverflow.FOLD, null).build()
+		['a', 'b', 'c'].each { result.updateStatistics(new Statistics(name: it, value: 1)) }
+
+		when:
+		def collected = result.collectStatistics(IStatisticsFilter.ALL, true)
+		def overflow = []
+		def remaining = result.collectStatistics(IStatisticsFilter.ALL, true, { overflow << it })
+
+		then:
+		collected*.name == ['a']
+		remaining.empty
+		overflow*.valueSum == [2]
+
+		where:
+		cleanupMode << [
+			CleanupMode.REMOVE,
+			CleanupMode.SWAP
+		]
+	}
+
+	def "check primitive overflow bucket updated concurrently"() {
+		setup:
+		def result = createBuilder(['name'], StorageType.HASHED, FieldType.PRIMITIVE).withBucketLimit(1, BucketOverflow.FOLD, null).build()
+		result.updateStatistics(new Statistics(name: 'first', value: 1))
+		def threads = (1..4).collect { thread ->
+			Thread.start {
+				(1..10000).each { result.updateStatistics(new Statistics(name: "key${thread}_${it}", value: 1)) }
+			}
+		}
+
+		when:
+		threads*.join()
+		def overflow = []
+		result.collectStatistics(IStatisticsFilter.ALL, false, { overflow << it })
+
+		then:
+		overflow*.valueSum == [40000]
+		result.foldedUpdateCount == 40000
+	}
+
+	def "check evicted buckets passed after updates in progress"() {
+		setup:
+		def updating = new CountDownLatch(1)
+		def release = new CountDownLatch(1)
+		def evicted = []
+		def result = createBuilder(['name'], StorageType.HASHED).withBucketLimit(1, BucketOverflow.EVICT, { evicted.addAll(it) }).build()
+		def storage = result.storage
+		def updater = Thread.start {
+			storage.updateStatistics(new Statistics(name: 'a', value: 1), { bucket, data ->
+				updating.countDown()
+				release.await()
+				result.updateStatistics(bucket, data)
+			})
+		}
+		updating.await()
+		def evicting = Thread.start { result.updateStatistics(new Statistics(name: 'b', value: 1)) }
+
+		when:
+		evicting.join(200)
+
+		then:
+		evicting.alive
+		evicted.isEmpty()
+
+		when:
+		release.countDown()
+		updater.join()
+		evicting.join()
+
+		then:
+		evicted*.name == ['a']
+		evicted*.valueSum == [1]
+	}
+
+	def "check least recently updated buckets evicted beyond limit of buckets"() {
+		setup:
+		def evicted = []
+		def result = createBuilder(['name'], StorageType.AUTO).withBucketLimit(2, BucketOverflow.EVICT, { evicted.addAll(it) }).build()
+
+		when:
+		['a', 'b', 'a', 'c'].each { result.updateStatistics(new Statistics(name: it, value: 1)) }
+
+		then:
+		evicted*.name == ['b']
+		result.collectStatistics(IStatisticsFilter.ALL, false)*.name as Set == ['a', 'c'] as Set
+		result.evictedCount == 1
+		result.foldedUpdateCount == 0
+	}
+
+	def "check number of buckets stays bounded for unique keys"() {
+		setup:
+		def result = createBuilder(['name'], StorageType.HASHED).withBucketLimit(64, BucketOverflow.EVICT, null).build()
+
+		when:
+		(1..10000).each { result.updateStatistics(new Statistics(name: "request${it}", value: 1)) }
+
+		then:
+		result.storage.size() <= 64
+		result.evictedCount + result.storage.size() == 10000
+	}
+
+	def "check limit of buckets not supported"() {
+		when:
+		createBuilder(['level', 'code'], storageType).withShards(sharded).withBucketLimit(10, BucketOverflow.FOLD, null).build()
+
+		then:
+		thrown(IllegalStateException)
+
+		where:
+		storageType			| sharded
+		StorageType.PACKED	| false
+		StorageType.HASHED	| true
+	}
+
+	def "check storage type selection"() {
+		when:
+		def result = createBuilder(keys, storageType).build()
+
+		then:
+		storageClass.isInstance(result.storage)
+
+		where:
+		keys				| storageType			| storageClass
+		['level']			| StorageType.AUTO		| IndexedStatisticsStorage
+		['level', 'code']	| StorageType.AUTO		| IndexedStatisticsStorage
+		['level', 'name']	| StorageType.AUTO		| HashStatisticsStorage
+		['level', 'id']		| StorageType.AUTO		| PackedStatisticsStorage
+		['level']			| StorageType.HASHED	| HashStatisticsStorage
+		['level', 'code']	| StorageType.INDEXED	| IndexedStatisticsStorage
+		['level', 'code']	| StorageType.PACKED	| PackedStatisticsStorage
+	}
+
+	def "check storage cannot be used for unsupported keys"() {
+		when:
+		createBuilder(keys, storageType).build()
+
+		then:
+		thrown(IllegalStateException)
+
+		where:
+		keys				| storageType
+		['name']			| StorageType.INDEXED
+		['level', 'id']		| StorageType.INDEXED
+		['level', 'name']	| StorageType.PACKED
+	}
+
+	def "check statistics aggregated by indexed storage"() {
+		setup:
+		def result = createBuilder(['level', 'code'], StorageType.INDEXED).build()
+
+		when:
+		[
+			[Level.LOW, 1, 10],
+			[Level.LOW, 1, 20],
+			[Level.HIGH, 1, 30],
+			[null, 100, 40]
+		].each { level, code, value ->
+			result.updateStatistics(new Statistics(level: level, code: code, value: value))
+		}
+		def statistics = result.collectStatistics({ true } as IStatisticsFilter, false)
+
+		then:
+		statistics.size() == 3
+		statistics.collect { [it.level, it.code, it.valueSum] } as Set == [
+			[Level.LOW, 1, 30l],
+			[Level.HIGH, 1, 30l],
+			[null, 100, 40l]
+		] as Set
+	}
+
+	def "check statistics aggregated by packed storage"() {
+		setup:
+		def result = createBuilder(['level', 'id', 'code'], StorageType.PACKED).build()
+
+		when:
+		[
+			[Level.LOW, -1, 1, 10],
+			[Level.LOW, -1, 1, 20],
+			[Level.HIGH, Integer.MAX_VALUE, 1, 30],
+			[null, 0, 100, 40]
+		].each { level, id, code, value ->
+			result.updateStatistics(new Statistics(level: level, id: id, code: code, value: value))
+		}
+		def statistics = result.collectStatistics({ it.get('level') != Level.HIGH } as IStatisticsFilter, true)
+
+		then:
+		statistics.collect { [it.level, it.id, it.code, it.valueSum] } as Set == [
+			[Level.LOW, -1, 1, 30l],
+			[null, 0, 100, 40l]
+		] as Set
+		result.collectStatistics({ true } as IStatisticsFilter, false).size() == 1
+	}
+
+	def "check sharded statistics merged on collection"() {
+		setup:
+		def result = createBuilder(['level'], StorageType.AUTO).withShards(true).build()
+		def executor = Executors.newFixedThreadPool(4)
+
+		when:
+		(1..4).collect { thread ->
+			executor.submit {
+				(1..1000).each {
+					result.updateStatistics(new Statistics(level: Level.LOW, value: thread))
+				}
+			}
+		}*.get()
+		executor.shutdown()
+		def statistics = result.collectStatistics(IStatisticsFilter.ALL, true)
+
+		then:
+		statistics.size() == 1
+		statistics[0].valueSum == 10000
+		statistics[0].valueMin == 1
+		statistics[0].valueMax == 4
+		statistics[0].valueCount == 4000
+		result.collectStatistics(IStatisticsFilter.ALL, false).empty
+	}
+
+	def "check entries folded into partials and merged into sharded statistics"() {
+		setup:
+		def result = createBuilder(['level', 'code'], StorageType.AUTO).withShards(true).build()
+		def partials = result.createPartials()
+		def entries = [
+			[Level.LOW, 1, 10],
+			[Level.LOW, 1, 20],
+			[Level.HIGH, 2, 30]
+		].collect { level, code, value ->
+			new Statistics(level: level, code: code, value: value)
+		}
+
+		when:
+		partials.fold(entries[0])
+		partials.fold(result.extractRecord(entries[1]))
+		partials.fold(entries[2])
+
+		then:
+		partials.entryCount == 3
+		partials.size() == 2
+		result.collectStatistics(IStatisticsFilter.ALL, false).empty
+
+		when:
+		partials.merge()
+		partials.merge()
+		def statistics = result.collectStatistics(IStatisticsFilter.ALL, false)
+
+		then:
+		partials.entryCount == 0
+		statistics.collect { [it.level, it.code, it.valueSum, it.valueMin, it.valueMax, it.valueCount] } as Set == [
+			[Level.LOW, 1, 30l, 10l, 20l, 2l],
+			[Level.HIGH, 2, 30l, 30l, 30l, 1l]
+		] as Set
+	}
+
+	def "check partials not supported by statistics with unmergeable buckets"() {
+		setup:
+		def result = createBuilder(['level', 'code'], StorageType.AUTO).build()
+
+		expect:
+		result.createPartials() == null
+	}
+
+	def "check statistics aggregated from extracted records"() {
+		setup:
+		def result = createBuilder(keys, storageType).build()
+		def entry = new Statistics()
+		def records = []
+
+		when:
+		[
+			[Level.LOW, 1, 10],
+			[Level.LOW, 1, 20],
+			[Level.HIGH, 2, 30]
+		].each { level, code, value ->
+			entry.level = level
+			entry.code = code
+			entry.value = value
+
+			records << result.extractRecord(entry)
+		}
+		records.each { result.updateStatistics(it) }
+		def statistics = result.collectStatistics(IStatisticsFilter.ALL, false)
+
+		then:
+		!records.any { it instanceof Statistics }
+		result.hashStatisticsKey(records[0]) == result.hashStatisticsKey(new Statistics(level: Level.LOW, code: 1))
+		statistics.collect { [it.level, it.code, it.valueSum] } as Set == [
+			[Level.LOW, 1, 30l],
+			[Level.HIGH, 2, 30l]
+		] as Set
+
+		where:
+		keys				| storageType
+		['level', 'code']	| StorageType.INDEXED
+		['level', 'code']	| StorageType.PACKED
+		['level', 'code']	| StorageType.HASHED
+	}
+
+	def "check statistics aggregated by recorder"() {
+		setup:
+		def result = createBuilder(['level', 'code'], StorageType.AUTO).build()
+
+		when:
+		def recorder = result.createRecorder(Recorder)
+		recorder.record(Level.LOW, 1, 10)
+		recorder.record(Level.LOW, 1, 20)
+		recorder.record(Level.HIGH, 2, 30)
+		def statistics = result.collectStatistics(IStatisticsFilter.ALL, false)
+
+		then:
+		result.createRecorder(Recorder).is(recorder)
+		statistics.collect { [it.level, it.code, it.valueSum] } as Set == [
+			[Level.LOW, 1, 30l],
+			[Level.HIGH, 2, 30l]
+		] as Set
+	}
+
+	def "check recorder parameters should match statistics fields"() {
+		setup:
+		def result = createBuilder(['level', 'code'], StorageType.AUTO).build()
+
+		when:
+		result.createRecorder(InvalidRecorder)
+
+		then:
+		thrown(IllegalArgumentException)
+	}
+
+	def "check statistics aggregated from columns"() {
+		setup:
+		def result = createBuilder(['level', 'code'], storageType).build()
+		def columns = [
+			level: [Level.LOW, Level.LOW, Level.HIGH, Level.LOW, Level.LOW] as Level[],
+			code: [1, 1, 2, 1, 3] as int[],
+			value: [10, 20, 30, 5, 7, 100] as long[]
+		]
+
+		when:
+		result.updateStatistics(columns, 5)
+		def statistics = result.collectStatistics(IStatisticsFilter.ALL, false)
+
+		then:
+		statistics.collect { [it.level, it.code, it.valueSum, it.valueMin, it.valueMax, it.valueCount] } as Set == [
+			[Level.LOW, 1, 35l, 5l, 20l, 3l],
+			[Level.HIGH, 2, 30l, 30l, 30l, 1l],
+			[Level.LOW, 3, 7l, 7l, 7l, 1l]
+		] as Set
+
+		where:
+		storageType << [StorageType.INDEXED, StorageType.PACKED, StorageType.HASHED]
+	}
+
+	def "check columns should match statistics fields"() {
+		setup:
+		def result = createBuilder(['level', 'code'], StorageType.AUTO).build()
+
+		when:
+		result.updateStatistics(columns, 2)
+
+		then:
+		thrown(IllegalArgumentException)
+
+		where:
+		columns << [
+			[level: [Level.LOW, Level.LOW] as Level[], code: [1, 1] as int[]],
+			[level: [Level.LOW, Level.LOW] as Level[], code: [1, 1] as long[], value: [1, 2] as long[]],
+			[level: [Level.LOW, Level.LOW] as Level[], code: [1] as int[], value: [1, 2] as long[]],
+			[level: [Level.LOW, Level.LOW] as Level[], code: [1, 1] as int[], value: [1, 2] as long[], name: ['a', 'b'] as String[]]
+		]
+	}
+
+	def "check generated classes written to class output"() {
+		setup:
+		def classOutput = Files.createTempDirectory('jstataggr').toFile()
+		def builder = createBuilder(['level', 'code'], StorageType.AUTO).withClassOutput(classOutput)
+
+		when:
+		def bucketClassName = builder.build().classInfo.bucketClass.name
+
+		then:
+		['', 'Key', 'ProbeKey', 'Record', 'RecordUpdater', 'Updater'].every {
+			new File(classOutput, "${bucketClassName.replace('.', '/')}${it}.class").exists()
+		}
+
+		cleanup:
+		classOutput.deleteDir()
+	}
+
+	def "check statistics regenerated in own class loader"() {
+		setup:
+		def name = "statisticsCollectorSpec${collectorIndex++}"
+		def first = createBuilder(name, ['level', 'code'], StorageType.AUTO).build()
+
+		when:
+		def second = createBuilder(name, ['level', 'name'], StorageType.AUTO).build()
+		second.updateStatistics(new Statistics(level: Level.LOW, name: 'a', value: 10))
+
+		then:
+		second.classInfo.updater.class.name == first.classInfo.updater.class.name
+		second.classInfo.updater.class.classLoader instanceof GeneratedClassLoader
+		second.classInfo.updater.class.classLoader != first.classInfo.updater.class.classLoader
+		second.collectStatistics(IStatisticsFilter.ALL, false).collect { it.valueSum } == [10l]
+	}
+
+	def "check generated classes unloaded with collector updated by live thread"() {
+		setup:
+		def result = createBuilder(['level', 'code'], storageType).withBucketLimit(maxBuckets, BucketOverflow.FOLD, null).build()
+		def reference = new WeakReference(result.classInfo.bucketClass)
+		def updated = new CountDownLatch(1)
+		def release = new CountDownLatch(1)
+		def thread = Thread.start {
+			result.updateStatistics(new Statistics(level: Level.LOW, code: 1, value: 1))
+			result.updateStatistics([level: [Level.LOW] as Level[], code: [1] as int[], value: [1l] as long[]], 1)
+			result.hashStatisticsKey(new Statistics(level: Level.LOW, code: 1))
+			record(result)
+			updated.countDown()
+			release.await()
+		}
+		updated.await()
+
+		when:
+		result.close()
+		result = null
+		for (int i = 0; (i < 10) && (reference.get() != null); i++) {
+			System.gc()
+		}
+
+		then:
+		thread.alive
+		reference.get() == null
+
+		cleanup:
+		release.countDown()
+		thread.join()
+
+		where:
+		storageType			| maxBuckets
+		StorageType.HASHED	| 0
+		StorageType.HASHED	| 10
+		StorageType.INDEXED	| 0
+	}
+
+	def "check classes generated earlier reused for same statistics"() {
+		setup:
+		def classOutput = Files.createTempDirectory('jstataggr').toFile()
+		def name = "statisticsCollectorSpec${collectorIndex++}"
+		def first = createBuilder(name, ['level', 'code'], StorageType.AUTO).withClassOutput(classOutput).build()
+
+		when:
+		def second = withClassLoader([classOutput.toURI().toURL()]) { createBuilder(name, ['level', 'code'], StorageType.AUTO).build() }
+		second.updateStatistics(new Statistics(level: Level.LOW, code: 1, value: 10))
+
+		then:
+		second.classInfo.updater.class.classLoader instanceof URLClassLoader
+		second.collectStatistics(IStatisticsFilter.ALL, false).collect { it.valueSum } == [10l]
+
+		cleanup:
+		classOutput.deleteDir()
+	}
+
+	def "check classes generated for another definition rejected"() {
+		setup:
+		def classOutput = Files.createTempDirectory('jstataggr').toFile()
+		def name = "statisticsCollectorSpec${collectorIndex++}"
+		createBuilder(name, ['level', 'code'], StorageType.AUTO).withClassOutput(classOutput).build()
+
+		when:
+		withClassLoader([classOutput.toURI().toURL()]) { createBuilder(name, ['level', 'name'], StorageType.AUTO).build() }
+
+		then:
+		thrown(IllegalStateException)
+
+		cleanup:
+		classOutput.deleteDir()
+	}
+
+	def "check generated classes cached and loaded from cache"() {
+		setup:
+		def classCache = Files.createTempDirectory('jstataggr').toFile()
+		def name = "statisticsCollectorSpec${collectorIndex++}"
+
+		when:
+		def generated = withClassLoader { createBuilder(name, ['level', 'code'], StorageType.AUTO).withClassCache(classCache).build() }
+		def cached = withClassLoader { createBuilder(name, ['level', 'code'], StorageType.AUTO).withClassCache(classCache).build() }
+		cached.updateStatistics(new Statistics(level: Level.LOW, code: 1, value: 10))
+
+		then:
+		classCache.list() as List == [StatisticsCollector.getCacheKey(generated.classInfo.updater.layout)]
+		cached.classInfo.updater.class.name == generated.classInfo.updater.class.name
+		cached.classInfo.updater.class != generated.classInfo.updater.class
+		cached.collectStatistics(IStatisticsFilter.ALL, false).collect { it.valueSum } == [10l]
+
+		cleanup:
+		classCache.deleteDir()
+	}
+
+	def "check broken cache entry regenerated and overwritten"() {
+		setup:
+		def classCache = Files.createTempDirectory('jstataggr').toFile()
+		def name = "statisticsCollectorSpec${collectorIndex++}"
+		def generated = withClassLoader { createBuilder(name, ['level', 'code'], StorageType.AUTO).withClassCache(classCache).build() }
+		def updaterClassName = generated.classInfo.updater.class.name
+		def updaterFile = new File(new File(classCache, StatisticsCollector.getCacheKey(generated.classInfo.updater.layout)), updaterClassName.replace('.', File.separator) + '.class')
+		def bytecode = updaterFile.bytes
+		updaterFile.bytes = [1, 2, 3] as byte[]
+
+		when:
+		def result = withClassLoader { createBuilder(name, ['level', 'code'], StorageType.AUTO).withClassCache(classCache).build() }
+		result.updateStatistics(new Statistics(level: Level.LOW, code: 1, value: 10))
+
+		then:
+		result.collectStatistics(IStatisticsFilter.ALL, false).collect { it.valueSum } == [10l]
+		updaterFile.bytes == bytecode
+
+		cleanup:
+		classCache.deleteDir()
+	}
+
+	def "check generator version is part of cache key"() {
+		expect:
+		StatisticsCollector.getCacheKey(1).contains("-g${StatisticsCollector.GENERATOR_VERSION}")
+	}
+
+	def "check classes of another definition not loaded from cache"() {
+		setup:
+		def classCache = Files.createTempDirectory('jstataggr').toFile()
+		def name = "statisticsCollectorSpec${collectorIndex++}"
+		createBuilder(name, ['level', 'code'], StorageType.AUTO).withClassCache(classCache).build()
+
+		when:
+		def result = createBuilder(name, ['level', 'name'], StorageType.AUTO).withClassCache(classCache).build()
+
+		then:
+		classCache.list().length == 2
+		result.classInfo.bucketClass.getMethod('getName') != null
+
+		cleanup:
+		classCache.deleteDir()
+	}
+
+	def "check hash of statistics key"() {
+		setup:
+		def result = createBuilder(['level', 'name'], StorageType.HASHED).build()
+
+		expect:
+		result.hashStatisticsKey(new Statistics(level: Level.LOW, name: 'a', value: 1)) == result.hashStatisticsKey(new Statistics(level: Level.LOW, name: 'a', value: 2))
+		result.hashStatisticsKey(new Statistics(level: Level.LOW, name: 'a')) != result.hashStatisticsKey(new Statistics(level: Level.LOW, name: 'b'))
+	}
+
+	def "check sharded statistics require primitive aggregations"() {
+		setup:
+		def builder = new StatisticsCollectorBuilder("statisticsCollectorSpec${collectorIndex++}", null)
+		builder.addAggregation(Statistics.getDeclaredField('total'), [AggregationType.SUM] as AggregationType[], FieldType.ATOMIC, getter('total'), null)
+
+		when:
+		builder.withShards(true).build()
+
+		then:
+		thrown(IllegalStateException)
+	}
+
+	/**
+	 * Recorder is called statically, so call site caches of this spec don't
+	 * keep it's generated class loaded
+	 */
+	@CompileStatic
+	private static void record(StatisticsCollector collector) {
+		collector.createRecorder(Recorder).record(Level.LOW, 1, 1)
+	}
+
+	/**
+	 * Classes generated earlier are looked up in context class loader, so
+	 * separate loader emulates restart of application
+	 */
+	private <T> T withClassLoader(List<URL> urls = [], Closure<T> closure) {
+		def thread = Thread.currentThread()
+		def original = thread.contextClassLoader
+		thread.contextClassLoader = new URLClassLoader(urls as URL[], getClass().classLoader)
+
+		try {
+			closure()
+		} finally {
+			thread.contextClassLoader = original
+		}
+	}
+
+	private StatisticsCollectorBuilder createBuilder(List<String> keys, StorageType storageType, FieldType fieldType = FieldType.ATOMIC) {
+		createBuilder("statisticsCollectorSpec${collectorIndex++}", keys, storageType, fieldType)
+	}
+
+	private StatisticsCollectorBuilder createBuilder(String name, List<String> keys, StorageType storageType, FieldType fieldType = FieldType.ATOMIC) {
+		def builder = new StatisticsCollectorBuilder(name, null)
+
+		keys.each {
+			def field = Statistics.getDeclaredField(it)
+
+			if (it == 'code') {
+				builder.addStatisticsKey(field, 0, 10, getter(it), null)
+			} else {
+				builder.addStatisticsKey(field, Long.MIN_VALUE, Long.MAX_VALUE, getter(it), null)
+			}
+		}
+
+		builder.addAggregation(Statistics.getDeclaredField('value'), [
+			AggregationType.SUM,
+			AggregationType.MIN,
+			AggregationType.MAX,
+			AggregationType.COUNT
+		] as AggregationType[], fieldType, getter('value'), null)
+
+		builder.withStorageType(storageType)
+	}
+
+	private getter(String name) {
+		Statistics.getMethod("get${name.capitalize()}")
 	}
 }
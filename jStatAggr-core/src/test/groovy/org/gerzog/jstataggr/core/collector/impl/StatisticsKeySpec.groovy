@@ -15,8 +15,8 @@
  */
 package org.gerzog.jstataggr.core.collector.impl
 
-import org.gerzog.jstataggr.core.collector.impl.StatisticsKey.StatisticsKeyBuilder
-
+import javassist.ClassPool
+import spock.lang.Shared
 import spock.lang.Specification
 
 /**
@@ -25,10 +25,38 @@ import spock.lang.Specification
  */
 class StatisticsKeySpec extends Specification {
 
+	class Statistics {
+
+		String name
+
+		int value
+
+		long timestamp
+	}
+
+	@Shared
+	Class<?> keyClass
+
+	@Shared
+	Class<?> probeKeyClass
+
+	def setupSpec() {
+		def keys = [
+			'name',
+			'value',
+			'timestamp'
+		].collect {
+			new FieldInfo(it, Statistics.getDeclaredField(it).type, null, Statistics.getMethod("get${it.capitalize()}"))
+		}
+
+		keyClass = StatisticsKeyGenerator.generate(ClassPool.default, 'org.gerzog.jstataggr.core.manager.impl.generated.StatisticsKeySpecKey', keys).toClass()
+		probeKeyClass = StatisticsKeyGenerator.generateProbe(ClassPool.default, 'org.gerzog.jstataggr.core.manager.impl.generated.StatisticsKeySpecProbeKey', keyClass.name, keys).toClass()
+	}
+
 	def "check equals"() {
 		when:
-		def key1 = createKey(['name1': 'value1', 'name2': 'value2'])
-		def key2 = createKey(['name1': 'value1', 'name2': 'value2'])
+		def key1 = createKey('value1', 1, 2l)
+		def key2 = createKey('value1', 1, 2l)
 
 		then:
 		key1.equals(key2)
@@ -36,17 +64,24 @@ class StatisticsKeySpec extends Specification {
 
 	def "check not equals"() {
 		when:
-		def key1 = createKey(['name1': 'value1', 'name2': 'value2'])
-		def key2 = createKey(['name1': 'value1', 'name2': 'value3'])
+		def key1 = createKey('value1', 1, 2l)
+		def key2 = createKey(name, value, timestamp)
 
 		then:
 		!key1.equals(key2)
+
+		where:
+		name		| value	| timestamp
+		'value2'	| 1		| 2l
+		'value1'	| 2		| 2l
+		'value1'	| 1		| 3l
+		null		| 1		| 2l
 	}
 
 	def "check hash equals"() {
 		when:
-		def key1 = createKey(['name1': 'value1', 'name2': 'value2'])
-		def key2 = createKey(['name1': 'value1', 'name2': 'value2'])
+		def key1 = createKey('value1', 1, 2l)
+		def key2 = createKey('value1', 1, 2l)
 
 		then:
 		key1.hashCode() == key2.hashCode()
@@ -54,20 +89,90 @@ class StatisticsKeySpec extends Specification {
 
 	def "check hash not equals"() {
 		when:
-		def key1 = createKey(['name1': 'value1', 'name2': 'value2'])
-		def key2 = createKey(['name1': 'value1', 'name2': 'value3'])
+		def key1 = createKey('value1', 1, 2l)
+		def key2 = createKey('value2', 1, 2l)
 
 		then:
 		key1.hashCode() != key2.hashCode()
 	}
 
-	def createKey(def propertiesMap) {
-		StatisticsKeyBuilder builder = new StatisticsKeyBuilder()
+	def "check key values available by name"() {
+		when:
+		def key = createKey('value1', 1, 2l)
 
-		propertiesMap.each { key, value ->
-			builder.withParameter(key, value)
-		}
+		then:
+		key.get('name') == 'value1'
+		key.get('value') == 1
+		key.get('timestamp') == 2l
+		key.get('unknown') == null
+	}
+
+	def "check string representation"() {
+		when:
+		def key = createKey('value1', 1, 2l)
+
+		then:
+		key.toString() == '{name=value1, value=1, timestamp=2}'
+	}
+
+	def createKey(String name, int value, long timestamp) {
+		keyClass.getConstructor(String, int, long).newInstance(name, value, timestamp)
+	}
+
+	def "check probe key equals to key with same values"() {
+		when:
+		def key = createKey('value1', 1, 2l)
+		def probeKey = createProbeKey('value1', 1, 2l)
+
+		then:
+		probeKey.equals(key)
+		probeKey.hashCode() == key.hashCode()
+	}
+
+	def "check probe key not equals to key with other values"() {
+		when:
+		def key = createKey('value1', 1, 2l)
+		def probeKey = createProbeKey('value1', 1, 3l)
+
+		then:
+		!probeKey.equals(key)
+	}
+
+	def "check probe key can be used for lookup"() {
+		setup:
+		def statistics = [(createKey('value1', 1, 2l)): 'bucket']
+
+		when:
+		def result = statistics.get(createProbeKey('value1', 1, 2l))
+
+		then:
+		result == 'bucket'
+	}
+
+	def "check probe key converted to immutable key"() {
+		setup:
+		def probeKey = createProbeKey('value1', 1, 2l)
+
+		when:
+		def key = probeKey.toKey()
+
+		and:
+		probeKey.name = 'value2'
+		probeKey.rehash()
+
+		then:
+		keyClass.isInstance(key)
+		key == createKey('value1', 1, 2l)
+	}
+
+	def createProbeKey(String name, int value, long timestamp) {
+		def result = probeKeyClass.newInstance()
+
+		result.name = name
+		result.value = value
+		result.timestamp = timestamp
+		result.rehash()
 
-		builder.build()
+		result
 	}
 }
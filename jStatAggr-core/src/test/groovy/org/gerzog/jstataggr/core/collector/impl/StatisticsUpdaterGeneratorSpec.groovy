@@ -0,0 +1,273 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.collector.impl
+
+import org.gerzog.jstataggr.AggregationType
+import org.gerzog.jstataggr.FieldType
+import org.gerzog.jstataggr.core.manager.impl.internal.StatisticsFields
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class StatisticsUpdaterGeneratorSpec extends Specification {
+
+	enum Level {
+		LOW, HIGH
+	}
+
+	class Statistics {
+
+		String name
+
+		int value
+
+		Level level
+	}
+
+	static final String ENTRY_CLASS = Statistics.name
+
+	FieldInfo createInfo(String name, Class<?> type, String expression) {
+		new FieldInfo(name, type, expression, Statistics.getMethod("get${name.capitalize()}"))
+	}
+
+	def "check value line without expression"() {
+		when:
+		def result = StatisticsUpdaterGenerator.valueLine(createInfo('value', int, null))
+
+		then:
+		result == "((${ENTRY_CLASS}) statisticsData).getValue()"
+	}
+
+	def "check value line with expression"() {
+		when:
+		def result = StatisticsUpdaterGenerator.valueLine(createInfo('value', int, '#this + 1'))
+
+		then:
+		result == "((java.lang.Number) updateValue(java.lang.Integer.valueOf(((${ENTRY_CLASS}) statisticsData).getValue()), \"#this + 1\")).intValue()"
+	}
+
+	def "check apply method calls all updaters of field"() {
+		setup:
+		def info = createInfo('value', int, null)
+		info.addStatisticsField(StatisticsFields.forAggregation('value', int, AggregationType.MIN, FieldType.PRIMITIVE))
+		info.addStatisticsField(StatisticsFields.forAggregation('value', int, AggregationType.SUM, FieldType.PRIMITIVE))
+
+		when:
+		def result = StatisticsUpdaterGenerator.applyMethod('Bucket', [info])
+
+		then:
+		result == 'public void apply(java.lang.Object statisticsData, java.lang.Object statisticsBucket) {' +
+				'Bucket bucket = (Bucket) statisticsBucket;' +
+				"int value0 = ((${ENTRY_CLASS}) statisticsData).getValue();" +
+				'bucket.updateValueMin(value0);' +
+				'bucket.updateValueSum(value0);}'
+	}
+
+	def "check extract key method"() {
+		when:
+		def result = StatisticsUpdaterGenerator.extractKeyMethod('Key', [createInfo('name', String, null)])
+
+		then:
+		result == 'public org.gerzog.jstataggr.IStatisticsKey extractKey(java.lang.Object statisticsData) {' +
+				"return new Key(((${ENTRY_CLASS}) statisticsData).getName());}"
+	}
+
+	def "check create bucket method"() {
+		setup:
+		def info = createInfo('name', String, null)
+		info.addStatisticsField(StatisticsFields.forStatisticsKey('name', String))
+
+		when:
+		def result = StatisticsUpdaterGenerator.createBucketMethod('Bucket', 'Key', [info])
+
+		then:
+		result == 'public java.lang.Object createBucket(org.gerzog.jstataggr.IStatisticsKey statisticsKey) {' +
+				'Key key = (Key) statisticsKey;' +
+				'Bucket bucket = new Bucket();' +
+				'bucket.setName(key.name);' +
+				'return bucket;}'
+	}
+
+	def "check fill key method"() {
+		when:
+		def result = StatisticsUpdaterGenerator.fillKeyMethod('ProbeKey', [createInfo('name', String, null)])
+
+		then:
+		result == 'public void fillKey(java.lang.Object statisticsData, org.gerzog.jstataggr.core.collector.impl.AbstractStatisticsProbeKey statisticsKey) {' +
+				'ProbeKey key = (ProbeKey) statisticsKey;' +
+				"key.name = ((${ENTRY_CLASS}) statisticsData).getName();" +
+				'key.rehash();}'
+	}
+
+	def "check index method"() {
+		setup:
+		def value = createInfo('value', int, null)
+		value.setRange(1, 10)
+
+		when:
+		def result = StatisticsUpdaterGenerator.indexMethod([createInfo('level', Level, null), value])
+
+		then:
+		result == 'public int index(java.lang.Object statisticsData) {' +
+				'int index = 0;' +
+				"int index0 = org.gerzog.jstataggr.core.utils.KeyUtils.index(((${ENTRY_CLASS}) statisticsData).getLevel());" +
+				'if (index0 < 0) { return -1; }' +
+				'index += index0 * 1;' +
+				"int index1 = org.gerzog.jstataggr.core.utils.KeyUtils.index(((long) ((${ENTRY_CLASS}) statisticsData).getValue()), 1L, 10L);" +
+				'if (index1 < 0) { return -1; }' +
+				'index += index1 * 3;' +
+				'return index;}'
+	}
+
+	def "check index method for not indexed keys"() {
+		when:
+		def result = StatisticsUpdaterGenerator.indexMethod([createInfo('name', String, null)])
+
+		then:
+		result == 'public int index(java.lang.Object statisticsData) {return -1;}'
+	}
+
+	def "check pack method"() {
+		setup:
+		def value = createInfo('value', int, null)
+		value.setRange(1, 10)
+
+		when:
+		def result = StatisticsUpdaterGenerator.packMethod([createInfo('level', Level, null), value])
+
+		then:
+		result == 'public long pack(java.lang.Object statisticsData) {' +
+				'long key = 0L;' +
+				"long part0 = ((long) org.gerzog.jstataggr.core.utils.KeyUtils.index(((${ENTRY_CLASS}) statisticsData).getLevel()));" +
+				'key = key | (part0 << 0);' +
+				"long part1 = ((long) org.gerzog.jstataggr.core.utils.KeyUtils.index(((long) ((${ENTRY_CLASS}) statisticsData).getValue()), 1L, 10L));" +
+				'if (part1 < 0L) { return -1L; }' +
+				'key = key | (part1 << 2);' +
+				'return key;}'
+	}
+
+	def "check pack method for unbounded key"() {
+		when:
+		def result = StatisticsUpdaterGenerator.packMethod([createInfo('value', int, null)])
+
+		then:
+		result == 'public long pack(java.lang.Object statisticsData) {' +
+				'long key = 0L;' +
+				"long part0 = org.gerzog.jstataggr.core.utils.KeyUtils.pack(((${ENTRY_CLASS}) statisticsData).getValue());" +
+				'key = key | (part0 << 0);' +
+				'return key;}'
+	}
+
+	def "check pack method for not packed keys"() {
+		when:
+		def result = StatisticsUpdaterGenerator.packMethod([createInfo('name', String, null)])
+
+		then:
+		result == 'public long pack(java.lang.Object statisticsData) {return -1L;}'
+	}
+
+	def "check extract bucket key method"() {
+		when:
+		def result = StatisticsUpdaterGenerator.extractBucketKeyMethod('Bucket', 'Key', [createInfo('name', String, null)])
+
+		then:
+		result == 'public org.gerzog.jstataggr.IStatisticsKey extractBucketKey(java.lang.Object statisticsBucket) {' +
+				'return new Key(((Bucket) statisticsBucket).getName());}'
+	}
+
+	def "check records dispatched to record updater"() {
+		when:
+		def result = StatisticsUpdaterGenerator.dispatch('public long pack(java.lang.Object statisticsData) {return -1L;}', 'Record', 'return this.recordUpdater.pack(statisticsData);')
+
+		then:
+		result == 'public long pack(java.lang.Object statisticsData) {' +
+				'if (statisticsData instanceof Record) {return this.recordUpdater.pack(statisticsData);}' +
+				'return -1L;}'
+	}
+
+	def "check extract record method"() {
+		when:
+		def result = StatisticsUpdaterGenerator.extractRecordMethod('Record', [createInfo('name', String, null)], [createInfo('value', int, '#this + 1')])
+
+		then:
+		result == 'public java.lang.Object extractRecord(java.lang.Object statisticsData) {' +
+				'Record record = new Record();' +
+				"record.name = ((${ENTRY_CLASS}) statisticsData).getName();" +
+				"record.value = ((${ENTRY_CLASS}) statisticsData).getValue();" +
+				'return record;}'
+	}
+
+	def "check apply columns method reduces runs of rows"() {
+		setup:
+		def info = createInfo('value', int, null)
+		info.setAggregation([AggregationType.SUM, AggregationType.COUNT] as AggregationType[], FieldType.PRIMITIVE)
+		info.addStatisticsField(StatisticsFields.forAggregation('value', int, AggregationType.SUM, FieldType.PRIMITIVE))
+		info.addStatisticsField(StatisticsFields.forAggregation('value', int, AggregationType.COUNT, FieldType.PRIMITIVE))
+
+		when:
+		def result = StatisticsUpdaterGenerator.applyColumnsMethod('Bucket', 1, [info])
+
+		then:
+		result == 'public void applyColumns(java.lang.Object[] columns, int from, int to, java.lang.Object statisticsBucket) {' +
+				'Bucket bucket = ((Bucket) statisticsBucket);' +
+				'int[] column0 = ((int[]) columns[1]);' +
+				'int value0 = column0[from];' +
+				'int sum0 = value0;' +
+				'bucket.updateValueCount(value0);' +
+				'for (int i = from + 1; i < to; i++) {' +
+				'value0 = column0[i];' +
+				'sum0 = sum0 + value0;' +
+				'bucket.updateValueCount(value0);}' +
+				'bucket.updateValueSum(sum0);}'
+	}
+
+	def "check same key method"() {
+		when:
+		def result = StatisticsUpdaterGenerator.sameKeyMethod([createInfo('name', String, null)])
+
+		then:
+		result == 'public boolean sameKey(java.lang.Object[] columns, int row, int otherRow) {' +
+				'if (!org.gerzog.jstataggr.core.utils.KeyUtils.equals(((java.lang.String[]) columns[0])[row], ((java.lang.String[]) columns[0])[otherRow])) { return false; }' +
+				'return true;}'
+	}
+
+	def "check merge method"() {
+		setup:
+		def info = createInfo('value', int, null)
+		info.setAggregation([AggregationType.SUM, AggregationType.AVERAGE] as AggregationType[], FieldType.PRIMITIVE)
+
+		when:
+		def result = StatisticsUpdaterGenerator.mergeMethod('Bucket', [info])
+
+		then:
+		result == 'public void merge(java.lang.Object target, java.lang.Object source) {' +
+				'Bucket targetBucket = ((Bucket) target);' +
+				'Bucket sourceBucket = ((Bucket) source);' +
+				'targetBucket.valueSum = targetBucket.valueSum + sourceBucket.valueSum;' +
+				'targetBucket.valueAverage = org.gerzog.jstataggr.core.functions.FunctionHelper.mergeAverage(targetBucket.valueAverage, targetBucket.valueAverageCount, sourceBucket.valueAverage, sourceBucket.valueAverageCount);' +
+				'targetBucket.valueAverageCount = targetBucket.valueAverageCount + sourceBucket.valueAverageCount;}'
+	}
+
+	def "check merge lines"() {
+		expect:
+		StatisticsUpdaterGenerator.mergeLine('valueMin', AggregationType.MIN) == 'targetBucket.valueMin = Math.min(targetBucket.valueMin, sourceBucket.valueMin);'
+		StatisticsUpdaterGenerator.mergeLine('valueMax', AggregationType.MAX) == 'targetBucket.valueMax = Math.max(targetBucket.valueMax, sourceBucket.valueMax);'
+		StatisticsUpdaterGenerator.mergeLine('valueCount', AggregationType.COUNT) == 'targetBucket.valueCount = targetBucket.valueCount + sourceBucket.valueCount;'
+	}
+}
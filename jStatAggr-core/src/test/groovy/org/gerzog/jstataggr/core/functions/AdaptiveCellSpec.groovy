@@ -0,0 +1,122 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.functions
+
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class AdaptiveCellSpec extends Specification {
+
+	/**
+	 * Simulates updates of other threads by nested updates, each of them makes
+	 * compare-and-set of outer update fail once
+	 */
+	AdaptiveCell contendedAdder(int interference) {
+		new AdaptiveAdder() {
+					int remaining = interference
+
+					@Override
+					protected long combine(long current, long update) {
+						if (remaining > 0) {
+							remaining--
+							accumulate(1l)
+						}
+
+						super.combine(current, update)
+					}
+				}
+	}
+
+	@Unroll
+	def "check cell kept single until contention threshold"() {
+		setup:
+		def cell = contendedAdder(interference)
+
+		when:
+		cell.accumulate(1l)
+
+		then:
+		cell.get() == interference + 1
+		cell.inflated == inflated
+
+		where:
+		interference							| inflated
+		0										| false
+		AdaptiveCell.INFLATION_THRESHOLD - 1	| false
+		AdaptiveCell.INFLATION_THRESHOLD		| true
+	}
+
+	def "check inflated cell keeps previous value"() {
+		setup:
+		def cell = contendedAdder(AdaptiveCell.INFLATION_THRESHOLD)
+		cell.accumulate(1l)
+
+		when:
+		cell.accumulate(10l)
+
+		then:
+		cell.inflated
+		cell.get() == AdaptiveCell.INFLATION_THRESHOLD + 11
+	}
+
+	@Unroll
+	def "check cell aggregation"(def cell, def updates, def expected) {
+		when:
+		updates.each { cell.accumulate(it) }
+
+		then:
+		cell.get() == expected
+
+		where:
+		cell							| updates		| expected
+		new AdaptiveAdder()				| []			| 0l
+		new AdaptiveAdder()				| [1l, 2l, 3l]	| 6l
+		new AdaptiveMinAccumulator()	| []			| Long.MAX_VALUE
+		new AdaptiveMinAccumulator()	| [3l, 1l, 2l]	| 1l
+		new AdaptiveMaxAccumulator()	| []			| Long.MIN_VALUE
+		new AdaptiveMaxAccumulator()	| [1l, 3l, 2l]	| 3l
+	}
+
+	def "check no updates lost under concurrent updates"() {
+		setup:
+		def adder = new AdaptiveAdder()
+		def max = new AdaptiveMaxAccumulator()
+		def executor = Executors.newFixedThreadPool(4)
+
+		when:
+		(0..3).each {
+			executor.submit {
+				(1..10000).each { value ->
+					adder.accumulate(value)
+					max.accumulate(value)
+				}
+			}
+		}
+		executor.shutdown()
+		executor.awaitTermination(30, TimeUnit.SECONDS)
+
+		then:
+		adder.get() == 4 * 50005000l
+		max.get() == 10000l
+	}
+}
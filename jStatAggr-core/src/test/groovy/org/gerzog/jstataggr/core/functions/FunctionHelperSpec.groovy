@@ -263,6 +263,38 @@ class FunctionHelperSpec extends Specification {
 		AggregationType.MAX 	| maxAccumulator(10)	| 5	 	 | 10
 	}
 
+	@Unroll
+	def "check apply for AdaptiveCell"(def type, def current, def update, def expected) {
+		when:
+		FunctionHelper.apply(type, update, current)
+
+		then:
+		current.get() == expected
+
+		where:
+		type 					| current						| update		| expected
+		AggregationType.SUM 	| new AdaptiveAdder()			| 20			| 20
+		AggregationType.SUM 	| new AdaptiveAdder()			| 20l			| 20
+		AggregationType.COUNT 	| new AdaptiveAdder()			| 20			| 1
+		AggregationType.COUNT 	| new AdaptiveAdder()			| [1, 2, 3]		| 3
+		AggregationType.MIN 	| new AdaptiveMinAccumulator()	| 5				| 5
+		AggregationType.MAX 	| new AdaptiveMaxAccumulator()	| 5l			| 5
+	}
+
+	@Unroll
+	def "check unsupported adaptive cell aggregations"(def aggregation, def update) {
+		when:
+		FunctionHelper.apply(aggregation, update, new AdaptiveAdder())
+
+		then:
+		thrown(IllegalStateException)
+
+		where:
+		aggregation				| update
+		AggregationType.AVERAGE	| 10
+		AggregationType.SUM		| new Object()
+	}
+
 	def adder(def initialValue) {
 		def result = new LongAdder()
 
@@ -320,4 +352,17 @@ class FunctionHelperSpec extends Specification {
 		[1: 1, 2: 2, 3: 3]  | 3
 		[1, 2, 3] as List 	| 3
 	}
+
+	@Unroll
+	def "check average merge"(long average1, long count1, long average2, long count2, long result) {
+		expect:
+		FunctionHelper.mergeAverage(average1, count1, average2, count2) == result
+		FunctionHelper.mergeAverage((int) average1, (int) count1, (int) average2, (int) count2) == result
+
+		where:
+		average1	| count1	| average2	| count2	| result
+		10			| 1			| 20		| 3			| 17
+		10			| 2			| 0			| 0			| 10
+		0			| 0			| 0			| 0			| 0
+	}
 }
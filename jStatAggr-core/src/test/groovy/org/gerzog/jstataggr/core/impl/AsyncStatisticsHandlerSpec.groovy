@@ -15,9 +15,14 @@
  */
 package org.gerzog.jstataggr.core.impl
 
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.ExecutorService
 
 import org.gerzog.jstataggr.IStatisticsHandler;
+import org.gerzog.jstataggr.IStatisticsManager
+import org.gerzog.jstataggr.IStatisticsPartials
+import org.gerzog.jstataggr.annotations.StatisticsEntry
+import org.gerzog.jstataggr.core.internal.impl.StatisticsTask
 
 import spock.lang.Specification
 
@@ -27,6 +32,12 @@ import spock.lang.Specification
  */
 class AsyncStatisticsHandlerSpec extends Specification {
 
+	@StatisticsEntry('stats')
+	class Statistics {
+
+		int key
+	}
+
 	IStatisticsHandler handler = new AsyncStatisticsHandler()
 
 	Runnable action = Mock(Runnable)
@@ -67,6 +78,69 @@ class AsyncStatisticsHandlerSpec extends Specification {
 		thrown(IllegalArgumentException)
 	}
 
+	def "check queue capacity is zero"() {
+		setup:
+		handler.queueCapacity = 0
+
+		when:
+		handler.initialize()
+
+		then:
+		thrown(IllegalArgumentException)
+	}
+
+	def "check overflow policies"() {
+		setup:
+		def latch = new CountDownLatch(1)
+		def handled = []
+
+		handler.threadNumber = 1
+		handler.queueCapacity = 1
+		handler.overflowPolicy = policy
+		handler.initialize()
+
+		when:
+		handler.handleStatistics({ latch.await() } as Runnable)
+		handler.handleStatistics({ handled << 'first' } as Runnable)
+		handler.handleStatistics({ handled << 'second' } as Runnable)
+
+		latch.countDown()
+		handler.updateExecutor.shutdown()
+		handler.updateExecutor.awaitTermination(1, java.util.concurrent.TimeUnit.SECONDS)
+
+		then:
+		handled == expected
+		handler.droppedCount == dropped
+		handler.callerRunsCount == callerRuns
+
+		where:
+		policy						| expected				| dropped	| callerRuns
+		OverflowPolicy.DROP_NEWEST	| ['first']				| 1			| 0
+		OverflowPolicy.DROP_OLDEST	| ['second']			| 1			| 0
+		OverflowPolicy.CALLER_RUNS	| ['second', 'first']	| 0			| 1
+	}
+
+	def "check dropped task counted by entries"() {
+		setup:
+		def latch = new CountDownLatch(1)
+
+		handler.threadNumber = 1
+		handler.queueCapacity = 1
+		handler.overflowPolicy = OverflowPolicy.DROP_OLDEST
+		handler.initialize()
+
+		when:
+		handler.handleStatistics({ latch.await() } as Runnable)
+		handler.handleStatistics(new StatisticsTask({} as Runnable, 3))
+		handler.handleStatistics({} as Runnable)
+
+		latch.countDown()
+		handler.shutdown()
+
+		then:
+		handler.droppedCount == 3
+	}
+
 	def "check handling with uninitialized executor"() {
 		when:
 		handler.handleStatistics(action)
@@ -83,7 +157,127 @@ class AsyncStatisticsHandlerSpec extends Specification {
 		handler.handleStatistics(action)
 
 		then:
-		1 * executor.submit(action)
+		1 * executor.execute(action)
+	}
+
+	def "check injected executor used and not stopped on shutdown"() {
+		setup:
+		handler.threadNumber = 1
+		handler.executor = executor
+
+		when:
+		handler.initialize()
+		handler.handleStatistics(action)
+		handler.shutdown()
+
+		then:
+		1 * executor.execute(action)
+		0 * executor.shutdown()
+	}
+
+	def "check settings of created executor rejected with injected executor"() {
+		setup:
+		handler.threadNumber = 1
+		handler.executor = executor
+		handler."$property" = value
+
+		when:
+		handler.initialize()
+
+		then:
+		thrown(IllegalArgumentException)
+
+		where:
+		property			| value
+		'queueCapacity'		| 10
+		'overflowPolicy'	| OverflowPolicy.DROP_NEWEST
+		'threadFactory'		| java.util.concurrent.Executors.defaultThreadFactory()
+		'executorType'		| ExecutorType.FORK_JOIN
+		'threadNumber'		| 5
+	}
+
+	def "check thread number rejected by virtual executor"() {
+		setup:
+		handler.executorType = ExecutorType.VIRTUAL
+
+		when:
+		handler.initialize()
+
+		then:
+		thrown(IllegalArgumentException)
+	}
+
+	def "check executor created by type"() {
+		setup:
+		handler.executorType = executorType
+
+		when:
+		handler.initialize()
+
+		then:
+		executorClass.isInstance(handler.updateExecutor)
+
+		cleanup:
+		handler.shutdown()
+
+		where:
+		executorType			| executorClass
+		ExecutorType.FIXED		| java.util.concurrent.ThreadPoolExecutor
+		ExecutorType.FORK_JOIN	| java.util.concurrent.ForkJoinPool
+	}
+
+	def "check fixed executor settings rejected by fork join executor"() {
+		setup:
+		handler.executorType = ExecutorType.FORK_JOIN
+		handler."$property" = value
+
+		when:
+		handler.initialize()
+
+		then:
+		thrown(IllegalArgumentException)
+
+		where:
+		property			| value
+		'queueCapacity'		| 10
+		'overflowPolicy'	| OverflowPolicy.DROP_NEWEST
+		'threadFactory'		| java.util.concurrent.Executors.defaultThreadFactory()
+	}
+
+	def "check thread factory used by fixed executor"() {
+		setup:
+		def factory = Mock(java.util.concurrent.ThreadFactory)
+		handler.threadFactory = factory
+
+		when:
+		handler.initialize()
+
+		then:
+		handler.updateExecutor.threadFactory == factory
+
+		cleanup:
+		handler.shutdown()
+	}
+
+	def "check virtual thread executor"() {
+		setup:
+		def supported = java.util.concurrent.Executors.methods.any { it.name == 'newVirtualThreadPerTaskExecutor' }
+		handler.threadNumber = 1
+		handler.executorType = ExecutorType.VIRTUAL
+
+		when:
+		def error = null
+		try {
+			handler.initialize()
+		} catch (IllegalStateException e) {
+			error = e
+		}
+
+		then:
+		supported ? handler.updateExecutor != null : error != null
+
+		cleanup:
+		handler.shutdown()
 	}
 
 	def "check executor stopped on shutdown"() {
@@ -96,4 +290,97 @@ class AsyncStatisticsHandlerSpec extends Specification {
 		then:
 		1 * executor.shutdown()
 	}
+
+	def "check flusher terminated before final flush"() {
+		setup:
+		def flushExecutor = Mock(java.util.concurrent.ScheduledExecutorService)
+		handler.flushExecutor = flushExecutor
+
+		when:
+		handler.shutdown()
+
+		then:
+		1 * flushExecutor.shutdown()
+
+		then:
+		1 * flushExecutor.awaitTermination(_, _) >> true
+	}
+
+	def "check entries combined into a single batch"() {
+		setup:
+		def manager = Mock(IStatisticsManager)
+		def combining = createCombiningHandler(manager, 3, 1000000)
+		def entries = [1, 2, 1].collect { new Statistics(key: it) }
+
+		when:
+		entries.each { combining.handleStatistics(it) }
+
+		then:
+		1 * manager.createPartials(Statistics, 'stats') >> null
+		1 * manager.updateStatistics(entries, 'stats')
+		0 * manager.updateStatistics(_ as Statistics, _)
+	}
+
+	def "check entries folded into partials of statistics"() {
+		setup:
+		def manager = Mock(IStatisticsManager)
+		def partials = Mock(IStatisticsPartials)
+		def combining = createCombiningHandler(manager, 3, 1000000)
+		def entries = [1, 2, 1].collect { new Statistics(key: it) }
+
+		when:
+		entries.each { combining.handleStatistics(it) }
+
+		then:
+		1 * manager.createPartials(Statistics, 'stats') >> partials
+		entries.each { 1 * partials.fold(it) }
+
+		then:
+		1 * partials.merge()
+		0 * manager.updateStatistics(_, _)
+	}
+
+	def "check combined entries flushed by timeout"() {
+		setup:
+		def manager = Mock(IStatisticsManager)
+		def combining = createCombiningHandler(manager, 100, 1000)
+		def entry = new Statistics(key: 1)
+
+		when:
+		combining.handleStatistics(entry)
+		Thread.sleep(200)
+
+		then:
+		1 * manager.updateStatistics([entry], 'stats')
+
+		cleanup:
+		combining.shutdown()
+	}
+
+	def "check combined entries flushed before writing"() {
+		setup:
+		def manager = Mock(IStatisticsManager)
+		def combining = createCombiningHandler(manager, 100, 1000000)
+		def entry = new Statistics(key: 1)
+
+		when:
+		combining.handleStatistics(entry)
+		combining.writeStatistics(false)
+
+		then:
+		1 * manager.updateStatistics([entry], 'stats')
+	}
+
+	private AsyncStatisticsHandler createCombiningHandler(IStatisticsManager manager, int size, long timeout) {
+		def result = new AsyncStatisticsHandler(manager)
+
+		result.executor = Mock(ExecutorService) {
+			execute(_ as Runnable) >> { Runnable action -> action.run() }
+		}
+		result.combineSize = size
+		result.combineTimeout = timeout
+		result.initialize()
+
+		result
+	}
 }
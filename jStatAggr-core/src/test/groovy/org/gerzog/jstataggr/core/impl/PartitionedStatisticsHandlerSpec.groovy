@@ -0,0 +1,81 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.impl
+
+import java.util.concurrent.ConcurrentHashMap
+
+import org.gerzog.jstataggr.IStatisticsManager
+import org.gerzog.jstataggr.annotations.StatisticsEntry
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class PartitionedStatisticsHandlerSpec extends Specification {
+
+	@StatisticsEntry('stats')
+	class Statistics {
+
+		int key
+	}
+
+	IStatisticsManager manager = Mock(IStatisticsManager)
+
+	PartitionedStatisticsHandler handler = new PartitionedStatisticsHandler(manager, 4)
+
+	def setup() {
+		handler.bufferSize = 16
+	}
+
+	def cleanup() {
+		handler.shutdown()
+	}
+
+	def "check caller runs overflow policy is not supported"() {
+		setup:
+		handler.overflowPolicy = OverflowPolicy.CALLER_RUNS
+
+		when:
+		handler.initialize()
+
+		then:
+		thrown(IllegalArgumentException)
+	}
+
+	def "check entries with same key handled by same thread"() {
+		setup:
+		def threads = new ConcurrentHashMap<Integer, Set<Thread>>()
+
+		manager.hashStatisticsKey(_, 'stats') >> { entry, name -> entry.key }
+		manager.updateStatistics(_, 'stats') >> { entry, name ->
+			threads.computeIfAbsent(entry.key, { ConcurrentHashMap.newKeySet() }).add(Thread.currentThread())
+		}
+
+		handler.initialize()
+
+		when:
+		1000.times { handler.handleStatistics(new Statistics(key: it % 10)) }
+		handler.handleStatistics((0..99).collect { new Statistics(key: it % 10) })
+		handler.shutdown()
+
+		then:
+		threads.size() == 10
+		threads.values().every { it.size() == 1 }
+		threads.values().collect { it.first() }.toSet().size() > 1
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.impl
+
+import java.util.concurrent.RejectedExecutionException
+
+import org.gerzog.jstataggr.IStatisticsManager
+import org.gerzog.jstataggr.annotations.StatisticsEntry
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class RingBufferStatisticsHandlerSpec extends Specification {
+
+	@StatisticsEntry('stats')
+	class Statistics {
+	}
+
+	IStatisticsManager manager = Mock(IStatisticsManager)
+
+	RingBufferStatisticsHandler handler = new RingBufferStatisticsHandler(manager, 2)
+
+	def setup() {
+		handler.bufferSize = 16
+		handler.batchSize = 4
+	}
+
+	def cleanup() {
+		handler.shutdown()
+	}
+
+	def "check handling with uninitialized buffer"() {
+		when:
+		handler.handleStatistics(new Statistics())
+
+		then:
+		thrown(NullPointerException)
+	}
+
+	def "check invalid configuration"() {
+		setup:
+		handler.threadNumber = threadNumber
+		handler.bufferSize = bufferSize
+		handler.batchSize = batchSize
+
+		when:
+		handler.initialize()
+
+		then:
+		thrown(IllegalArgumentException)
+
+		where:
+		threadNumber	| bufferSize	| batchSize
+		0				| 16			| 4
+		1				| 15			| 4
+		1				| 16			| 0
+	}
+
+	def "check all entries passed to manager before shutdown"() {
+		setup:
+		def statistics = new Statistics()
+		handler.initialize()
+
+		when:
+		100.times { handler.handleStatistics(statistics) }
+		handler.shutdown()
+
+		then:
+		100 * manager.updateStatistics(statistics, 'stats')
+	}
+
+	def "check consumers survive failed entry"() {
+		setup:
+		def statistics = new Statistics()
+		handler.initialize()
+
+		when:
+		handler.handleStatistics(statistics)
+		handler.handleStatistics(statistics)
+		handler.shutdown()
+
+		then:
+		1 * manager.updateStatistics(statistics, 'stats') >> { throw new IllegalStateException() }
+		1 * manager.updateStatistics(statistics, 'stats')
+		handler.failedCount == 1
+	}
+
+	def "check repeated initialization keeps consumers"() {
+		setup:
+		handler.initialize()
+		def consumers = handler.consumers
+
+		when:
+		handler.initialize()
+
+		then:
+		handler.consumers.is(consumers)
+	}
+
+	def "check interrupted shutdown keeps interrupted status"() {
+		setup:
+		handler.initialize()
+
+		when:
+		Thread.currentThread().interrupt()
+		handler.shutdown()
+
+		then:
+		Thread.interrupted()
+	}
+
+	def "check actions are executed by consumers"() {
+		setup:
+		def action = Mock(Runnable)
+		handler.initialize()
+
+		when:
+		handler.handleStatistics(action)
+		handler.shutdown()
+
+		then:
+		1 * action.run()
+	}
+
+	def "check entries rejected after shutdown"() {
+		setup:
+		handler.initialize()
+		handler.shutdown()
+
+		when:
+		handler.handleStatistics(new Statistics())
+
+		then:
+		thrown(RejectedExecutionException)
+		0 * manager._
+	}
+
+	def "check blocked producer rejected on shutdown"() {
+		setup:
+		handler.buffers = [new StatisticsRingBuffer(2)] as StatisticsRingBuffer[]
+		handler.running = true
+		2.times { handler.handleStatistics(new Statistics()) }
+		def error = null
+		def producer = Thread.start {
+			try {
+				handler.handleStatistics(new Statistics())
+			} catch (RejectedExecutionException e) {
+				error = e
+			}
+		}
+
+		when:
+		handler.shutdown()
+		producer.join(10000)
+
+		then:
+		!producer.alive
+		error != null
+	}
+
+	def "check overflow policies"() {
+		setup:
+		def statistics = (0..2).collect { new Statistics() }
+
+		handler.overflowPolicy = policy
+		handler.buffers = [new StatisticsRingBuffer(2)] as StatisticsRingBuffer[]
+		handler.running = true
+
+		when:
+		statistics.each { handler.handleStatistics(it) }
+		handler.buffers[0].drain(2, { entry, name -> handler.updateStatistics(entry, name) })
+
+		then:
+		handler.droppedCount == 1
+		handler.callerRunsCount == 0
+		1 * manager.updateStatistics(statistics[first], 'stats')
+		1 * manager.updateStatistics(statistics[second], 'stats')
+		0 * manager._
+
+		where:
+		policy						| first	| second
+		OverflowPolicy.DROP_NEWEST	| 0		| 1
+		OverflowPolicy.DROP_OLDEST	| 1		| 2
+	}
+
+	def "check caller runs overflow policy"() {
+		setup:
+		def statistics = new Statistics()
+
+		handler.overflowPolicy = OverflowPolicy.CALLER_RUNS
+		handler.buffers = [new StatisticsRingBuffer(2)] as StatisticsRingBuffer[]
+		handler.running = true
+
+		when:
+		3.times { handler.handleStatistics(statistics) }
+
+		then:
+		handler.callerRunsCount == 1
+		handler.droppedCount == 0
+		1 * manager.updateStatistics(statistics, 'stats')
+	}
+
+	def "check dropped batch counted by entries"() {
+		setup:
+		handler.overflowPolicy = OverflowPolicy.DROP_OLDEST
+		handler.buffers = [new StatisticsRingBuffer(2)] as StatisticsRingBuffer[]
+		handler.running = true
+
+		when:
+		handler.handleStatistics((0..2).collect { new Statistics() })
+		2.times { handler.handleStatistics(new Statistics()) }
+
+		then:
+		handler.droppedCount == 3
+	}
+}
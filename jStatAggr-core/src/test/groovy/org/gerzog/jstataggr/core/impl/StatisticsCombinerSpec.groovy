@@ -0,0 +1,123 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.impl
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import org.gerzog.jstataggr.IStatisticsPartials
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class StatisticsCombinerSpec extends Specification {
+
+	class EntryList implements IStatisticsPartials {
+
+		String name
+
+		List<Object> entries = []
+
+		void fold(Object statisticsEntry) {
+			entries << statisticsEntry
+		}
+
+		void merge() {
+		}
+
+		int getEntryCount() {
+			entries.size()
+		}
+	}
+
+	def factory = { entry, name -> new EntryList(name: name) }
+
+	def "check batches passed by statistics name"() {
+		setup:
+		def batches = [:]
+		def combiner = new StatisticsCombiner(10, Long.MAX_VALUE, factory, { batches[it.name] = it.entries })
+
+		when:
+		combiner.add('first', 'stats1')
+		combiner.add('second', 'stats2')
+		combiner.add('third', 'stats1')
+		combiner.flush()
+
+		then:
+		batches == [stats1: ['first', 'third'], stats2: ['second']]
+	}
+
+	def "check partials created once per statistics name and passed when buffer is full"() {
+		setup:
+		def created = []
+		def passed = []
+		def combiner = new StatisticsCombiner(3, Long.MAX_VALUE, { entry, name ->
+			created << entry
+			new EntryList(name: name)
+		}, { passed << it.entries })
+
+		when:
+		combiner.add('first', 'stats')
+		combiner.add('second', 'stats')
+
+		then:
+		created == ['first']
+		passed.empty
+
+		when:
+		combiner.add('third', 'stats')
+
+		then:
+		passed == [['first', 'second', 'third']]
+	}
+
+	def "check owner not blocked by slow consumer"() {
+		setup:
+		def consuming = new CountDownLatch(1)
+		def release = new CountDownLatch(1)
+		def firstAdded = new CountDownLatch(1)
+		def added = new CountDownLatch(1)
+		def combiner = new StatisticsCombiner(10, Long.MAX_VALUE, factory, {
+			consuming.countDown()
+			release.await()
+		})
+		def producer = Thread.start {
+			combiner.add('first', 'stats')
+			firstAdded.countDown()
+			consuming.await()
+			combiner.add('second', 'stats')
+			added.countDown()
+		}
+		def flusher = Thread.start {
+			firstAdded.await()
+			combiner.flush()
+		}
+
+		when:
+		def notBlocked = added.await(10, TimeUnit.SECONDS)
+
+		then:
+		notBlocked
+
+		cleanup:
+		release.countDown()
+		producer.join()
+		flusher.join()
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.impl
+
+import java.util.concurrent.ConcurrentLinkedQueue
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class StatisticsRingBufferSpec extends Specification {
+
+	StatisticsRingBuffer buffer = new StatisticsRingBuffer(4)
+
+	def "check capacity should be power of two"() {
+		when:
+		new StatisticsRingBuffer(capacity)
+
+		then:
+		thrown(IllegalArgumentException)
+
+		where:
+		capacity << [1, 3]
+	}
+
+	def "check offer fails when buffer is full"() {
+		when:
+		def results = (0..4).collect { buffer.offer(it, 'name') }
+
+		then:
+		results == [true, true, true, true, false]
+	}
+
+	def "check entries drained in order within batch limit"() {
+		setup:
+		(0..2).each { buffer.offer(it, "name${it}") }
+		def result = []
+
+		when:
+		def drained = buffer.drain(2, { entry, name -> result << [entry, name] })
+
+		then:
+		drained == 2
+		result == [[0, 'name0'], [1, 'name1']]
+		!buffer.isEmpty()
+	}
+
+	def "check slots reused after drain"() {
+		setup:
+		def result = []
+
+		when:
+		10.times {
+			buffer.offer(it, 'name')
+			buffer.drain(1, { entry, name -> result << entry })
+		}
+
+		then:
+		result == (0..9)
+		buffer.isEmpty()
+	}
+
+	def "check drain of empty buffer"() {
+		expect:
+		buffer.drain(10, { entry, name -> }) == 0
+	}
+
+	def "check concurrent producers and consumers"() {
+		setup:
+		def ringBuffer = new StatisticsRingBuffer(64)
+		def result = new ConcurrentLinkedQueue()
+		def producers = (0..3).collect { producer ->
+			Thread.start {
+				1000.times {
+					while (!ringBuffer.offer(producer * 1000 + it, 'name')) {
+						Thread.yield()
+					}
+				}
+			}
+		}
+		def consumers = (0..1).collect {
+			Thread.start {
+				while (result.size() < 4000) {
+					ringBuffer.drain(16, { entry, name -> result << entry })
+				}
+			}
+		}
+
+		when:
+		(producers + consumers)*.join()
+
+		then:
+		result.sort() == (0..3999)
+	}
+}
@@ -97,6 +97,44 @@ class AbstractStatisticsHandlerSpec extends Specification {
 		1 * manager.updateStatistics(entry, 'cool name')
 	}
 
+	def "check batch of statistics grouped by class"() {
+		setup:
+		def first = new Annotated()
+		def second = new AnnotatedWithName()
+		def third = new Annotated()
+
+		when:
+		handler.handleStatistics([first, second, third])
+
+		then:
+		2 * handler.handleStatistics(_ as Runnable)
+		1 * manager.updateStatistics([first, third], 'Annotated')
+		1 * manager.updateStatistics([second], 'cool name')
+	}
+
+	def "check an exception thrown when batch contains not-annotated class"() {
+		when:
+		handler.handleStatistics([new Annotated(), new NotAnnotated()])
+
+		then:
+		thrown(IllegalArgumentException)
+		0 * manager._
+	}
+
+	def "check record extracted on submit"() {
+		setup:
+		def entry = new Annotated()
+		def record = new Object()
+		handler.extractOnSubmit = true
+
+		when:
+		handler.handleStatistics(entry)
+
+		then:
+		1 * manager.extractRecord(entry, 'Annotated') >> record
+		1 * manager.updateStatistics(record, 'Annotated')
+	}
+
 	def "check an exception thrown when statistcs manager is null"() {
 		setup:
 		handler.setManager(null)
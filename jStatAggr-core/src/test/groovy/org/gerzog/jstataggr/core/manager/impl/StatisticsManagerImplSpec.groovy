@@ -15,12 +15,16 @@
  */
 package org.gerzog.jstataggr.core.manager.impl
 
-import java.lang.invoke.MethodHandle
+import java.lang.reflect.Method
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 
 import org.gerzog.jstataggr.AggregationType
+import org.gerzog.jstataggr.BucketOverflow
 import org.gerzog.jstataggr.FieldType
 import org.gerzog.jstataggr.IStatisticsFilter
 import org.gerzog.jstataggr.IStatisticsManager
+import org.gerzog.jstataggr.IStatisticsWriter
 import org.gerzog.jstataggr.annotations.Aggregated
 import org.gerzog.jstataggr.annotations.Expression
 import org.gerzog.jstataggr.annotations.StatisticsEntry
@@ -60,6 +64,13 @@ class StatisticsManagerImplSpec extends Specification {
 		String escaped
 	}
 
+	@StatisticsEntry('Statistics')
+	class StatisticsDuplicate {
+
+		@StatisticsKey
+		String name
+	}
+
 	@StatisticsEntry
 	class StatisticsWithoutGetter {
 
@@ -126,6 +137,37 @@ class StatisticsManagerImplSpec extends Specification {
 		int field
 	}
 
+	@StatisticsEntry
+	class UnsupportedKeyRange {
+
+		@StatisticsKey(min = 0L, max = 10L)
+		String field
+	}
+
+	@StatisticsEntry
+	class InvalidKeyRange {
+
+		@StatisticsKey(min = 10L, max = 0L)
+		int field
+	}
+
+	@StatisticsEntry
+	class BoundedStatistics {
+
+		@StatisticsKey(min = 0L, max = 10L)
+		int field
+	}
+
+	@StatisticsEntry(maxBuckets = 1, overflow = BucketOverflow.EVICT)
+	class LimitedStatistics {
+
+		@StatisticsKey
+		String name
+
+		@Aggregated(AggregationType.SUM)
+		int value
+	}
+
 	IExpressionHandler expressionHandler = Mock(IExpressionHandler)
 
 	IStatisticsManager manager = Spy(StatisticsManagerImpl, constructorArgs: [expressionHandler])
@@ -164,6 +206,144 @@ class StatisticsManagerImplSpec extends Specification {
 		1 * manager.createCollector(clazz, statisticsName)
 	}
 
+	def "check collector created once for concurrent updates"() {
+		when:
+		def threads = (1..8).collect {
+			Thread.start { manager.updateStatistics(new Statistics(), statisticsName) }
+		}
+		threads*.join()
+
+		then:
+		1 * manager.createCollector(clazz, statisticsName)
+		manager.collectors.get(statisticsName) != null
+	}
+
+	def "check collectors of other names not blocked by collector creation"() {
+		setup:
+		def started = new CountDownLatch(1)
+		def release = new CountDownLatch(1)
+		def blockedName = statisticsName + "Blocked"
+
+		// spock mocks handle invocations sequentially, so blocking is done by subclass
+		def blockingManager = new StatisticsManagerImpl(expressionHandler) {
+					@Override
+					protected StatisticsCollector createCollector(Class<?> statisticsClass, String name) {
+						if (name == blockedName) {
+							started.countDown()
+							release.await(10, TimeUnit.SECONDS)
+						}
+
+						super.createCollector(statisticsClass, name)
+					}
+				}
+
+		when:
+		def thread = Thread.start { blockingManager.updateStatistics(new Statistics(), blockedName) }
+		started.await(10, TimeUnit.SECONDS)
+		blockingManager.updateStatistics(statistics, statisticsName)
+
+		then:
+		blockingManager.collectors.get(statisticsName) != null
+		blockingManager.collectors.get(blockedName) == null
+
+		when:
+		release.countDown()
+		thread.join()
+
+		then:
+		blockingManager.collectors.get(blockedName) != null
+	}
+
+	def "check registered statistics not generated on update"() {
+		when:
+		manager.registerStatistics(clazz, statisticsName)
+		manager.updateStatistics(statistics, statisticsName)
+
+		then:
+		1 * manager.createCollector(clazz, statisticsName)
+		manager.collectors.get(statisticsName) != null
+	}
+
+	def "check collector generated again after unregistration"() {
+		setup:
+		manager.registerStatistics(clazz, statisticsName)
+
+		when:
+		manager.unregisterStatistics(statisticsName)
+		manager.updateStatistics(statistics, statisticsName)
+
+		then:
+		1 * manager.createCollector(clazz, statisticsName)
+	}
+
+	def "check collector closed on unregistration"() {
+		setup:
+		def collector = Mock(StatisticsCollector)
+		manager.collectors.put(statisticsName, collector)
+
+		when:
+		manager.unregisterStatistics(statisticsName)
+
+		then:
+		1 * collector.close()
+		manager.collectors.isEmpty()
+	}
+
+	def "check registration fails fast for invalid statistics"() {
+		when:
+		manager.registerStatistics(NoStatisticsKey, statisticsName)
+
+		then:
+		thrown(IllegalStateException)
+	}
+
+	def "check configured statistics registered on initialization"() {
+		setup:
+		// spock mocks handle invocations sequentially, so parallel registration is checked on real manager
+		def realManager = new StatisticsManagerImpl(expressionHandler)
+		realManager.statisticsClasses = [Statistics, BoundedStatistics]
+
+		when:
+		realManager.initialize()
+
+		then:
+		realManager.collectors.keySet() == ['Statistics', 'BoundedStatistics'] as Set
+	}
+
+	def "check statistics classes with same name cannot be registered"() {
+		setup:
+		def realManager = new StatisticsManagerImpl(expressionHandler)
+
+		when:
+		realManager.registerStatistics([Statistics, StatisticsDuplicate])
+
+		then:
+		thrown(IllegalStateException)
+		realManager.collectors.isEmpty()
+	}
+
+	def "check evicted buckets written and counted"() {
+		setup:
+		def writer = Mock(IStatisticsWriter)
+		manager.evictionWriters = [writer]
+
+		when:
+		manager.updateStatistics(new LimitedStatistics(name: 'first', value: 1), statisticsName)
+		manager.updateStatistics(new LimitedStatistics(name: 'second', value: 2), statisticsName)
+
+		then:
+		1 * writer.writeStatistics(statisticsName, { it*.name == ['first'] })
+		manager.getEvictedCount(statisticsName) == 1
+		manager.getFoldedUpdateCount(statisticsName) == 0
+		manager.collectStatistics(statisticsName, IStatisticsFilter.ALL, false)[statisticsName]*.name == ['second']
+	}
+
+	def "check counters of unknown statistics"() {
+		expect:
+		manager.getEvictedCount('unknown') == 0
+		manager.getFoldedUpdateCount('unknown') == 0
+	}
+
 	def "check collector creation"() {
 		when:
 		manager.createCollector(clazz, statisticsName)
@@ -184,22 +364,45 @@ class StatisticsManagerImplSpec extends Specification {
 		manager.initializeCollector(clazz, builder)
 
 		then:
-		1 * builder.addStatisticsKey(nameField, _ as MethodHandle, null)
+		1 * builder.addStatisticsKey(nameField, Long.MIN_VALUE, Long.MAX_VALUE, _ as Method, null)
 
 		1 * builder.addAggregation(valueField, [
 			AggregationType.MIN,
 			AggregationType.SUM,
 			AggregationType.COUNT,
 			AggregationType.AVERAGE
-		], FieldType.ATOMIC, _ as MethodHandle, null)
-		1 * builder.addStatisticsKey(expressionField, _ as MethodHandle, '2 + 3')
+		], FieldType.ATOMIC, _ as Method, null)
+		1 * builder.addStatisticsKey(expressionField, Long.MIN_VALUE, Long.MAX_VALUE, _ as Method, '2 + 3')
 
-		1 * builder.addAggregation(value2Field, [AggregationType.COUNT], FieldType.ACCUMULATOR, _ as MethodHandle, null)
+		1 * builder.addAggregation(value2Field, [AggregationType.COUNT], FieldType.ACCUMULATOR, _ as Method, null)
 
 		1 * builder.addAggregation(value3Field, [
 			AggregationType.SUM,
 			AggregationType.AVERAGE
-		], FieldType.PRIMITIVE, _ as MethodHandle, null)
+		], FieldType.PRIMITIVE, _ as Method, null)
+	}
+
+	def "check range of statistics key passed to builder"() {
+		setup:
+		def field = BoundedStatistics.getDeclaredField('field')
+
+		when:
+		manager.initializeCollector(BoundedStatistics, builder)
+
+		then:
+		1 * builder.addStatisticsKey(field, 0L, 10L, _ as Method, null)
+	}
+
+	@Unroll
+	def "check invalid range of statistics key"(def clazz) {
+		when:
+		manager.initializeCollector(clazz, builder)
+
+		then:
+		thrown(IllegalStateException)
+
+		where:
+		clazz << [UnsupportedKeyRange, InvalidKeyRange]
 	}
 
 	def "check exception if getter not exists"() {
@@ -221,7 +424,7 @@ class StatisticsManagerImplSpec extends Specification {
 		manager.collectStatistics(statisticsName, filter, false)
 
 		then:
-		1 * collector.collectStatistics(filter, false)
+		1 * collector.collectStatistics(filter, false, _)
 	}
 
 	def "check actions on statistics collection with not-applied filter"() {
@@ -235,7 +438,25 @@ class StatisticsManagerImplSpec extends Specification {
 		manager.collectStatistics('another name', filter, false)
 
 		then:
-		0 * collector.collectStatistics(filter, false)
+		0 * collector.collectStatistics(filter, false, _)
+	}
+
+	def "check overflow bucket collected separately"() {
+		setup:
+		def collector = Mock(StatisticsCollector)
+		def bucket = new Object()
+		collector.collectStatistics(IStatisticsFilter.ALL, false, _) >> { filter, cleanup, overflowConsumer ->
+			overflowConsumer.accept(bucket)
+			[]
+		}
+
+		manager.collectors.put(statisticsName, collector)
+
+		when:
+		def result = manager.collectStatistics(statisticsName, IStatisticsFilter.ALL, false)
+
+		then:
+		result.collectEntries { [(it.key.toString()): it.value] } == [(statisticsName.toString()): [], ((statisticsName + IStatisticsManager.OVERFLOW_POSTFIX).toString()): [bucket]]
 	}
 
 	def "check validation failed if statisticskey is also marked as aggregated"() {
@@ -180,6 +180,79 @@ class TemplateHelperSpec extends Specification {
 		result == 'org.gerzog.jstataggr.core.functions.FunctionHelper.apply(averageField, averageFieldCount, this.averageField);'
 	}
 
+	def "check field updater declaration"() {
+		when:
+		def result = TemplateHelper.fieldUpdaterField('Bucket', 'valueSum', long.class)
+
+		then:
+		result == 'private static final java.util.concurrent.atomic.AtomicLongFieldUpdater valueSumUpdater = java.util.concurrent.atomic.AtomicLongFieldUpdater.newUpdater(Bucket.class, "valueSum");'
+	}
+
+	@Unroll
+	def "check field updater body"(AggregationType aggregation, Class<?> type, String expected) {
+		when:
+		def result = TemplateHelper.fieldUpdaterBody('value', type, aggregation, long.class)
+
+		then:
+		result == expected
+
+		where:
+		aggregation				| type		| expected
+		AggregationType.SUM		| int		| 'valueSumUpdater.getAndAdd(this, ((long) value));'
+		AggregationType.SUM		| Integer	| 'valueSumUpdater.getAndAdd(this, ((long) value.intValue()));'
+		AggregationType.COUNT	| int		| 'valueCountUpdater.getAndAdd(this, ((long) 1));'
+		AggregationType.COUNT	| String	| 'valueCountUpdater.getAndAdd(this, ((long) org.gerzog.jstataggr.core.functions.FunctionHelper.getCount(value)));'
+		AggregationType.MIN		| long		| 'while (true) {long current = this.valueMin;if (((long) value) >= current || valueMinUpdater.compareAndSet(this, current, ((long) value))) { return; }}'
+		AggregationType.MAX		| long		| 'while (true) {long current = this.valueMax;if (((long) value) <= current || valueMaxUpdater.compareAndSet(this, current, ((long) value))) { return; }}'
+	}
+
+	def "check field updater average body"() {
+		when:
+		def result = TemplateHelper.fieldUpdaterAverageBody('valueAverage', int, int)
+
+		then:
+		result == 'while (true) {int current = this.valueAverage;if (valueAverageUpdater.compareAndSet(this, current, org.gerzog.jstataggr.core.functions.FunctionHelper.apply(((int) valueAverage), this.valueAverageCount, current))) { break; }}'
+	}
+
+	def "check packed values declaration"() {
+		when:
+		def result = TemplateHelper.packedField([Long.MAX_VALUE, Long.MIN_VALUE, 0L] as long[])
+
+		then:
+		result == 'final java.util.concurrent.atomic.AtomicLongArray packedValues = new java.util.concurrent.atomic.AtomicLongArray(new long[] {9223372036854775807L, java.lang.Long.MIN_VALUE, 0L});'
+	}
+
+	def "check packed getter"() {
+		when:
+		def result = TemplateHelper.packedGetter('public', 'valueSum', int, 2)
+
+		then:
+		result == 'public int getValueSum() {return (int) this.packedValues.get(2);}'
+	}
+
+	@Unroll
+	def "check packed updater body"(AggregationType aggregation, String expected) {
+		when:
+		def result = TemplateHelper.packedUpdaterBody('value', int, aggregation, 1)
+
+		then:
+		result == expected
+
+		where:
+		aggregation				| expected
+		AggregationType.SUM		| 'this.packedValues.getAndAdd(1, ((long) value));'
+		AggregationType.COUNT	| 'this.packedValues.getAndAdd(1, ((long) 1));'
+		AggregationType.MIN		| 'while (true) {long current = this.packedValues.get(1);if (((long) value) >= current || this.packedValues.compareAndSet(1, current, ((long) value))) { return; }}'
+	}
+
+	def "check packed average body"() {
+		when:
+		def result = TemplateHelper.packedAverageBody('valueAverage', int, 1, 0)
+
+		then:
+		result == 'while (true) {long current = this.packedValues.get(1);if (this.packedValues.compareAndSet(1, current, org.gerzog.jstataggr.core.functions.FunctionHelper.apply(((long) valueAverage), this.packedValues.get(0), current))) { break; }}'
+	}
+
 	def "check field access lines"(def clazz, def expected) {
 		when:
 		def result = TemplateHelper.fieldAccessLine('field', clazz)
@@ -194,4 +267,52 @@ class TemplateHelperSpec extends Specification {
 		LongAdder.class			| 'field.sum()'
 		LongAccumulator.class 	| 'field.get()'
 	}
+
+	def "check variable declaration"() {
+		when:
+		def result = TemplateHelper.variable(int.class, 'value', '1')
+
+		then:
+		result == 'int value = 1;'
+	}
+
+	@Unroll
+	def "check boxing of value"(def clazz, def expected) {
+		when:
+		def result = TemplateHelper.box(clazz, 'value')
+
+		then:
+		result == expected
+
+		where:
+		clazz			| expected
+		int.class		| 'java.lang.Integer.valueOf(value)'
+		long.class		| 'java.lang.Long.valueOf(value)'
+		boolean.class	| 'java.lang.Boolean.valueOf(value)'
+		String.class	| 'value'
+	}
+
+	@Unroll
+	def "check unboxing of value"(def clazz, def expected) {
+		when:
+		def result = TemplateHelper.unbox(clazz, 'value')
+
+		then:
+		result == expected
+
+		where:
+		clazz			| expected
+		int.class		| '((java.lang.Number) value).intValue()'
+		long.class		| '((java.lang.Number) value).longValue()'
+		boolean.class	| '((java.lang.Boolean) value).booleanValue()'
+		String.class	| '((java.lang.String) value)'
+	}
+
+	def "check string literal is escaped"() {
+		when:
+		def result = TemplateHelper.stringLiteral('a "quoted" value')
+
+		then:
+		result == '"a \\"quoted\\" value"'
+	}
 }
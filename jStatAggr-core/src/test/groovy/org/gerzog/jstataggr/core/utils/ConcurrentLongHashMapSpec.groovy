@@ -0,0 +1,124 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.utils
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class ConcurrentLongHashMapSpec extends Specification {
+
+	ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<>()
+
+	def "check put and get"() {
+		when:
+		def previous = map.putIfAbsent(key, 'value')
+
+		then:
+		previous == null
+		map.get(key) == 'value'
+		map.size() == 1
+
+		where:
+		key << [0l, -1l, Long.MIN_VALUE, Long.MAX_VALUE, 42l]
+	}
+
+	def "check existing value returned"() {
+		setup:
+		map.putIfAbsent(1l, 'first')
+
+		when:
+		def previous = map.putIfAbsent(1l, 'second')
+
+		then:
+		previous == 'first'
+		map.get(1l) == 'first'
+	}
+
+	def "check null value not supported"() {
+		when:
+		map.putIfAbsent(1l, null)
+
+		then:
+		thrown(IllegalArgumentException)
+	}
+
+	def "check remove"() {
+		setup:
+		map.putIfAbsent(1l, 'value')
+
+		when:
+		def removed = map.remove(1l)
+
+		then:
+		removed == 'value'
+		map.get(1l) == null
+		map.remove(1l) == null
+		map.size() == 0
+	}
+
+	def "check map grows and reuses removed slots"() {
+		when:
+		(0..<10000).each { map.putIfAbsent(it, "value${it}") }
+		(0..<10000).step(2) { map.remove(it) }
+		(10000..<20000).each { map.putIfAbsent(it, "value${it}") }
+
+		then:
+		map.size() == 15000
+		(0..<20000).every { key ->
+			map.get(key) == ((key < 10000 && key % 2 == 0) ? null : "value${key}")
+		}
+	}
+
+	def "check iteration"() {
+		setup:
+		def result = [:]
+		(1..100).each { map.putIfAbsent(it, "value${it}") }
+
+		when:
+		map.forEach({ value, key -> result[key] = value })
+
+		then:
+		result.size() == 100
+		result[50l] == 'value50'
+	}
+
+	def "check concurrent inserts"() {
+		setup:
+		def executor = Executors.newFixedThreadPool(4)
+		def latch = new CountDownLatch(1)
+
+		when:
+		4.times { thread ->
+			executor.submit {
+				latch.await()
+				(0..<5000).each { map.putIfAbsent(it * 4 + thread, 'value') }
+			}
+		}
+		latch.countDown()
+		executor.shutdown()
+		executor.awaitTermination(10, TimeUnit.SECONDS)
+
+		then:
+		map.size() == 20000
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C)2014 - Nikolay Lagutko <nikolay.lagutko@mail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gerzog.jstataggr.core.utils
+
+import org.gerzog.jstataggr.annotations.StatisticsEntry
+
+import spock.lang.Specification
+
+/**
+ * @author Nikolay Lagutko (nikolay.lagutko@mail.com)
+ *
+ */
+class EntryUtilsSpec extends Specification {
+
+	@StatisticsEntry
+	class Statistics {
+	}
+
+	@StatisticsEntry('named')
+	class NamedStatistics {
+	}
+
+	class NotStatistics {
+	}
+
+	def "check statistics name"() {
+		expect:
+		EntryUtils.getStatisticsName(Statistics) == 'Statistics'
+		EntryUtils.getStatisticsName(NamedStatistics) == 'named'
+	}
+
+	def "check statistics name of not annotated class"() {
+		when:
+		EntryUtils.getStatisticsName(NotStatistics)
+
+		then:
+		thrown(IllegalArgumentException)
+	}
+
+	def "check statistics entries found in package directory"() {
+		when:
+		def result = EntryUtils.findStatisticsEntries(getClass().classLoader, 'org.gerzog.jstataggr.core.utils')
+
+		then:
+		result.containsAll([Statistics, NamedStatistics])
+		!result.contains(NotStatistics)
+	}
+
+	def "check package in jar scanned"() {
+		when:
+		def result = EntryUtils.findStatisticsEntries(getClass().classLoader, 'org.apache.commons.lang3.tuple')
+
+		then:
+		result.empty
+	}
+}
@@ -64,5 +64,19 @@ class ThrowablesSpec extends Specification {
 		then:
 		thrown(IllegalArgumentException)
 	}
-}
 
+	def "check primitive results"() {
+		expect:
+		Throwables.propogateInt({ 1 } as Throwables.IntCallable) == 1
+		Throwables.propogateLong({ 2l } as Throwables.LongCallable) == 2l
+	}
+
+	def "check non-runtime exception for primitive results"() {
+		when:
+		Throwables.propogateLong({ throw new IOException() } as Throwables.LongCallable)
+
+		then:
+		def e = thrown(RuntimeException)
+		e.cause instanceof IOException
+	}
+}